@@ -0,0 +1,488 @@
+package org.devlive.tutorial.multithreading.chapter02;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 可追踪的线程池工厂
+ * 通过它创建的线程池会记录创建位置，并由一个守护线程检测两类问题：
+ * <ul>
+ * <li>线程池泄漏：调用方拿到的ExecutorService已经不可达，但从未调用shutdown()，工作线程会一直存在</li>
+ * <li>卡住的任务：单个任务运行时间超过阈值，打印执行线程的堆栈</li>
+ * </ul>
+ * 线程池本身被工作线程引用，永远不会被回收，所以调用方拿到的是一个轻量的外观对象，
+ * 用弱引用跟踪外观对象的可达性。每个任务的额外开销只是beforeExecute/afterExecute中的两次volatile写。
+ */
+public class ExecutorLeakDetector
+        implements AutoCloseable
+{
+    // 任务运行超过该时间视为卡住（毫秒）
+    private final long stuckThresholdMillis;
+    // 检查间隔（毫秒）
+    private final long checkIntervalMillis;
+    // 检测到泄漏时是否自动关闭线程池
+    private final boolean shutdownLeakedPools;
+    private volatile Listener listener = new PrintingListener();
+
+    private final ReferenceQueue<ExecutorService> referenceQueue = new ReferenceQueue<>();
+    private final Set<PoolRecord> pools = ConcurrentHashMap.newKeySet();
+    // 创建位置 -> 泄漏次数，线程池回收后依然保留
+    private final Map<String, AtomicInteger> leaksBySite = new ConcurrentHashMap<>();
+    private final AtomicInteger poolSequence = new AtomicInteger();
+    private final AtomicLong stuckTaskCount = new AtomicLong();
+
+    private final Thread watchdog;
+    private volatile boolean running = true;
+
+    /**
+     * @param stuckThresholdMillis 任务运行超过该时间视为卡住（毫秒）
+     * @param checkIntervalMillis 检查间隔（毫秒）
+     * @param shutdownLeakedPools 检测到泄漏时是否自动关闭线程池
+     */
+    public ExecutorLeakDetector(long stuckThresholdMillis, long checkIntervalMillis, boolean shutdownLeakedPools)
+    {
+        this.stuckThresholdMillis = stuckThresholdMillis;
+        this.checkIntervalMillis = checkIntervalMillis;
+        this.shutdownLeakedPools = shutdownLeakedPools;
+        this.watchdog = new Thread(this::watchdogLoop, "ExecutorLeakDetector");
+        watchdog.setDaemon(true);
+        watchdog.start();
+    }
+
+    public void setListener(Listener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * 创建固定大小的线程池，等同于Executors.newFixedThreadPool
+     */
+    public ExecutorService newFixedThreadPool(int threads)
+    {
+        return track(new LinkedBlockingQueue<>(), threads, threads, 0L);
+    }
+
+    /**
+     * 创建可缓存的线程池，等同于Executors.newCachedThreadPool
+     */
+    public ExecutorService newCachedThreadPool()
+    {
+        return track(new SynchronousQueue<>(), 0, Integer.MAX_VALUE, 60_000L);
+    }
+
+    /**
+     * 创建单线程的线程池，等同于Executors.newSingleThreadExecutor
+     */
+    public ExecutorService newSingleThreadExecutor()
+    {
+        return track(new LinkedBlockingQueue<>(), 1, 1, 0L);
+    }
+
+    private ExecutorService track(BlockingQueue<Runnable> queue, int core, int max, long keepAliveMillis)
+    {
+        // 只在创建线程池时取一次调用栈
+        String site = creationSite(new Throwable().getStackTrace());
+        int id = poolSequence.incrementAndGet();
+        PoolRecord record = new PoolRecord(id, site);
+        TrackingThreadPoolExecutor executor = new TrackingThreadPoolExecutor(core, max, keepAliveMillis, queue, record);
+        record.executor = executor;
+        TrackedExecutorService facade = new TrackedExecutorService(executor);
+        record.facadeRef = new FacadeReference(facade, referenceQueue, record);
+        pools.add(record);
+        return facade;
+    }
+
+    private static String creationSite(StackTraceElement[] stack)
+    {
+        for (StackTraceElement element : stack) {
+            String className = element.getClassName();
+            if (!className.equals(ExecutorLeakDetector.class.getName())
+                    && !className.startsWith(ExecutorLeakDetector.class.getName() + "$")) {
+                return element.toString();
+            }
+        }
+        return "unknown";
+    }
+
+    private void watchdogLoop()
+    {
+        while (running) {
+            try {
+                // 等待外观对象被回收，同时作为检查间隔的定时器
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(checkIntervalMillis);
+                long remaining;
+                while ((remaining = deadline - System.nanoTime()) > 0) {
+                    FacadeReference reference = (FacadeReference) referenceQueue.remove(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+                    if (reference != null) {
+                        onFacadeCollected(reference.record);
+                    }
+                }
+                checkStuckTasks();
+                // 已经结束的线程池不再跟踪
+                pools.removeIf(record -> record.executor.isTerminated());
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            catch (RuntimeException e) {
+                // 监听器抛出的异常不能终止检测线程
+            }
+        }
+    }
+
+    private void onFacadeCollected(PoolRecord record)
+    {
+        record.facadeRef = null;
+        if (record.executor.isShutdown()) {
+            return;
+        }
+        record.leaked = true;
+        leaksBySite.computeIfAbsent(record.site, k -> new AtomicInteger()).incrementAndGet();
+        listener.onLeak(record.site, record.id, record.executor.getPoolSize());
+        if (shutdownLeakedPools) {
+            // 已经没人能再提交任务，让排队的任务执行完后退出
+            record.executor.shutdown();
+        }
+    }
+
+    private void checkStuckTasks()
+    {
+        long now = System.nanoTime();
+        long threshold = TimeUnit.MILLISECONDS.toNanos(stuckThresholdMillis);
+        for (PoolRecord record : pools) {
+            Iterator<Map.Entry<Thread, TaskSlot>> iterator = record.slots.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Thread, TaskSlot> entry = iterator.next();
+                Thread thread = entry.getKey();
+                if (!thread.isAlive()) {
+                    // 可缓存线程池回收了空闲线程
+                    iterator.remove();
+                    continue;
+                }
+                TaskSlot slot = entry.getValue();
+                long start = slot.startNanos;
+                Runnable task = slot.task;
+                if (start == 0 || task == null || now - start < threshold || slot.reportedStart == start) {
+                    continue;
+                }
+                // 同一次执行只报告一次
+                slot.reportedStart = start;
+                stuckTaskCount.incrementAndGet();
+                listener.onStuckTask(record.site, record.id, thread, task,
+                        TimeUnit.NANOSECONDS.toMillis(now - start), thread.getStackTrace());
+            }
+        }
+    }
+
+    /**
+     * 按创建位置统计存活的线程池和线程数
+     */
+    public Map<String, SiteStatistics> getSiteStatistics()
+    {
+        Map<String, SiteStatistics> result = new LinkedHashMap<>();
+        for (PoolRecord record : pools) {
+            if (record.executor.isTerminated()) {
+                continue;
+            }
+            SiteStatistics statistics = result.computeIfAbsent(record.site, SiteStatistics::new);
+            statistics.livePools++;
+            statistics.threads += record.executor.getPoolSize();
+            statistics.activeThreads += record.executor.getActiveCount();
+            statistics.queuedTasks += record.executor.getQueue().size();
+            statistics.completedTasks += record.executor.getCompletedTaskCount();
+            if (record.leaked) {
+                statistics.leakedLivePools++;
+            }
+        }
+        leaksBySite.forEach((site, leaks) -> result.computeIfAbsent(site, SiteStatistics::new).totalLeaks = leaks.get());
+        return result;
+    }
+
+    public long getStuckTaskCount()
+    {
+        return stuckTaskCount.get();
+    }
+
+    /**
+     * 打印按创建位置分组的报告
+     */
+    public void printReport()
+    {
+        System.out.println("=== 线程池追踪报告 ===");
+        Map<String, SiteStatistics> statistics = getSiteStatistics();
+        if (statistics.isEmpty()) {
+            System.out.println("没有存活的线程池");
+        }
+        statistics.values().forEach(System.out::println);
+        System.out.println("检测到的卡住任务: " + stuckTaskCount.get());
+    }
+
+    @Override
+    public void close()
+    {
+        running = false;
+        watchdog.interrupt();
+    }
+
+    /**
+     * 检测结果的回调，在检测线程中调用
+     */
+    public interface Listener
+    {
+        void onLeak(String site, int poolId, int threads);
+
+        void onStuckTask(String site, int poolId, Thread thread, Runnable task, long elapsedMillis, StackTraceElement[] stack);
+    }
+
+    /**
+     * 默认的监听器，把结果打印到控制台
+     */
+    public static class PrintingListener
+            implements Listener
+    {
+        @Override
+        public void onLeak(String site, int poolId, int threads)
+        {
+            System.out.println("[线程池泄漏] 线程池#" + poolId + " 已不可达但没有关闭，仍有 " + threads
+                    + " 个线程，创建位置: " + site);
+        }
+
+        @Override
+        public void onStuckTask(String site, int poolId, Thread thread, Runnable task, long elapsedMillis, StackTraceElement[] stack)
+        {
+            StringBuilder builder = new StringBuilder();
+            builder.append("[任务卡住] 线程池#").append(poolId).append(" 线程 '").append(thread.getName())
+                    .append("' 已运行 ").append(elapsedMillis).append(" ms，创建位置: ").append(site).append('\n');
+            for (StackTraceElement element : stack) {
+                builder.append("\tat ").append(element).append('\n');
+            }
+            System.out.print(builder);
+        }
+    }
+
+    /**
+     * 同一个创建位置的统计信息
+     */
+    public static class SiteStatistics
+    {
+        private final String site;
+        private int livePools;
+        private int leakedLivePools;
+        private int totalLeaks;
+        private int threads;
+        private int activeThreads;
+        private long queuedTasks;
+        private long completedTasks;
+
+        SiteStatistics(String site)
+        {
+            this.site = site;
+        }
+
+        public String getSite()
+        {
+            return site;
+        }
+
+        public int getLivePools()
+        {
+            return livePools;
+        }
+
+        public int getLeakedLivePools()
+        {
+            return leakedLivePools;
+        }
+
+        public int getTotalLeaks()
+        {
+            return totalLeaks;
+        }
+
+        public int getThreads()
+        {
+            return threads;
+        }
+
+        public int getActiveThreads()
+        {
+            return activeThreads;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s: 存活线程池 %d (其中泄漏 %d), 线程 %d (活动 %d), 排队任务 %d, 已完成任务 %d, 累计泄漏 %d",
+                    site, livePools, leakedLivePools, threads, activeThreads, queuedTasks, completedTasks, totalLeaks);
+        }
+    }
+
+    /**
+     * 一个被追踪的线程池，不能引用外观对象，否则外观对象永远不会被回收
+     */
+    private static class PoolRecord
+    {
+        final int id;
+        final String site;
+        // 工作线程 -> 正在执行的任务
+        final Map<Thread, TaskSlot> slots = new ConcurrentHashMap<>();
+        volatile TrackingThreadPoolExecutor executor;
+        volatile FacadeReference facadeRef;
+        volatile boolean leaked;
+
+        PoolRecord(int id, String site)
+        {
+            this.id = id;
+            this.site = site;
+        }
+    }
+
+    /**
+     * 工作线程当前执行的任务，线程复用时槽位也复用，不产生额外对象
+     */
+    private static class TaskSlot
+    {
+        volatile long startNanos;
+        volatile Runnable task;
+        long reportedStart;
+    }
+
+    private static class FacadeReference
+            extends WeakReference<ExecutorService>
+    {
+        final PoolRecord record;
+
+        FacadeReference(ExecutorService facade, ReferenceQueue<ExecutorService> queue, PoolRecord record)
+        {
+            super(facade, queue);
+            this.record = record;
+        }
+    }
+
+    private static class TrackingThreadPoolExecutor
+            extends ThreadPoolExecutor
+    {
+        private final PoolRecord record;
+
+        TrackingThreadPoolExecutor(int core, int max, long keepAliveMillis, BlockingQueue<Runnable> queue, PoolRecord record)
+        {
+            super(core, max, keepAliveMillis, TimeUnit.MILLISECONDS, queue, new NamedThreadFactory(record.id));
+            this.record = record;
+        }
+
+        @Override
+        protected void beforeExecute(Thread thread, Runnable task)
+        {
+            TaskSlot slot = record.slots.get(thread);
+            if (slot == null) {
+                slot = new TaskSlot();
+                record.slots.put(thread, slot);
+            }
+            slot.task = task;
+            slot.startNanos = System.nanoTime();
+        }
+
+        @Override
+        protected void afterExecute(Runnable task, Throwable error)
+        {
+            TaskSlot slot = record.slots.get(Thread.currentThread());
+            if (slot != null) {
+                slot.startNanos = 0;
+                slot.task = null;
+            }
+        }
+    }
+
+    private static class NamedThreadFactory
+            implements ThreadFactory
+    {
+        private final int poolId;
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        NamedThreadFactory(int poolId)
+        {
+            this.poolId = poolId;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "tracked-pool-" + poolId + "-thread-" + threadNumber.incrementAndGet());
+            thread.setDaemon(false);
+            return thread;
+        }
+    }
+
+    /**
+     * 交给调用方的外观对象，只持有真正的线程池
+     */
+    private static class TrackedExecutorService
+            extends AbstractExecutorService
+    {
+        private final ThreadPoolExecutor delegate;
+
+        TrackedExecutorService(ThreadPoolExecutor delegate)
+        {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void execute(Runnable command)
+        {
+            delegate.execute(command);
+        }
+
+        @Override
+        public void shutdown()
+        {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow()
+        {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown()
+        {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated()
+        {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit)
+                throws InterruptedException
+        {
+            return delegate.awaitTermination(timeout, unit);
+        }
+
+        @Override
+        public String toString()
+        {
+            return delegate.toString();
+        }
+    }
+}
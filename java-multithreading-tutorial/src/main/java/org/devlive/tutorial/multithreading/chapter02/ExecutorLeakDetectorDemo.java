@@ -0,0 +1,59 @@
+package org.devlive.tutorial.multithreading.chapter02;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 线程池泄漏检测示例
+ * 重现ThreadLeakDemo中忘记关闭线程池的场景，由检测器找出泄漏的创建位置和卡住的任务。
+ */
+public class ExecutorLeakDetectorDemo
+{
+    public static void main(String[] args)
+            throws InterruptedException
+    {
+        // 任务运行超过1秒视为卡住，每200毫秒检查一次，泄漏的线程池自动关闭
+        ExecutorLeakDetector detector = new ExecutorLeakDetector(1000, 200, true);
+
+        // 1. 重复调用忘记关闭线程池的方法
+        for (int i = 0; i < 3; i++) {
+            badThreadPoolUsage(detector);
+        }
+        // 2. 正确关闭的线程池不会被报告
+        ExecutorService good = detector.newFixedThreadPool(2);
+        // 3. 一个长时间不返回的任务
+        good.submit(() -> {
+            try {
+                TimeUnit.SECONDS.sleep(2);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        TimeUnit.MILLISECONDS.sleep(300);
+        detector.printReport();
+
+        // 外观对象不可达后，垃圾回收时检测器才能发现泄漏
+        System.out.println("\n触发垃圾回收...");
+        System.gc();
+        TimeUnit.MILLISECONDS.sleep(1500);
+
+        good.shutdown();
+        good.awaitTermination(5, TimeUnit.SECONDS);
+        TimeUnit.MILLISECONDS.sleep(300);
+        System.out.println();
+        detector.printReport();
+        detector.close();
+    }
+
+    private static void badThreadPoolUsage(ExecutorLeakDetector detector)
+    {
+        ExecutorService executor = detector.newFixedThreadPool(5);
+        for (int i = 0; i < 10; i++) {
+            final int taskId = i;
+            executor.submit(() -> taskId);
+        }
+        // 没有调用shutdown()
+    }
+}
@@ -0,0 +1,426 @@
+package org.devlive.tutorial.multithreading.chapter02;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 固定内存、对数分桶的延迟直方图
+ * 每个2的幂区间再等分为32个子桶，相对误差不超过约3%，覆盖0到Long.MAX_VALUE，每个记录器约15KB。
+ * <p>
+ * 每个线程第一次记录时创建自己的记录器，之后record()只是对本线程数组的一次单写者写入，
+ * 既不加锁也不分配内存；snapshot()读取并合并所有记录器，不会阻塞记录线程。
+ * 线程结束后，它的记录器在下一次快照或有新线程开始记录时并入退休累加器并被丢弃，
+ * 因此内存只与仍存活的记录线程数成正比，不会随着线程池反复创建线程而增长。
+ * 快照可以序列化成紧凑的字节数组，在进程之间传递后再合并。
+ */
+public class LatencyHistogram
+{
+    // 每个2的幂区间的子桶数量：2^SUB_BUCKET_BITS
+    static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // 小于SUB_BUCKETS的值各占一个桶，之后每个指数SUB_BUCKETS个桶，最大指数为62
+    static final int BUCKET_COUNT = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    // 额外的统计槽位，放在计数数组后面
+    private static final int SLOT_COUNT = BUCKET_COUNT;
+    private static final int SLOT_SUM = BUCKET_COUNT + 1;
+    private static final int SLOT_MIN = BUCKET_COUNT + 2;
+    private static final int SLOT_MAX = BUCKET_COUNT + 3;
+    private static final int SLOTS = BUCKET_COUNT + 4;
+
+    private final String name;
+    private final List<Recorder> recorders = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Recorder> localRecorder = ThreadLocal.withInitial(() -> {
+        pruneDeadRecorders();
+        Recorder recorder = new Recorder(Thread.currentThread());
+        recorders.add(recorder);
+        return recorder;
+    });
+    // 已结束线程的记录器合并后的结果，由本对象的锁保护
+    private Snapshot retired;
+
+    public LatencyHistogram(String name)
+    {
+        this.name = name;
+        this.retired = new Snapshot(name);
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * 记录一个值（通常是纳秒），负数按0处理
+     */
+    public void record(long value)
+    {
+        localRecorder.get().record(value);
+    }
+
+    /**
+     * 记录从startNanos到现在经过的时间，配合System.nanoTime()使用
+     */
+    public void recordSince(long startNanos)
+    {
+        localRecorder.get().record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * 合并所有线程的记录器，得到当前的快照
+     * 与记录线程并发执行时，快照中可能缺少正在写入的少量样本，但不会出现不一致的桶。
+     */
+    public synchronized Snapshot snapshot()
+    {
+        pruneDeadRecorders();
+        Snapshot snapshot = new Snapshot(name).add(retired);
+        for (Recorder recorder : recorders) {
+            recorder.mergeInto(snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * 清空所有记录器
+     * 只应在没有线程记录时调用，否则并发写入的样本可能部分丢失。
+     */
+    public synchronized void reset()
+    {
+        retired = new Snapshot(name);
+        for (Recorder recorder : recorders) {
+            recorder.reset();
+        }
+    }
+
+    /**
+     * 把已结束线程的记录器并入退休累加器并从列表中移除
+     * 线程结束前的写入对isAlive()返回false之后的读取可见，合并时不会丢失样本。
+     */
+    private synchronized void pruneDeadRecorders()
+    {
+        for (Recorder recorder : recorders) {
+            Thread owner = recorder.owner.get();
+            if ((owner == null || !owner.isAlive()) && recorders.remove(recorder)) {
+                recorder.mergeInto(retired);
+            }
+        }
+    }
+
+    /**
+     * 仍在使用的记录器数量
+     */
+    public int getRecorderCount()
+    {
+        return recorders.size();
+    }
+
+    /**
+     * 值所在的桶下标
+     */
+    static int bucketIndex(long value)
+    {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(0, value);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * 桶的下界（包含）
+     */
+    static long bucketLowerBound(int index)
+    {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket) << shift;
+    }
+
+    /**
+     * 桶的上界（包含）
+     */
+    static long bucketUpperBound(int index)
+    {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        return bucketLowerBound(index) + (1L << shift) - 1;
+    }
+
+    /**
+     * 单个线程的记录器
+     * 只有所属线程写入，用lazySet发布，不需要CAS；合并线程用get()读取。
+     */
+    private static class Recorder
+    {
+        private final AtomicLongArray slots = new AtomicLongArray(SLOTS);
+        // 弱引用，不阻止线程对象被回收
+        private final WeakReference<Thread> owner;
+
+        Recorder(Thread owner)
+        {
+            this.owner = new WeakReference<>(owner);
+            slots.set(SLOT_MIN, Long.MAX_VALUE);
+        }
+
+        void record(long value)
+        {
+            long v = Math.max(0, value);
+            int index = bucketIndex(v);
+            slots.lazySet(index, slots.get(index) + 1);
+            slots.lazySet(SLOT_SUM, slots.get(SLOT_SUM) + v);
+            if (v < slots.get(SLOT_MIN)) {
+                slots.lazySet(SLOT_MIN, v);
+            }
+            if (v > slots.get(SLOT_MAX)) {
+                slots.lazySet(SLOT_MAX, v);
+            }
+            // 总数最后写入，读取方以它为准
+            slots.lazySet(SLOT_COUNT, slots.get(SLOT_COUNT) + 1);
+        }
+
+        void mergeInto(Snapshot snapshot)
+        {
+            long count = slots.get(SLOT_COUNT);
+            if (count == 0) {
+                return;
+            }
+            long bucketTotal = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                long c = slots.get(i);
+                snapshot.counts[i] += c;
+                bucketTotal += c;
+            }
+            // 以桶计数为准，保证百分位计算自洽
+            snapshot.totalCount += bucketTotal;
+            snapshot.sum += slots.get(SLOT_SUM);
+            snapshot.min = Math.min(snapshot.min, slots.get(SLOT_MIN));
+            snapshot.max = Math.max(snapshot.max, slots.get(SLOT_MAX));
+        }
+
+        void reset()
+        {
+            for (int i = 0; i < SLOTS; i++) {
+                slots.set(i, 0);
+            }
+            slots.set(SLOT_MIN, Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * 直方图在某一时刻的只读快照，可以继续与其他快照合并
+     */
+    public static class Snapshot
+    {
+        private static final int MAGIC = 0x4C48;
+
+        private final String name;
+        private final long[] counts = new long[BUCKET_COUNT];
+        private long totalCount;
+        private long sum;
+        private long min = Long.MAX_VALUE;
+        private long max;
+
+        Snapshot(String name)
+        {
+            this.name = name;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public long getCount()
+        {
+            return totalCount;
+        }
+
+        public long getMin()
+        {
+            return totalCount == 0 ? 0 : min;
+        }
+
+        public long getMax()
+        {
+            return max;
+        }
+
+        public long getSum()
+        {
+            return sum;
+        }
+
+        public double getMean()
+        {
+            return totalCount == 0 ? 0 : (double) sum / totalCount;
+        }
+
+        /**
+         * 百分位数，返回所在桶的上界，但不超过实际最大值
+         *
+         * @param percentile 0到100之间，例如99.9
+         */
+        public long getPercentile(double percentile)
+        {
+            if (totalCount == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * totalCount));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * 把另一个快照合并进来
+         */
+        public Snapshot add(Snapshot other)
+        {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                counts[i] += other.counts[i];
+            }
+            totalCount += other.totalCount;
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            return this;
+        }
+
+        /**
+         * 紧凑序列化：只写非零的桶，桶下标差和计数都用变长整数编码
+         */
+        public void writeTo(DataOutput out)
+                throws IOException
+        {
+            out.writeShort(MAGIC);
+            out.writeUTF(name == null ? "" : name);
+            writeVarLong(out, sum);
+            writeVarLong(out, getMin());
+            writeVarLong(out, max);
+            int nonZero = 0;
+            for (long count : counts) {
+                if (count != 0) {
+                    nonZero++;
+                }
+            }
+            writeVarLong(out, nonZero);
+            int previous = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                if (counts[i] != 0) {
+                    writeVarLong(out, i - previous);
+                    writeVarLong(out, counts[i]);
+                    previous = i;
+                }
+            }
+        }
+
+        public static Snapshot readFrom(DataInput in)
+                throws IOException
+        {
+            if (in.readShort() != MAGIC) {
+                throw new IOException("不是直方图快照数据");
+            }
+            Snapshot snapshot = new Snapshot(in.readUTF());
+            snapshot.sum = readVarLong(in);
+            snapshot.min = readVarLong(in);
+            snapshot.max = readVarLong(in);
+            long nonZero = readVarLong(in);
+            int index = 0;
+            for (long i = 0; i < nonZero; i++) {
+                index += (int) readVarLong(in);
+                if (index < 0 || index >= BUCKET_COUNT) {
+                    throw new IOException("桶下标越界: " + index);
+                }
+                long count = readVarLong(in);
+                snapshot.counts[index] = count;
+                snapshot.totalCount += count;
+            }
+            if (snapshot.totalCount == 0) {
+                snapshot.min = Long.MAX_VALUE;
+            }
+            return snapshot;
+        }
+
+        public byte[] toByteArray()
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                writeTo(out);
+            }
+            catch (IOException e) {
+                // 写入内存不会失败
+                throw new UncheckedIOException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        public static Snapshot fromByteArray(byte[] data)
+                throws IOException
+        {
+            return readFrom(new DataInputStream(new ByteArrayInputStream(data)));
+        }
+
+        private static void writeVarLong(DataOutput out, long value)
+                throws IOException
+        {
+            while ((value & ~0x7FL) != 0) {
+                out.writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+
+        private static long readVarLong(DataInput in)
+                throws IOException
+        {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = in.readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("变长整数格式错误");
+        }
+
+        /**
+         * 打印摘要，数值按纳秒换算为微秒
+         */
+        public void print()
+        {
+            System.out.println(this);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s: 次数 %d, 平均 %.2f us, p50 %.2f us, p90 %.2f us, p99 %.2f us, p99.9 %.2f us, 最大 %.2f us",
+                    name, totalCount, getMean() / 1000,
+                    getPercentile(50) / 1000.0, getPercentile(90) / 1000.0, getPercentile(99) / 1000.0,
+                    getPercentile(99.9) / 1000.0, max / 1000.0);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.devlive.tutorial.multithreading.chapter02;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 基于JDK内置HttpServer的指标抓取端点
+ * GET /metrics 返回Prometheus文本格式。抓取在单独的守护线程中执行，默认只监听本机地址。
+ */
+public class MetricsHttpServer
+        implements AutoCloseable
+{
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final MetricsRegistry registry;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param registry 要暴露的指标
+     * @param port 端口，0表示随机端口
+     */
+    public MetricsHttpServer(MetricsRegistry registry, int port)
+            throws IOException
+    {
+        this(registry, new InetSocketAddress("127.0.0.1", port));
+    }
+
+    public MetricsHttpServer(MetricsRegistry registry, InetSocketAddress address)
+            throws IOException
+    {
+        this.registry = registry;
+        this.server = HttpServer.create(address, 0);
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "MetricsHttpServer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/metrics", this::handle);
+    }
+
+    public void start()
+    {
+        server.start();
+    }
+
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange)
+            throws IOException
+    {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            // 先写到内存里，抓取出错时可以返回500而不是半截的响应
+            ByteArrayOutputStream body = new ByteArrayOutputStream(4096);
+            try (Writer writer = new OutputStreamWriter(body, StandardCharsets.UTF_8)) {
+                registry.writeTo(writer);
+            }
+            catch (RuntimeException e) {
+                byte[] message = ("抓取失败: " + e).getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(500, message.length);
+                exchange.getResponseBody().write(message);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.size());
+            try (OutputStream out = exchange.getResponseBody()) {
+                body.writeTo(out);
+            }
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
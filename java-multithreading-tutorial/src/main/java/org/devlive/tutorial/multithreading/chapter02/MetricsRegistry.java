@@ -0,0 +1,324 @@
+package org.devlive.tutorial.multithreading.chapter02;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * 进程内指标注册表，输出Prometheus文本格式
+ * 支持计数器、仪表（读取时回调）和延迟直方图（以summary形式导出分位数）。
+ * 记录端只接触LongAdder和LatencyHistogram的线程本地记录器，抓取时不会阻塞记录线程；
+ * 需要动态标签的指标（例如每个线程一组数值）通过Collector在抓取时生成。
+ */
+public class MetricsRegistry
+{
+    private static final Pattern NAME_PATTERN = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    // 按名称排序输出，保证每次抓取的顺序稳定
+    private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+    private final CopyOnWriteArrayList<Collector> collectors = new CopyOnWriteArrayList<>();
+    // 同一个名称重复注册计数器时返回同一个实例
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    /**
+     * 注册或获取计数器
+     */
+    public Counter counter(String name, String help)
+    {
+        checkName(name);
+        return counters.computeIfAbsent(name, key -> {
+            Counter counter = new Counter();
+            register(name, new Metric(help, "counter")
+            {
+                @Override
+                void write(String name, SampleWriter out)
+                {
+                    out.sample(name, null, counter.get());
+                }
+            });
+            return counter;
+        });
+    }
+
+    /**
+     * 注册由外部维护的计数器，每次抓取时调用supplier读取，适合把已有的统计字段直接暴露出来
+     */
+    public void counter(String name, String help, DoubleSupplier supplier)
+    {
+        checkName(name);
+        register(name, new Metric(help, "counter")
+        {
+            @Override
+            void write(String name, SampleWriter out)
+            {
+                out.sample(name, null, supplier.getAsDouble());
+            }
+        });
+    }
+
+    /**
+     * 注册仪表，每次抓取时调用supplier读取当前值，supplier不应加锁或阻塞
+     */
+    public void gauge(String name, String help, DoubleSupplier supplier)
+    {
+        checkName(name);
+        register(name, new Metric(help, "gauge")
+        {
+            @Override
+            void write(String name, SampleWriter out)
+            {
+                out.sample(name, null, supplier.getAsDouble());
+            }
+        });
+    }
+
+    /**
+     * 注册延迟直方图，记录的值按纳秒处理，导出时换算为秒
+     */
+    public LatencyHistogram histogram(String name, String help)
+    {
+        LatencyHistogram histogram = new LatencyHistogram(name);
+        histogram(name, help, histogram);
+        return histogram;
+    }
+
+    /**
+     * 注册已有的延迟直方图
+     */
+    public void histogram(String name, String help, LatencyHistogram histogram)
+    {
+        checkName(name);
+        register(name, new Metric(help, "summary")
+        {
+            @Override
+            void write(String name, SampleWriter out)
+            {
+                LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+                for (double quantile : QUANTILES) {
+                    out.sample(name, new String[] {"quantile", Double.toString(quantile)},
+                            snapshot.getPercentile(quantile * 100) / 1e9);
+                }
+                out.sample(name + "_sum", null, snapshot.getSum() / 1e9);
+                out.sample(name + "_count", null, snapshot.getCount());
+            }
+        });
+    }
+
+    /**
+     * 注册在抓取时生成指标的收集器
+     */
+    public void register(Collector collector)
+    {
+        collectors.add(collector);
+    }
+
+    public void unregister(Collector collector)
+    {
+        collectors.remove(collector);
+    }
+
+    private void register(String name, Metric metric)
+    {
+        if (metrics.putIfAbsent(name, metric) != null) {
+            throw new IllegalArgumentException("指标已存在: " + name);
+        }
+    }
+
+    private static void checkName(String name)
+    {
+        if (!NAME_PATTERN.matcher(name).matches()) {
+            throw new IllegalArgumentException("指标名称不合法: " + name);
+        }
+    }
+
+    /**
+     * 以Prometheus文本格式写出所有指标
+     */
+    public void writeTo(Writer writer)
+            throws IOException
+    {
+        SampleWriter out = new SampleWriter(writer);
+        for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+            Metric metric = entry.getValue();
+            out.family(entry.getKey(), metric.help, metric.type);
+            metric.write(entry.getKey(), out);
+        }
+        for (Collector collector : collectors) {
+            collector.collect(out);
+        }
+        if (out.error != null) {
+            throw out.error;
+        }
+        writer.flush();
+    }
+
+    /**
+     * 以Prometheus文本格式返回所有指标
+     */
+    public String scrape()
+    {
+        StringWriter writer = new StringWriter();
+        try {
+            writeTo(writer);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * 单调递增的计数器，基于LongAdder，多线程递增时没有竞争
+     */
+    public static class Counter
+    {
+        private final LongAdder adder = new LongAdder();
+
+        public void inc()
+        {
+            adder.increment();
+        }
+
+        public void inc(long amount)
+        {
+            if (amount < 0) {
+                throw new IllegalArgumentException("计数器只能增加");
+            }
+            adder.add(amount);
+        }
+
+        public long get()
+        {
+            return adder.sum();
+        }
+    }
+
+    /**
+     * 抓取时生成一组指标
+     */
+    public interface Collector
+    {
+        void collect(SampleWriter out);
+    }
+
+    private abstract static class Metric
+    {
+        final String help;
+        final String type;
+
+        Metric(String help, String type)
+        {
+            this.help = help;
+            this.type = type;
+        }
+
+        abstract void write(String name, SampleWriter out);
+    }
+
+    /**
+     * 按Prometheus文本格式写出指标族和样本
+     */
+    public static class SampleWriter
+    {
+        private final Writer writer;
+        private final StringBuilder line = new StringBuilder(128);
+        private IOException error;
+
+        SampleWriter(Writer writer)
+        {
+            this.writer = writer;
+        }
+
+        /**
+         * 写出指标族的HELP和TYPE行，同一个指标族的样本必须紧跟其后
+         *
+         * @param type counter、gauge、summary或untyped
+         */
+        public void family(String name, String help, String type)
+        {
+            checkName(name);
+            line.setLength(0);
+            line.append("# HELP ").append(name).append(' ')
+                    .append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+            line.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            flushLine();
+        }
+
+        /**
+         * 写出一个样本
+         *
+         * @param labels 交替排列的标签名和标签值，没有标签时为null
+         */
+        public void sample(String name, String[] labels, double value)
+        {
+            line.setLength(0);
+            line.append(name);
+            if (labels != null && labels.length > 0) {
+                line.append('{');
+                for (int i = 0; i + 1 < labels.length; i += 2) {
+                    if (i > 0) {
+                        line.append(',');
+                    }
+                    line.append(labels[i]).append("=\"");
+                    appendEscaped(labels[i + 1]);
+                    line.append('"');
+                }
+                line.append('}');
+            }
+            line.append(' ');
+            if (Double.isNaN(value)) {
+                line.append("NaN");
+            }
+            else if (Double.isInfinite(value)) {
+                line.append(value > 0 ? "+Inf" : "-Inf");
+            }
+            else if (value == (long) value) {
+                line.append((long) value);
+            }
+            else {
+                line.append(value);
+            }
+            line.append('\n');
+            flushLine();
+        }
+
+        private void appendEscaped(String value)
+        {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '\\' || c == '"') {
+                    line.append('\\').append(c);
+                }
+                else if (c == '\n') {
+                    line.append("\\n");
+                }
+                else {
+                    line.append(c);
+                }
+            }
+        }
+
+        private void flushLine()
+        {
+            if (error != null) {
+                return;
+            }
+            try {
+                writer.append(line);
+            }
+            catch (IOException e) {
+                // 收集器接口不抛出受检异常，记录下来由writeTo统一抛出
+                error = e;
+            }
+        }
+    }
+}
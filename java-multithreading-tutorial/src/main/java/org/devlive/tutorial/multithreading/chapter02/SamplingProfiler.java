@@ -0,0 +1,419 @@
+package org.devlive.tutorial.multithreading.chapter02;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+
+/**
+ * 基于堆栈采样的轻量级性能分析器
+ * 按固定频率抓取选定线程的调用栈，相同的调用栈在前缀树中合并计数，
+ * 最后导出为火焰图工具（如flamegraph.pl、speedscope）可以直接读取的折叠栈文本：
+ * <pre>
+ * 线程名;根方法;...;叶子方法 采样次数
+ * </pre>
+ * 不需要安装任何agent，只依赖ThreadMXBean。
+ */
+public class SamplingProfiler
+{
+    // 超过最大深度的栈在根部插入的帧，避免被截断的栈和真正从这里开始的栈合并在一起
+    private static final String TRUNCATED_FRAME = "[truncated]";
+
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    // 采样间隔（微秒）
+    private final long intervalMicros;
+    // 每个调用栈最多保留的帧数，越深开销越大
+    private final int maxDepth;
+    // 显式指定的线程
+    private final Set<Long> threadIds = ConcurrentHashMap.newKeySet();
+    // 按线程名选择线程，为null时只采样显式指定的线程
+    private volatile Predicate<String> nameFilter;
+    // 只统计RUNNABLE状态的栈（CPU视角），否则也统计阻塞和等待中的栈（墙钟视角）
+    private volatile boolean runnableOnly = false;
+    // 是否把线程名作为折叠栈的第一层
+    private volatile boolean groupByThread = true;
+
+    // 前缀树根节点，只有采样线程写入，读取时加锁
+    private final Node root = new Node("root");
+    // StackTraceElement -> 帧名称，避免每次采样都拼接字符串
+    private final Map<StackTraceElement, String> frameNames = new HashMap<>();
+
+    private Thread samplerThread;
+    private volatile boolean running = false;
+
+    // 自身开销统计
+    private long sampleCount = 0;
+    private long stackCount = 0;
+    private long samplingNanos = 0;
+    private long maxSampleNanos = 0;
+    private long samplerCpuNanos = 0;
+    // 每次reset()加一，采样线程据此重新确定CPU时间的起点
+    private long resetGeneration = 0;
+    private long startNanos = 0;
+    private long stopNanos = 0;
+
+    /**
+     * @param intervalMillis 采样间隔（毫秒）
+     * @param maxDepth 最大栈深度
+     */
+    public SamplingProfiler(long intervalMillis, int maxDepth)
+    {
+        this(TimeUnit.MILLISECONDS.toMicros(intervalMillis), maxDepth, TimeUnit.MICROSECONDS);
+    }
+
+    public SamplingProfiler(long interval, int maxDepth, TimeUnit unit)
+    {
+        if (interval <= 0 || maxDepth <= 0) {
+            throw new IllegalArgumentException("采样间隔和栈深度必须大于0");
+        }
+        this.intervalMicros = Math.max(1, unit.toMicros(interval));
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * 添加要采样的线程
+     */
+    public void addThread(Thread thread)
+    {
+        threadIds.add(thread.getId());
+    }
+
+    /**
+     * 按线程名选择要采样的线程，例如 name -> name.startsWith("公平锁线程")
+     * 每次采样都会重新匹配，因此能覆盖分析开始后才创建的线程。
+     */
+    public void setNameFilter(Predicate<String> nameFilter)
+    {
+        this.nameFilter = nameFilter;
+    }
+
+    public void setRunnableOnly(boolean runnableOnly)
+    {
+        this.runnableOnly = runnableOnly;
+    }
+
+    public void setGroupByThread(boolean groupByThread)
+    {
+        this.groupByThread = groupByThread;
+    }
+
+    /**
+     * 开始采样
+     */
+    public synchronized void start()
+    {
+        if (running) {
+            throw new IllegalStateException("分析器已经在运行中");
+        }
+        running = true;
+        startNanos = System.nanoTime();
+        samplerThread = new Thread(this::samplingLoop, "SamplingProfiler");
+        samplerThread.setDaemon(true);
+        // 采样线程优先级高一些，减少采样时刻的抖动
+        samplerThread.setPriority(Thread.MAX_PRIORITY);
+        samplerThread.start();
+    }
+
+    /**
+     * 停止采样并等待采样线程退出
+     */
+    public void stop()
+            throws InterruptedException
+    {
+        Thread thread;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            thread = samplerThread;
+        }
+        thread.interrupt();
+        thread.join();
+    }
+
+    private void samplingLoop()
+    {
+        long intervalNanos = TimeUnit.MICROSECONDS.toNanos(intervalMicros);
+        long next = System.nanoTime();
+        long selfId = Thread.currentThread().getId();
+        boolean cpuTime = threadMXBean.isCurrentThreadCpuTimeSupported();
+        long cpuStart = cpuTime ? threadMXBean.getCurrentThreadCpuTime() : 0;
+        long lastCpu = cpuStart;
+        long generation;
+        synchronized (this) {
+            generation = resetGeneration;
+        }
+        while (running) {
+            long begin = System.nanoTime();
+            takeSample(selfId);
+            long cost = System.nanoTime() - begin;
+            synchronized (this) {
+                samplingNanos += cost;
+                maxSampleNanos = Math.max(maxSampleNanos, cost);
+                if (cpuTime) {
+                    long cpuNow = threadMXBean.getCurrentThreadCpuTime();
+                    if (generation != resetGeneration) {
+                        // reset()之后的第一次采样：与samplingNanos一致，从上一次采样结束时重新计算
+                        generation = resetGeneration;
+                        cpuStart = lastCpu;
+                    }
+                    samplerCpuNanos = cpuNow - cpuStart;
+                    lastCpu = cpuNow;
+                }
+            }
+
+            // 按固定频率调度；落后太多时直接跳过错过的采样点，而不是连续补采
+            next += intervalNanos;
+            long now = System.nanoTime();
+            if (next < now) {
+                next = now;
+            }
+            while (running && (now = System.nanoTime()) < next) {
+                LockSupport.parkNanos(next - now);
+            }
+        }
+        synchronized (this) {
+            stopNanos = System.nanoTime();
+        }
+    }
+
+    private void takeSample(long selfId)
+    {
+        Predicate<String> filter = nameFilter;
+        long[] ids;
+        if (filter == null) {
+            ids = threadIds.stream().mapToLong(Long::longValue).toArray();
+        }
+        else {
+            // 先取不带调用栈的线程信息按名称过滤，只对选中的线程抓取调用栈
+            ThreadInfo[] all = threadMXBean.getThreadInfo(threadMXBean.getAllThreadIds(), 0);
+            long[] selected = new long[all.length];
+            int n = 0;
+            for (ThreadInfo info : all) {
+                if (info != null && info.getThreadId() != selfId
+                        && (filter.test(info.getThreadName()) || threadIds.contains(info.getThreadId()))) {
+                    selected[n++] = info.getThreadId();
+                }
+            }
+            ids = Arrays.copyOf(selected, n);
+        }
+        // 多取一帧，用来判断栈是否被截断
+        int depth = maxDepth == Integer.MAX_VALUE ? maxDepth : maxDepth + 1;
+        ThreadInfo[] infos = ids.length == 0 ? new ThreadInfo[0] : threadMXBean.getThreadInfo(ids, depth);
+
+        synchronized (this) {
+            sampleCount++;
+            for (ThreadInfo info : infos) {
+                if (info == null || info.getThreadId() == selfId) {
+                    continue;
+                }
+                if (runnableOnly && info.getThreadState() != Thread.State.RUNNABLE) {
+                    continue;
+                }
+                StackTraceElement[] stack = info.getStackTrace();
+                if (stack.length == 0) {
+                    continue;
+                }
+                // 栈顶在数组开头，前缀树从根方法开始，所以倒序插入
+                Node node = groupByThread ? root.child(info.getThreadName()) : root;
+                int top = stack.length;
+                if (top > maxDepth) {
+                    // 只保留靠近栈顶的maxDepth帧，真正的根方法已经丢失
+                    top = maxDepth;
+                    node = node.child(TRUNCATED_FRAME);
+                }
+                for (int i = top - 1; i >= 0; i--) {
+                    node = node.child(frameName(stack[i]));
+                }
+                node.self++;
+                stackCount++;
+            }
+        }
+    }
+
+    private String frameName(StackTraceElement element)
+    {
+        String name = frameNames.get(element);
+        if (name == null) {
+            name = element.getClassName() + "." + element.getMethodName();
+            frameNames.put(element, name);
+        }
+        return name;
+    }
+
+    /**
+     * 导出折叠栈文本，每行一个调用栈
+     */
+    public synchronized void writeFolded(Writer writer)
+            throws IOException
+    {
+        StringBuilder path = new StringBuilder();
+        for (Node child : root.children.values()) {
+            writeFolded(child, path, writer);
+        }
+        writer.flush();
+    }
+
+    private void writeFolded(Node node, StringBuilder path, Writer writer)
+            throws IOException
+    {
+        int length = path.length();
+        if (length > 0) {
+            path.append(';');
+        }
+        // 折叠栈格式用分号分隔帧、空格分隔计数，帧名中出现的要替换掉
+        path.append(node.name.replace(';', ':').replace(' ', '_'));
+        if (node.self > 0) {
+            writer.write(path.toString());
+            writer.write(' ');
+            writer.write(Long.toString(node.self));
+            writer.write('\n');
+        }
+        for (Node child : node.children.values()) {
+            writeFolded(child, path, writer);
+        }
+        path.setLength(length);
+    }
+
+    /**
+     * 获取折叠栈文本
+     */
+    public String toFolded()
+    {
+        StringWriter writer = new StringWriter();
+        try {
+            writeFolded(writer);
+        }
+        catch (IOException e) {
+            // StringWriter不会抛出IOException
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * 按自身采样次数排序的热点方法
+     *
+     * @param limit 返回数量
+     */
+    public synchronized List<Map.Entry<String, Long>> getHotMethods(int limit)
+    {
+        Map<String, Long> selfCounts = new HashMap<>();
+        collectSelf(root, selfCounts);
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(selfCounts.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        return entries.subList(0, Math.min(limit, entries.size()));
+    }
+
+    private void collectSelf(Node node, Map<String, Long> selfCounts)
+    {
+        if (node.self > 0) {
+            selfCounts.merge(node.name, node.self, Long::sum);
+        }
+        for (Node child : node.children.values()) {
+            collectSelf(child, selfCounts);
+        }
+    }
+
+    /**
+     * 清空已采集的数据和开销统计
+     */
+    public synchronized void reset()
+    {
+        root.children.clear();
+        root.self = 0;
+        sampleCount = 0;
+        stackCount = 0;
+        samplingNanos = 0;
+        maxSampleNanos = 0;
+        samplerCpuNanos = 0;
+        resetGeneration++;
+        startNanos = System.nanoTime();
+        stopNanos = 0;
+    }
+
+    public synchronized long getSampleCount()
+    {
+        return sampleCount;
+    }
+
+    public synchronized long getStackCount()
+    {
+        return stackCount;
+    }
+
+    /**
+     * 采样本身耗费的时间占分析时长的比例
+     */
+    public synchronized double getOverhead()
+    {
+        long elapsed = (stopNanos != 0 ? stopNanos : System.nanoTime()) - startNanos;
+        return elapsed <= 0 ? 0 : (double) samplingNanos / elapsed;
+    }
+
+    /**
+     * 打印自身开销统计
+     */
+    public synchronized void printStatistics()
+    {
+        long elapsed = (stopNanos != 0 ? stopNanos : System.nanoTime()) - startNanos;
+        System.out.println("=== 采样分析器统计 ===");
+        System.out.println("采样间隔: " + intervalMicros + " 微秒, 最大栈深度: " + maxDepth);
+        System.out.println("采样次数: " + sampleCount + ", 记录的调用栈: " + stackCount
+                + ", 前缀树节点: " + root.size());
+        System.out.printf("分析时长: %d ms, 采样耗时: %d ms (%.2f%%), 单次平均: %d 微秒, 单次最大: %d 微秒%n",
+                TimeUnit.NANOSECONDS.toMillis(elapsed),
+                TimeUnit.NANOSECONDS.toMillis(samplingNanos),
+                elapsed <= 0 ? 0 : samplingNanos * 100.0 / elapsed,
+                sampleCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(samplingNanos / sampleCount),
+                TimeUnit.NANOSECONDS.toMicros(maxSampleNanos));
+        System.out.println("采样线程CPU时间: " + TimeUnit.NANOSECONDS.toMillis(samplerCpuNanos) + " ms");
+    }
+
+    /**
+     * 前缀树节点，self为以该帧为栈顶的采样次数
+     */
+    private static class Node
+    {
+        final String name;
+        final Map<String, Node> children = new HashMap<>(4);
+        long self;
+
+        Node(String name)
+        {
+            this.name = name;
+        }
+
+        Node child(String name)
+        {
+            Node node = children.get(name);
+            if (node == null) {
+                node = new Node(name);
+                children.put(name, node);
+            }
+            return node;
+        }
+
+        int size()
+        {
+            int size = 1;
+            for (Node child : children.values()) {
+                size += child.size();
+            }
+            return size;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.devlive.tutorial.multithreading.chapter02;
+
+import org.devlive.tutorial.multithreading.chapter08.LockPerformanceComparison;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+/**
+ * 采样分析器使用示例
+ * 原地分析第八章公平锁与非公平锁的测试，输出的折叠栈文件可以用
+ * flamegraph.pl profile.folded > profile.svg 生成火焰图。
+ */
+public class SamplingProfilerDemo
+{
+    public static void main(String[] args)
+            throws InterruptedException, IOException
+    {
+        // 每5毫秒采样一次，最多保留64层调用栈
+        SamplingProfiler profiler = new SamplingProfiler(5, 64);
+        // 测试线程在分析开始后才创建，按名称匹配
+        profiler.setNameFilter(name -> name.startsWith("公平锁线程") || name.startsWith("非公平锁线程"));
+        profiler.start();
+
+        LockPerformanceComparison comparison = new LockPerformanceComparison();
+        for (int i = 0; i < 200; i++) {
+            comparison.testFairLock();
+            comparison.testUnfairLock();
+        }
+
+        profiler.stop();
+        profiler.printStatistics();
+
+        System.out.println("\n=== 热点方法 ===");
+        for (Map.Entry<String, Long> entry : profiler.getHotMethods(10)) {
+            System.out.println(entry.getValue() + "\t" + entry.getKey());
+        }
+
+        Path output = Paths.get(args.length > 0 ? args[0] : "profile.folded");
+        try (Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            profiler.writeFolded(writer);
+        }
+        System.out.println("\n折叠栈已写入: " + output.toAbsolutePath());
+    }
+}
@@ -0,0 +1,679 @@
+package org.devlive.tutorial.multithreading.chapter02;
+
+import java.lang.ref.Reference;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ThreadLocal泄漏扫描器
+ * 通过反射读取线程的threadLocals和inheritableThreadLocals，统计每个线程的条目数、
+ * key已被回收的陈旧条目数，以及每个value大致占用的字节数（沿引用图估算，按64位JVM开启压缩指针计算）。
+ * <p>
+ * 读取其他线程的ThreadLocalMap没有同步，结果只是近似值，适合定期诊断而不是精确统计。
+ * 字段无法反射访问的集合和Map通过公开API遍历元素，其他无法访问的字段会被跳过，此时估算结果标记为不完整。
+ * 清理陈旧条目是可选的：陈旧条目的key已经被回收，拥有者线程再也无法访问它的value，
+ * 这里只把value置为null，条目本身仍由拥有者线程在下一次set/get/remove时清除。
+ * <p>
+ * JDK 9以上需要添加启动参数 --add-opens java.base/java.lang=ALL-UNNAMED，否则isSupported()返回false。
+ */
+public class ThreadLocalLeakScanner
+{
+    // 64位JVM开启压缩指针时的对象头、数组头和引用大小
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE_SIZE = 4;
+
+    private static final Field THREAD_LOCALS;
+    private static final Field INHERITABLE_THREAD_LOCALS;
+    private static final Field TABLE;
+    private static final Field VALUE;
+    private static final String UNSUPPORTED_REASON;
+
+    static {
+        Field threadLocals = null;
+        Field inheritableThreadLocals = null;
+        Field table = null;
+        Field value = null;
+        String reason = null;
+        try {
+            threadLocals = Thread.class.getDeclaredField("threadLocals");
+            inheritableThreadLocals = Thread.class.getDeclaredField("inheritableThreadLocals");
+            Class<?> mapClass = Class.forName("java.lang.ThreadLocal$ThreadLocalMap");
+            table = mapClass.getDeclaredField("table");
+            value = Class.forName("java.lang.ThreadLocal$ThreadLocalMap$Entry").getDeclaredField("value");
+            threadLocals.setAccessible(true);
+            inheritableThreadLocals.setAccessible(true);
+            table.setAccessible(true);
+            value.setAccessible(true);
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            // JDK 9以上未开放java.lang包时抛出InaccessibleObjectException
+            reason = e.toString();
+        }
+        THREAD_LOCALS = threadLocals;
+        INHERITABLE_THREAD_LOCALS = inheritableThreadLocals;
+        TABLE = table;
+        VALUE = value;
+        UNSUPPORTED_REASON = reason;
+    }
+
+    // 类 -> 浅大小和可访问的引用字段
+    private final Map<Class<?>, ClassLayout> layouts = new ConcurrentHashMap<>();
+    // 估算单个value时最多访问的对象数量，避免扫描巨大的对象图
+    private volatile int maxVisitedObjects = 100_000;
+    // 扫描时是否清理陈旧条目的value
+    private volatile boolean purgeStale;
+
+    private volatile Report latest;
+    private final AtomicLong purgedEntries = new AtomicLong();
+    private final AtomicLong purgedBytes = new AtomicLong();
+
+    /**
+     * 当前JVM是否允许读取ThreadLocalMap
+     */
+    public static boolean isSupported()
+    {
+        return UNSUPPORTED_REASON == null;
+    }
+
+    public static String getUnsupportedReason()
+    {
+        return UNSUPPORTED_REASON;
+    }
+
+    public void setMaxVisitedObjects(int maxVisitedObjects)
+    {
+        this.maxVisitedObjects = maxVisitedObjects;
+    }
+
+    /**
+     * 开启后每次扫描都会清理发现的陈旧条目
+     */
+    public void setPurgeStale(boolean purgeStale)
+    {
+        this.purgeStale = purgeStale;
+    }
+
+    /**
+     * 扫描JVM中所有存活的线程
+     */
+    public Report scanAll()
+    {
+        return scan(Thread.getAllStackTraces().keySet());
+    }
+
+    /**
+     * 扫描指定的线程，结果同时保存为最近一次报告
+     */
+    public Report scan(Collection<Thread> threads)
+    {
+        if (!isSupported()) {
+            throw new IllegalStateException("无法读取ThreadLocalMap: " + UNSUPPORTED_REASON);
+        }
+        boolean purge = purgeStale;
+        List<ThreadReport> reports = new ArrayList<>();
+        for (Thread thread : threads) {
+            if (!thread.isAlive()) {
+                continue;
+            }
+            List<EntryInfo> entries = new ArrayList<>();
+            scanMap(THREAD_LOCALS, thread, false, purge, entries);
+            scanMap(INHERITABLE_THREAD_LOCALS, thread, true, purge, entries);
+            reports.add(new ThreadReport(thread.getName(), thread.getId(), entries));
+        }
+        Report report = new Report(System.currentTimeMillis(), reports);
+        latest = report;
+        return report;
+    }
+
+    private void scanMap(Field mapField, Thread thread, boolean inheritable, boolean purge, List<EntryInfo> entries)
+    {
+        try {
+            Object map = mapField.get(thread);
+            if (map == null) {
+                return;
+            }
+            // 拥有者线程扩容时会替换table，这里读到的是某一时刻的数组
+            Object[] table = (Object[]) TABLE.get(map);
+            for (Object entry : table) {
+                if (entry == null) {
+                    continue;
+                }
+                Object key = ((Reference<?>) entry).get();
+                Object value = VALUE.get(entry);
+                boolean stale = key == null;
+                Estimate estimate = estimate(value);
+                long bytes = estimate.getBytes();
+                boolean purged = false;
+                if (stale && purge && value != null) {
+                    // key被回收后不会再出现，拥有者线程也只会把value置为null，两边写入不冲突
+                    VALUE.set(entry, null);
+                    purged = true;
+                    purgedEntries.incrementAndGet();
+                    purgedBytes.addAndGet(bytes);
+                }
+                entries.add(new EntryInfo(describeKey(key), value == null ? null : value.getClass().getName(),
+                        bytes, estimate.isIncomplete(), stale, inheritable, purged));
+            }
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String describeKey(Object key)
+    {
+        if (key == null) {
+            return null;
+        }
+        return key.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(key));
+    }
+
+    /**
+     * 估算从value出发可达的所有对象的大小
+     * 不进入Class、ClassLoader、Thread和ThreadLocal，它们不属于这个value。
+     */
+    public long estimateRetainedBytes(Object value)
+    {
+        return estimate(value).getBytes();
+    }
+
+    /**
+     * 同estimateRetainedBytes，同时返回是否跳过了无法访问的字段或达到了访问上限
+     */
+    public Estimate estimate(Object value)
+    {
+        if (value == null) {
+            return new Estimate(0, false);
+        }
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        ArrayDeque<Object> pending = new ArrayDeque<>();
+        pending.push(value);
+        int limit = maxVisitedObjects;
+        long total = 0;
+        boolean incomplete = false;
+        while (!pending.isEmpty() && visited.size() < limit) {
+            Object object = pending.pop();
+            if (!visited.add(object)) {
+                continue;
+            }
+            Class<?> type = object.getClass();
+            if (type.isArray()) {
+                int length = Array.getLength(object);
+                Class<?> component = type.getComponentType();
+                total += align(ARRAY_HEADER + (long) length * sizeOf(component));
+                if (!component.isPrimitive()) {
+                    for (Object element : (Object[]) object) {
+                        pushIfOwned(pending, element);
+                    }
+                }
+                continue;
+            }
+            if (object instanceof String) {
+                // String内部数组通常无法反射访问，按UTF-16字符直接估算
+                total += align(OBJECT_HEADER + 8 + REFERENCE_SIZE) + align(ARRAY_HEADER + 2L * ((String) object).length());
+                continue;
+            }
+            ClassLayout layout = layouts.computeIfAbsent(type, ClassLayout::new);
+            total += layout.shallowSize;
+            for (Field field : layout.references) {
+                try {
+                    pushIfOwned(pending, field.get(object));
+                }
+                catch (IllegalAccessException e) {
+                    incomplete = true;
+                }
+            }
+            if (layout.complete) {
+                continue;
+            }
+            // JDK集合的内部字段通常无法访问，改为通过公开API遍历元素
+            try {
+                if (object instanceof Collection) {
+                    Collection<?> collection = (Collection<?>) object;
+                    // 内部存储按每个元素一个引用估算
+                    total += align(ARRAY_HEADER + (long) collection.size() * REFERENCE_SIZE);
+                    for (Object element : collection) {
+                        pushIfOwned(pending, element);
+                    }
+                }
+                else if (object instanceof Map) {
+                    Map<?, ?> map = (Map<?, ?>) object;
+                    // 哈希表数组加上每个条目一个节点对象（hash、key、value、next）
+                    total += align(ARRAY_HEADER + (long) map.size() * REFERENCE_SIZE)
+                            + (long) map.size() * align(OBJECT_HEADER + 4 + 3 * REFERENCE_SIZE);
+                    for (Map.Entry<?, ?> entry : map.entrySet()) {
+                        pushIfOwned(pending, entry.getKey());
+                        pushIfOwned(pending, entry.getValue());
+                    }
+                }
+                else {
+                    incomplete = true;
+                }
+            }
+            catch (RuntimeException e) {
+                // 其他线程正在修改这个集合，已经遍历到的元素仍然计入
+                incomplete = true;
+            }
+        }
+        return new Estimate(total, incomplete || !pending.isEmpty());
+    }
+
+    private static void pushIfOwned(ArrayDeque<Object> pending, Object object)
+    {
+        if (object == null || object instanceof Class || object instanceof ClassLoader
+                || object instanceof Thread || object instanceof ThreadLocal) {
+            return;
+        }
+        pending.push(object);
+    }
+
+    private static long align(long size)
+    {
+        return (size + 7) & ~7L;
+    }
+
+    private static int sizeOf(Class<?> type)
+    {
+        if (type == long.class || type == double.class) {
+            return 8;
+        }
+        if (type == int.class || type == float.class) {
+            return 4;
+        }
+        if (type == short.class || type == char.class) {
+            return 2;
+        }
+        if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return REFERENCE_SIZE;
+    }
+
+    public Report getLatest()
+    {
+        return latest;
+    }
+
+    public long getPurgedEntries()
+    {
+        return purgedEntries.get();
+    }
+
+    public long getPurgedBytes()
+    {
+        return purgedBytes.get();
+    }
+
+    /**
+     * 打印每个线程的统计和占用最大的几个条目
+     */
+    public void printReport(Report report)
+    {
+        System.out.println("\n===== ThreadLocal扫描报告 =====");
+        for (ThreadReport thread : report.getThreads()) {
+            if (thread.getEntryCount() == 0) {
+                continue;
+            }
+            System.out.println(thread);
+            List<EntryInfo> entries = new ArrayList<>(thread.getEntries());
+            entries.sort((a, b) -> Long.compare(b.getRetainedBytes(), a.getRetainedBytes()));
+            for (EntryInfo entry : entries.subList(0, Math.min(3, entries.size()))) {
+                System.out.println("  " + entry);
+            }
+        }
+        System.out.printf("合计: %d 个条目, 陈旧 %d 个, 约 %s, 其中陈旧 %s; 累计清理 %d 个条目 / %s\n",
+                report.getEntryCount(), report.getStaleCount(), formatBytes(report.getRetainedBytes()),
+                formatBytes(report.getStaleRetainedBytes()), purgedEntries.get(), formatBytes(purgedBytes.get()));
+        if (report.getIncompleteCount() > 0) {
+            System.out.println("其中 " + report.getIncompleteCount() + " 个条目跳过了无法访问的字段，实际占用可能更大");
+        }
+    }
+
+    private static String formatBytes(long bytes)
+    {
+        if (bytes >= 1024 * 1024) {
+            return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+        }
+        if (bytes >= 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        }
+        return bytes + " B";
+    }
+
+    /**
+     * 把最近一次报告注册为指标，按线程名打标签，抓取时不会触发扫描
+     *
+     * @param prefix 指标名前缀，例如 app_thread_local
+     */
+    public void registerMetrics(MetricsRegistry registry, String prefix)
+    {
+        registry.counter(prefix + "_purged_entries_total", "累计清理的陈旧条目数", purgedEntries::get);
+        registry.counter(prefix + "_purged_bytes_total", "累计清理的陈旧条目估算字节数", purgedBytes::get);
+        registry.register(out -> {
+            Report report = latest;
+            if (report == null) {
+                return;
+            }
+            out.family(prefix + "_entries", "线程ThreadLocalMap中的条目数", "gauge");
+            for (ThreadReport thread : report.getThreads()) {
+                out.sample(prefix + "_entries", new String[] {"thread", thread.getName()}, thread.getEntryCount());
+            }
+            out.family(prefix + "_stale_entries", "key已被回收但value仍在的条目数", "gauge");
+            for (ThreadReport thread : report.getThreads()) {
+                out.sample(prefix + "_stale_entries", new String[] {"thread", thread.getName()}, thread.getStaleCount());
+            }
+            out.family(prefix + "_retained_bytes", "ThreadLocal值估算占用的字节数", "gauge");
+            for (ThreadReport thread : report.getThreads()) {
+                out.sample(prefix + "_retained_bytes", new String[] {"thread", thread.getName()}, thread.getRetainedBytes());
+            }
+            out.family(prefix + "_stale_retained_bytes", "陈旧条目估算占用的字节数", "gauge");
+            for (ThreadReport thread : report.getThreads()) {
+                out.sample(prefix + "_stale_retained_bytes", new String[] {"thread", thread.getName()},
+                        thread.getStaleRetainedBytes());
+            }
+            out.family(prefix + "_incomplete_estimates", "跳过了无法访问的字段、估算偏小的条目数", "gauge");
+            for (ThreadReport thread : report.getThreads()) {
+                out.sample(prefix + "_incomplete_estimates", new String[] {"thread", thread.getName()},
+                        thread.getIncompleteCount());
+            }
+        });
+    }
+
+    /**
+     * 一次扫描的结果
+     */
+    public static class Report
+    {
+        private final long timestamp;
+        private final List<ThreadReport> threads;
+
+        Report(long timestamp, List<ThreadReport> threads)
+        {
+            this.timestamp = timestamp;
+            this.threads = Collections.unmodifiableList(threads);
+        }
+
+        public long getTimestamp()
+        {
+            return timestamp;
+        }
+
+        public List<ThreadReport> getThreads()
+        {
+            return threads;
+        }
+
+        public int getEntryCount()
+        {
+            return threads.stream().mapToInt(ThreadReport::getEntryCount).sum();
+        }
+
+        public int getStaleCount()
+        {
+            return threads.stream().mapToInt(ThreadReport::getStaleCount).sum();
+        }
+
+        public long getRetainedBytes()
+        {
+            return threads.stream().mapToLong(ThreadReport::getRetainedBytes).sum();
+        }
+
+        public long getStaleRetainedBytes()
+        {
+            return threads.stream().mapToLong(ThreadReport::getStaleRetainedBytes).sum();
+        }
+
+        public int getIncompleteCount()
+        {
+            return threads.stream().mapToInt(ThreadReport::getIncompleteCount).sum();
+        }
+    }
+
+    /**
+     * 单个线程的扫描结果
+     */
+    public static class ThreadReport
+    {
+        private final String name;
+        private final long threadId;
+        private final List<EntryInfo> entries;
+        private final int staleCount;
+        private final long retainedBytes;
+        private final long staleRetainedBytes;
+        private final int incompleteCount;
+
+        ThreadReport(String name, long threadId, List<EntryInfo> entries)
+        {
+            this.name = name;
+            this.threadId = threadId;
+            this.entries = Collections.unmodifiableList(entries);
+            int stale = 0;
+            long bytes = 0;
+            long staleBytes = 0;
+            int incomplete = 0;
+            for (EntryInfo entry : entries) {
+                bytes += entry.getRetainedBytes();
+                if (entry.isEstimateIncomplete()) {
+                    incomplete++;
+                }
+                if (entry.isStale()) {
+                    stale++;
+                    staleBytes += entry.getRetainedBytes();
+                }
+            }
+            this.staleCount = stale;
+            this.retainedBytes = bytes;
+            this.staleRetainedBytes = staleBytes;
+            this.incompleteCount = incomplete;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public long getThreadId()
+        {
+            return threadId;
+        }
+
+        public List<EntryInfo> getEntries()
+        {
+            return entries;
+        }
+
+        public int getEntryCount()
+        {
+            return entries.size();
+        }
+
+        public int getStaleCount()
+        {
+            return staleCount;
+        }
+
+        public long getRetainedBytes()
+        {
+            return retainedBytes;
+        }
+
+        public long getStaleRetainedBytes()
+        {
+            return staleRetainedBytes;
+        }
+
+        /**
+         * 估算不完整的条目数
+         */
+        public int getIncompleteCount()
+        {
+            return incompleteCount;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("线程 '%s' (ID: %d) 条目: %d 陈旧: %d 占用: %s 陈旧占用: %s",
+                    name, threadId, entries.size(), staleCount, formatBytes(retainedBytes), formatBytes(staleRetainedBytes));
+        }
+    }
+
+    /**
+     * ThreadLocalMap中的一个条目
+     */
+    public static class EntryInfo
+    {
+        private final String key;
+        private final String valueType;
+        private final long retainedBytes;
+        private final boolean estimateIncomplete;
+        private final boolean stale;
+        private final boolean inheritable;
+        private final boolean purged;
+
+        EntryInfo(String key, String valueType, long retainedBytes, boolean estimateIncomplete,
+                boolean stale, boolean inheritable, boolean purged)
+        {
+            this.key = key;
+            this.valueType = valueType;
+            this.retainedBytes = retainedBytes;
+            this.estimateIncomplete = estimateIncomplete;
+            this.stale = stale;
+            this.inheritable = inheritable;
+            this.purged = purged;
+        }
+
+        /**
+         * ThreadLocal的类名和身份哈希，陈旧条目为null
+         */
+        public String getKey()
+        {
+            return key;
+        }
+
+        public String getValueType()
+        {
+            return valueType;
+        }
+
+        public long getRetainedBytes()
+        {
+            return retainedBytes;
+        }
+
+        /**
+         * 估算时跳过了无法访问的字段或达到了访问上限，实际占用可能更大
+         */
+        public boolean isEstimateIncomplete()
+        {
+            return estimateIncomplete;
+        }
+
+        public boolean isStale()
+        {
+            return stale;
+        }
+
+        public boolean isInheritable()
+        {
+            return inheritable;
+        }
+
+        public boolean isPurged()
+        {
+            return purged;
+        }
+
+        @Override
+        public String toString()
+        {
+            return (stale ? "[陈旧]" : key) + " -> " + valueType + " 约 " + formatBytes(retainedBytes)
+                    + (estimateIncomplete ? " [估算不完整]" : "") + (inheritable ? " [可继承]" : "") + (purged ? " [已清理]" : "");
+        }
+    }
+
+    /**
+     * 一个value的估算结果
+     */
+    public static class Estimate
+    {
+        private final long bytes;
+        private final boolean incomplete;
+
+        Estimate(long bytes, boolean incomplete)
+        {
+            this.bytes = bytes;
+            this.incomplete = incomplete;
+        }
+
+        public long getBytes()
+        {
+            return bytes;
+        }
+
+        public boolean isIncomplete()
+        {
+            return incomplete;
+        }
+    }
+
+    /**
+     * 类的浅大小和引用字段，包括父类声明的字段
+     */
+    private static final class ClassLayout
+    {
+        final long shallowSize;
+        final List<Field> references = new ArrayList<>();
+        // 所有引用字段都可以访问
+        final boolean complete;
+
+        ClassLayout(Class<?> type)
+        {
+            long size = OBJECT_HEADER;
+            boolean accessible = true;
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    size += sizeOf(field.getType());
+                    if (field.getType().isPrimitive()) {
+                        continue;
+                    }
+                    if (trySetAccessible(field)) {
+                        references.add(field);
+                    }
+                    else {
+                        accessible = false;
+                    }
+                }
+            }
+            this.shallowSize = align(size);
+            this.complete = accessible;
+        }
+
+        private static boolean trySetAccessible(Field field)
+        {
+            try {
+                field.setAccessible(true);
+                return true;
+            }
+            catch (RuntimeException e) {
+                // 未开放的JDK内部字段
+                return false;
+            }
+        }
+    }
+}
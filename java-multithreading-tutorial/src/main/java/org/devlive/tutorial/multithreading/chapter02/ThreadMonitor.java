@@ -1,16 +1,30 @@
 package org.devlive.tutorial.multithreading.chapter02;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 线程状态监控工具
+ * 除了线程状态，每个间隔还会通过ThreadMXBean采样CPU时间、阻塞/等待次数和时间以及锁的持有者，
+ * 计算与上一次采样的差值，标记CPU热点和锁竞争线程，并把结果保存在环形缓冲区中。
  */
 public class ThreadMonitor
 {
+    // 采样失败时输出第一次及之后每隔该次数的异常
+    private static final int FAILURE_LOG_INTERVAL = 100;
+
     // 存储要监控的线程
     private final Map<String, Thread> monitoredThreads = new ConcurrentHashMap<>();
     // 用于执行定期监控任务的调度器
@@ -18,7 +32,30 @@ public class ThreadMonitor
     // 监控时间间隔（秒）
     private final int monitorInterval;
     // 是否正在监控
-    private boolean monitoring = false;
+    private volatile boolean monitoring = false;
+    // 是否打印报告，关闭后采样任务不产生任何输出
+    private final boolean verbose;
+    // 采样任务抛出异常的次数
+    private final AtomicLong sampleFailures = new AtomicLong();
+
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final boolean cpuTimeSupported;
+    private final boolean contentionSupported;
+    // 线程ID -> 上一次采样的原始值：cpu, user, blockedCount, blockedTime, waitedCount, waitedTime
+    private final Map<Long, long[]> previousRaw = new HashMap<>();
+    private long previousSampleNanos = 0;
+
+    // 历史采样的环形缓冲区
+    private final Snapshot[] history;
+    private int historyNext = 0;
+    private int historyCount = 0;
+
+    // CPU占用率超过该值视为热点线程
+    private volatile double cpuHotThreshold = 0.8;
+    // 阻塞时间占比超过该值视为锁竞争
+    private volatile double blockedThreshold = 0.2;
+    // 每个间隔采样后扫描被监控线程的ThreadLocal，为null时不扫描
+    private volatile ThreadLocalLeakScanner threadLocalScanner;
 
     /**
      * 创建线程监控器
@@ -27,7 +64,26 @@ public class ThreadMonitor
      */
     public ThreadMonitor(int monitorInterval)
     {
+        this(monitorInterval, 60, true);
+    }
+
+    /**
+     * 创建线程监控器
+     *
+     * @param monitorInterval 监控间隔（秒）
+     * @param historySize 保留的历史采样数量
+     * @param verbose 是否在每个间隔打印报告
+     */
+    public ThreadMonitor(int monitorInterval, int historySize, boolean verbose)
+    {
+        if (historySize <= 0) {
+            throw new IllegalArgumentException("历史记录数量必须大于0");
+        }
         this.monitorInterval = monitorInterval;
+        this.history = new Snapshot[historySize];
+        this.verbose = verbose;
+        this.cpuTimeSupported = threadMXBean.isThreadCpuTimeSupported();
+        this.contentionSupported = threadMXBean.isThreadContentionMonitoringSupported();
     }
 
     /**
@@ -39,7 +95,9 @@ public class ThreadMonitor
     public void addThread(String name, Thread thread)
     {
         monitoredThreads.put(name, thread);
-        System.out.println("添加线程 '" + name + "' 到监控列表");
+        if (verbose) {
+            System.out.println("添加线程 '" + name + "' 到监控列表");
+        }
     }
 
     /**
@@ -50,7 +108,32 @@ public class ThreadMonitor
     public void removeThread(String name)
     {
         monitoredThreads.remove(name);
-        System.out.println("从监控列表中移除线程 '" + name + "'");
+        if (verbose) {
+            System.out.println("从监控列表中移除线程 '" + name + "'");
+        }
+    }
+
+    public void setCpuHotThreshold(double cpuHotThreshold)
+    {
+        this.cpuHotThreshold = cpuHotThreshold;
+    }
+
+    public void setBlockedThreshold(double blockedThreshold)
+    {
+        this.blockedThreshold = blockedThreshold;
+    }
+
+    /**
+     * 每个间隔采样后用该扫描器检查被监控线程的ThreadLocalMap，结果通过扫描器的getLatest()和指标读取
+     *
+     * @throws IllegalStateException 当前JVM不允许读取ThreadLocalMap
+     */
+    public void setThreadLocalScanner(ThreadLocalLeakScanner threadLocalScanner)
+    {
+        if (threadLocalScanner != null && !ThreadLocalLeakScanner.isSupported()) {
+            throw new IllegalStateException("无法启用ThreadLocal扫描: " + ThreadLocalLeakScanner.getUnsupportedReason());
+        }
+        this.threadLocalScanner = threadLocalScanner;
     }
 
     /**
@@ -59,43 +142,266 @@ public class ThreadMonitor
     public void startMonitoring()
     {
         if (monitoring) {
-            System.out.println("监控已经在运行中");
+            if (verbose) {
+                System.out.println("监控已经在运行中");
+            }
             return;
         }
         monitoring = true;
+        if (cpuTimeSupported && !threadMXBean.isThreadCpuTimeEnabled()) {
+            threadMXBean.setThreadCpuTimeEnabled(true);
+        }
+        if (contentionSupported && !threadMXBean.isThreadContentionMonitoringEnabled()) {
+            // 开启后才能得到阻塞/等待时间，次数始终可用
+            threadMXBean.setThreadContentionMonitoringEnabled(true);
+        }
         // 创建并调度监控任务
         scheduler.scheduleAtFixedRate(() -> {
-            System.out.println("\n=== 线程状态监控报告 ===");
-            System.out.println("时间: " + System.currentTimeMillis());
-            System.out.println("监控的线程数量: " + monitoredThreads.size());
-            // 打印每个线程的状态
-            monitoredThreads.forEach((name, thread) -> {
-                Thread.State state = thread.getState();
-                String statusInfo = String.format("线程 '%s' (ID: %d) - 状态: %s",
-                        name, thread.getId(), state);
-                // 根据状态提供额外信息
-                switch (state) {
-                    case BLOCKED:
-                        statusInfo += " - 等待获取监视器锁";
-                        break;
-                    case WAITING:
-                        statusInfo += " - 无限期等待另一个线程执行特定操作";
-                        break;
-                    case TIMED_WAITING:
-                        statusInfo += " - 等待另一个线程执行操作，最多等待指定的时间";
-                        break;
-                    case TERMINATED:
-                        statusInfo += " - 线程已结束执行";
-                        break;
+            try {
+                Snapshot snapshot = sample();
+                if (verbose) {
+                    printReport(snapshot);
                 }
-                System.out.println(statusInfo);
-            });
-            // 清理已终止的线程
-            monitoredThreads.entrySet().removeIf(entry ->
-                    entry.getValue().getState() == Thread.State.TERMINATED);
-            System.out.println("===========================");
+                ThreadLocalLeakScanner scanner = threadLocalScanner;
+                if (scanner != null) {
+                    ThreadLocalLeakScanner.Report report = scanner.scan(monitoredThreads.values());
+                    if (verbose) {
+                        scanner.printReport(report);
+                    }
+                }
+            }
+            catch (RuntimeException e) {
+                // 异常会终止后续调度，这里计数后继续运行；不论verbose与否都输出，避免失败无人察觉
+                long failures = sampleFailures.incrementAndGet();
+                if (failures % FAILURE_LOG_INTERVAL == 1) {
+                    System.err.println("线程监控采样失败，累计 " + failures + " 次");
+                    e.printStackTrace();
+                }
+            }
         }, 0, monitorInterval, TimeUnit.SECONDS);
-        System.out.println("开始监控线程状态，间隔: " + monitorInterval + " 秒");
+        if (verbose) {
+            System.out.println("开始监控线程状态，间隔: " + monitorInterval + " 秒");
+        }
+    }
+
+    /**
+     * 立即采样一次，结果写入历史记录
+     * 只在调度线程中调用，或在未启动监控时手动调用。
+     */
+    public synchronized Snapshot sample()
+    {
+        long now = System.nanoTime();
+        long intervalNanos = previousSampleNanos == 0 ? 0 : now - previousSampleNanos;
+        previousSampleNanos = now;
+
+        List<Map.Entry<String, Thread>> entries = new ArrayList<>(monitoredThreads.entrySet());
+        long[] ids = new long[entries.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = entries.get(i).getValue().getId();
+        }
+        // 一次调用取回所有线程的信息，不需要堆栈
+        ThreadInfo[] infos = threadMXBean.getThreadInfo(ids, 0);
+
+        List<ThreadSample> samples = new ArrayList<>(ids.length);
+        Map<Long, long[]> seen = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            String name = entries.get(i).getKey();
+            ThreadInfo info = infos[i];
+            if (info == null) {
+                // 线程已结束
+                samples.add(new ThreadSample(name, ids[i], Thread.State.TERMINATED, 0, 0, 0, 0, 0, 0,
+                        null, null, -1, intervalNanos, false, false));
+                continue;
+            }
+            long[] raw = new long[] {
+                    cpuTimeSupported ? Math.max(0, threadMXBean.getThreadCpuTime(ids[i])) : 0,
+                    cpuTimeSupported ? Math.max(0, threadMXBean.getThreadUserTime(ids[i])) : 0,
+                    info.getBlockedCount(),
+                    Math.max(0, info.getBlockedTime()),
+                    info.getWaitedCount(),
+                    Math.max(0, info.getWaitedTime())
+            };
+            seen.put(ids[i], raw);
+            long[] previous = previousRaw.get(ids[i]);
+            long[] delta = new long[raw.length];
+            if (previous != null) {
+                for (int k = 0; k < raw.length; k++) {
+                    delta[k] = Math.max(0, raw[k] - previous[k]);
+                }
+            }
+
+            double cpuUsage = intervalNanos == 0 ? 0 : (double) delta[0] / intervalNanos;
+            double blockedRatio = intervalNanos == 0 ? 0 : delta[3] * 1_000_000.0 / intervalNanos;
+            boolean cpuHot = previous != null && cpuUsage >= cpuHotThreshold;
+            boolean contended = info.getThreadState() == Thread.State.BLOCKED
+                    || (previous != null && blockedRatio >= blockedThreshold);
+            samples.add(new ThreadSample(name, ids[i], info.getThreadState(), delta[0], delta[1],
+                    delta[2], delta[3], delta[4], delta[5],
+                    info.getLockName(), info.getLockOwnerName(), info.getLockOwnerId(),
+                    intervalNanos, cpuHot, contended));
+        }
+        // 只保留仍存活线程的原始值
+        previousRaw.clear();
+        previousRaw.putAll(seen);
+
+        // 清理已终止的线程
+        monitoredThreads.entrySet().removeIf(entry ->
+                entry.getValue().getState() == Thread.State.TERMINATED);
+
+        Snapshot snapshot = new Snapshot(System.currentTimeMillis(), intervalNanos,
+                Collections.unmodifiableList(samples));
+        history[historyNext] = snapshot;
+        historyNext = (historyNext + 1) % history.length;
+        historyCount = Math.min(historyCount + 1, history.length);
+        return snapshot;
+    }
+
+    /**
+     * 获取历史采样，按时间从旧到新排列
+     */
+    public synchronized List<Snapshot> getHistory()
+    {
+        List<Snapshot> result = new ArrayList<>(historyCount);
+        int start = (historyNext - historyCount + history.length) % history.length;
+        for (int i = 0; i < historyCount; i++) {
+            result.add(history[(start + i) % history.length]);
+        }
+        return result;
+    }
+
+    /**
+     * 获取最近一次采样，没有采样时返回null
+     */
+    public synchronized Snapshot getLatest()
+    {
+        if (historyCount == 0) {
+            return null;
+        }
+        return history[(historyNext - 1 + history.length) % history.length];
+    }
+
+    private void printReport(Snapshot snapshot)
+    {
+        System.out.println("\n=== 线程状态监控报告 ===");
+        System.out.println("时间: " + snapshot.getTimestamp());
+        System.out.println("监控的线程数量: " + snapshot.getSamples().size());
+        // 打印每个线程的状态
+        for (ThreadSample sample : snapshot.getSamples()) {
+            String statusInfo = sample.toString();
+            // 根据状态提供额外信息
+            switch (sample.getState()) {
+                case BLOCKED:
+                    statusInfo += " - 等待获取监视器锁";
+                    break;
+                case WAITING:
+                    statusInfo += " - 无限期等待另一个线程执行特定操作";
+                    break;
+                case TIMED_WAITING:
+                    statusInfo += " - 等待另一个线程执行操作，最多等待指定的时间";
+                    break;
+                case TERMINATED:
+                    statusInfo += " - 线程已结束执行";
+                    break;
+            }
+            System.out.println(statusInfo);
+        }
+        System.out.println("===========================");
+    }
+
+    /**
+     * 打印锁竞争报告
+     * 把历史记录中阻塞在同一把锁上的线程归为一组，多个线程反复排队等待同一个持有者即为锁护航（lock convoy）。
+     */
+    public void printContentionReport()
+    {
+        List<Snapshot> snapshots = getHistory();
+        // 锁名 -> [出现的采样次数, 阻塞的线程数累计, 阻塞时间累计]
+        Map<String, long[]> locks = new LinkedHashMap<>();
+        Map<String, Map<String, Integer>> owners = new HashMap<>();
+        for (Snapshot snapshot : snapshots) {
+            Map<String, Integer> waitersInSnapshot = new HashMap<>();
+            for (ThreadSample sample : snapshot.getSamples()) {
+                if (sample.getLockName() == null || sample.getState() != Thread.State.BLOCKED) {
+                    continue;
+                }
+                waitersInSnapshot.merge(sample.getLockName(), 1, Integer::sum);
+                long[] stat = locks.computeIfAbsent(sample.getLockName(), k -> new long[3]);
+                stat[2] += sample.getBlockedTimeMillis();
+                if (sample.getLockOwnerName() != null) {
+                    owners.computeIfAbsent(sample.getLockName(), k -> new HashMap<>())
+                            .merge(sample.getLockOwnerName(), 1, Integer::sum);
+                }
+            }
+            waitersInSnapshot.forEach((lock, count) -> {
+                long[] stat = locks.get(lock);
+                stat[0]++;
+                stat[1] += count;
+            });
+        }
+
+        System.out.println("=== 锁竞争报告（" + snapshots.size() + " 次采样）===");
+        if (locks.isEmpty()) {
+            System.out.println("没有发现阻塞在锁上的线程");
+            return;
+        }
+        locks.forEach((lock, stat) -> {
+            double avgWaiters = (double) stat[1] / stat[0];
+            System.out.printf("锁 %s: 出现 %d 次, 平均等待线程 %.1f, 累计阻塞 %d ms, 持有者 %s%s%n",
+                    lock, stat[0], avgWaiters, stat[2], owners.getOrDefault(lock, Collections.emptyMap()),
+                    avgWaiters >= 2 && stat[0] >= 2 ? " [疑似锁护航]" : "");
+        });
+    }
+
+    /**
+     * 定时采样任务抛出异常的累计次数
+     */
+    public long getSampleFailures()
+    {
+        return sampleFailures.get();
+    }
+
+    /**
+     * 把最近一次采样注册为指标，标签thread为addThread时使用的名称
+     * 抓取时只读取已有的快照，不会触发新的采样。
+     *
+     * @param prefix 指标名前缀，例如 app_thread
+     */
+    public void registerMetrics(MetricsRegistry registry, String prefix)
+    {
+        registry.counter(prefix + "_sample_failures_total", "采样任务抛出异常的次数", this::getSampleFailures);
+        registry.register(out -> {
+            Snapshot snapshot = getLatest();
+            if (snapshot == null) {
+                return;
+            }
+            List<ThreadSample> samples = snapshot.getSamples();
+            out.family(prefix + "_cpu_usage", "上一个采样间隔内的CPU占用率，1表示一个核心", "gauge");
+            for (ThreadSample sample : samples) {
+                out.sample(prefix + "_cpu_usage", new String[] {"thread", sample.getName()}, sample.getCpuUsage());
+            }
+            out.family(prefix + "_blocked_seconds", "上一个采样间隔内阻塞在锁上的时间", "gauge");
+            for (ThreadSample sample : samples) {
+                out.sample(prefix + "_blocked_seconds", new String[] {"thread", sample.getName()},
+                        sample.getBlockedTimeMillis() / 1000.0);
+            }
+            out.family(prefix + "_blocked_count", "上一个采样间隔内进入BLOCKED状态的次数", "gauge");
+            for (ThreadSample sample : samples) {
+                out.sample(prefix + "_blocked_count", new String[] {"thread", sample.getName()}, sample.getBlockedCount());
+            }
+            out.family(prefix + "_waited_count", "上一个采样间隔内进入WAITING状态的次数", "gauge");
+            for (ThreadSample sample : samples) {
+                out.sample(prefix + "_waited_count", new String[] {"thread", sample.getName()}, sample.getWaitedCount());
+            }
+            out.family(prefix + "_state", "线程当前状态，当前状态对应的样本为1", "gauge");
+            for (ThreadSample sample : samples) {
+                out.sample(prefix + "_state", new String[] {"thread", sample.getName(), "state", sample.getState().name()}, 1);
+            }
+            out.family(prefix + "_lock_contended", "线程是否存在锁竞争", "gauge");
+            for (ThreadSample sample : samples) {
+                out.sample(prefix + "_lock_contended", new String[] {"thread", sample.getName()},
+                        sample.isLockContended() ? 1 : 0);
+            }
+        });
     }
 
     /**
@@ -105,6 +411,68 @@ public class ThreadMonitor
     {
         monitoring = false;
         scheduler.shutdown();
-        System.out.println("停止线程状态监控");
+        if (verbose) {
+            System.out.println("停止线程状态监控");
+        }
+    }
+
+    /**
+     * 一次采样的结果
+     */
+    public static class Snapshot
+    {
+        private final long timestamp;
+        private final long intervalNanos;
+        private final List<ThreadSample> samples;
+
+        Snapshot(long timestamp, long intervalNanos, List<ThreadSample> samples)
+        {
+            this.timestamp = timestamp;
+            this.intervalNanos = intervalNanos;
+            this.samples = samples;
+        }
+
+        public long getTimestamp()
+        {
+            return timestamp;
+        }
+
+        public long getIntervalNanos()
+        {
+            return intervalNanos;
+        }
+
+        public List<ThreadSample> getSamples()
+        {
+            return samples;
+        }
+
+        /**
+         * 本次采样中CPU占用超过阈值的线程
+         */
+        public List<ThreadSample> getCpuHotThreads()
+        {
+            List<ThreadSample> result = new ArrayList<>();
+            for (ThreadSample sample : samples) {
+                if (sample.isCpuHot()) {
+                    result.add(sample);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * 本次采样中存在锁竞争的线程
+         */
+        public List<ThreadSample> getContendedThreads()
+        {
+            List<ThreadSample> result = new ArrayList<>();
+            for (ThreadSample sample : samples) {
+                if (sample.isLockContended()) {
+                    result.add(sample);
+                }
+            }
+            return result;
+        }
     }
-}
\ No newline at end of file
+}
@@ -102,7 +102,8 @@ public class ThreadMonitorDemo
         catch (InterruptedException e) {
             e.printStackTrace();
         }
-        // 停止监控
+        // 停止监控，并输出采样期间的锁竞争情况
         monitor.stopMonitoring();
+        monitor.printContentionReport();
     }
 }
\ No newline at end of file
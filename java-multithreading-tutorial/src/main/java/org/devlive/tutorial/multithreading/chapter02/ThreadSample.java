@@ -0,0 +1,165 @@
+package org.devlive.tutorial.multithreading.chapter02;
+
+/**
+ * 单个线程在一个采样间隔内的统计数据
+ * 时间类字段都是相对上一次采样的增量。
+ */
+public class ThreadSample
+{
+    private final String name;
+    private final long threadId;
+    private final Thread.State state;
+    // 本间隔内的CPU时间和用户态时间（纳秒）
+    private final long cpuTimeNanos;
+    private final long userTimeNanos;
+    // 本间隔内进入BLOCKED/WAITING的次数和时间（毫秒，需要开启线程竞争监控）
+    private final long blockedCount;
+    private final long blockedTimeMillis;
+    private final long waitedCount;
+    private final long waitedTimeMillis;
+    // 采样时正在等待的锁及其持有者
+    private final String lockName;
+    private final String lockOwnerName;
+    private final long lockOwnerId;
+    // 本间隔的实际时长（纳秒）
+    private final long intervalNanos;
+    private final boolean cpuHot;
+    private final boolean lockContended;
+
+    ThreadSample(String name, long threadId, Thread.State state, long cpuTimeNanos, long userTimeNanos,
+            long blockedCount, long blockedTimeMillis, long waitedCount, long waitedTimeMillis,
+            String lockName, String lockOwnerName, long lockOwnerId, long intervalNanos,
+            boolean cpuHot, boolean lockContended)
+    {
+        this.name = name;
+        this.threadId = threadId;
+        this.state = state;
+        this.cpuTimeNanos = cpuTimeNanos;
+        this.userTimeNanos = userTimeNanos;
+        this.blockedCount = blockedCount;
+        this.blockedTimeMillis = blockedTimeMillis;
+        this.waitedCount = waitedCount;
+        this.waitedTimeMillis = waitedTimeMillis;
+        this.lockName = lockName;
+        this.lockOwnerName = lockOwnerName;
+        this.lockOwnerId = lockOwnerId;
+        this.intervalNanos = intervalNanos;
+        this.cpuHot = cpuHot;
+        this.lockContended = lockContended;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public long getThreadId()
+    {
+        return threadId;
+    }
+
+    public Thread.State getState()
+    {
+        return state;
+    }
+
+    public long getCpuTimeNanos()
+    {
+        return cpuTimeNanos;
+    }
+
+    public long getUserTimeNanos()
+    {
+        return userTimeNanos;
+    }
+
+    public long getBlockedCount()
+    {
+        return blockedCount;
+    }
+
+    public long getBlockedTimeMillis()
+    {
+        return blockedTimeMillis;
+    }
+
+    public long getWaitedCount()
+    {
+        return waitedCount;
+    }
+
+    public long getWaitedTimeMillis()
+    {
+        return waitedTimeMillis;
+    }
+
+    public String getLockName()
+    {
+        return lockName;
+    }
+
+    public String getLockOwnerName()
+    {
+        return lockOwnerName;
+    }
+
+    public long getLockOwnerId()
+    {
+        return lockOwnerId;
+    }
+
+    public long getIntervalNanos()
+    {
+        return intervalNanos;
+    }
+
+    /**
+     * 本间隔内CPU占用率，1.0表示占满一个核心
+     */
+    public double getCpuUsage()
+    {
+        return intervalNanos == 0 ? 0 : (double) cpuTimeNanos / intervalNanos;
+    }
+
+    /**
+     * 本间隔内处于BLOCKED状态的时间占比
+     */
+    public double getBlockedRatio()
+    {
+        return intervalNanos == 0 ? 0 : blockedTimeMillis * 1_000_000.0 / intervalNanos;
+    }
+
+    /**
+     * CPU占用超过阈值
+     */
+    public boolean isCpuHot()
+    {
+        return cpuHot;
+    }
+
+    /**
+     * 阻塞时间超过阈值，或采样时正阻塞在锁上
+     */
+    public boolean isLockContended()
+    {
+        return lockContended;
+    }
+
+    @Override
+    public String toString()
+    {
+        String text = String.format("线程 '%s' (ID: %d) %s CPU: %.0f%% (用户态 %dms) 阻塞: %d次/%dms 等待: %d次/%dms",
+                name, threadId, state, getCpuUsage() * 100, userTimeNanos / 1_000_000,
+                blockedCount, blockedTimeMillis, waitedCount, waitedTimeMillis);
+        if (lockName != null) {
+            text += " 等待锁: " + lockName + (lockOwnerName != null ? " 持有者: " + lockOwnerName : "");
+        }
+        if (cpuHot) {
+            text += " [CPU热点]";
+        }
+        if (lockContended) {
+            text += " [锁竞争]";
+        }
+        return text;
+    }
+}
@@ -2,12 +2,31 @@ package org.devlive.tutorial.multithreading.chapter03;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * 多线程文件搜索工具
@@ -18,6 +37,10 @@ public class ConcurrentFileSearcher
     private final ConcurrentLinkedQueue<File> results = new ConcurrentLinkedQueue<>();
     // 搜索线程数量
     private final int threadCount;
+    // 最近一次NIO遍历的统计
+    private volatile TraversalStats lastTraversalStats;
+    // 发现目录时的回调，例如FileIndexWatcher用来注册目录监听
+    private volatile DirectoryListener directoryListener;
 
     // 构造函数
     public ConcurrentFileSearcher(int threadCount)
@@ -25,11 +48,32 @@ public class ConcurrentFileSearcher
         this.threadCount = threadCount;
     }
 
-    // 主程序示例
+    /**
+     * 设置发现目录时的回调，所有搜索模式在遍历到目录（包括起始目录）时都会调用
+     */
+    public void setDirectoryListener(DirectoryListener directoryListener)
+    {
+        this.directoryListener = directoryListener;
+    }
+
+    private void notifyDirectory(File dir)
+    {
+        DirectoryListener listener = directoryListener;
+        if (listener != null) {
+            listener.onDirectory(dir);
+        }
+    }
+
+    // 主程序示例，传入参数 --work-stealing 使用工作窃取模式，--index 使用持久化索引，--nio 使用属性批量读取的NIO遍历
     public static void main(String[] args)
+            throws IOException
     {
-        // 创建文件搜索器，使用4个线程
-        ConcurrentFileSearcher searcher = new ConcurrentFileSearcher(4);
+        boolean workStealing = args.length > 0 && "--work-stealing".equals(args[0]);
+        boolean indexed = args.length > 0 && "--index".equals(args[0]);
+        boolean nio = args.length > 0 && "--nio".equals(args[0]);
+        // 创建文件搜索器，共享队列模式使用4个线程，工作窃取和NIO模式使用全部CPU核心
+        ConcurrentFileSearcher searcher = new ConcurrentFileSearcher(
+                workStealing || nio ? Runtime.getRuntime().availableProcessors() : 4);
         // 定义搜索起始目录
 //        File startDir = new File("C:/"); // Windows系统
         File startDir = new File("/"); // Linux/Mac系统
@@ -49,7 +93,29 @@ public class ConcurrentFileSearcher
             return false;
         };
         // 执行搜索
-        List<File> searchResults = searcher.search(startDir, criteria);
+        List<File> searchResults;
+        if (indexed) {
+            // 索引保存在用户目录下，第二次运行时只会重新扫描有变化的目录
+            FileIndex index = FileIndex.load(Paths.get(System.getProperty("user.home"), ".file-searcher.idx"));
+            searchResults = searcher.searchWithIndex(startDir, criteria, index);
+            index.save();
+        }
+        else if (workStealing) {
+            searchResults = searcher.searchWithWorkStealing(startDir, criteria);
+        }
+        else if (nio) {
+            // 同样的条件，但大小直接取自遍历时读取的属性，不再单独stat
+            AttributeSearchCriteria attributeCriteria = (path, attrs) ->
+                    path.getFileName().toString().endsWith(".java") && attrs.size() > 10 * 1024;
+            searchResults = new ArrayList<>();
+            for (Path path : searcher.searchWithAttributes(startDir.toPath(), attributeCriteria, false)) {
+                searchResults.add(path.toFile());
+            }
+            System.out.println(searcher.getLastTraversalStats());
+        }
+        else {
+            searchResults = searcher.search(startDir, criteria);
+        }
         // 显示搜索结果
         System.out.println("\n搜索结果:");
         if (searchResults.isEmpty()) {
@@ -92,6 +158,7 @@ public class ConcurrentFileSearcher
         // 创建目录队列
         ConcurrentLinkedQueue<File> directoryQueue = new ConcurrentLinkedQueue<>();
         directoryQueue.add(startDir);
+        notifyDirectory(startDir);
         // 创建并启动工作线程
         Thread[] searchThreads = new Thread[threadCount];
         for (int i = 0; i < threadCount; i++) {
@@ -125,6 +192,7 @@ public class ConcurrentFileSearcher
                                 // 将子目录添加到队列中
                                 directoryQueue.add(item);
                                 processedDirs.incrementAndGet();
+                                notifyDirectory(item);
                             }
                             else {
                                 // 检查文件是否匹配搜索条件
@@ -142,23 +210,7 @@ public class ConcurrentFileSearcher
             searchThreads[i].start();
         }
         // 创建并启动一个守护线程来显示搜索进度
-        Thread progressThread = new Thread(() -> {
-            try {
-                while (true) {
-                    int files = processedFiles.get();
-                    int dirs = processedDirs.get();
-                    int found = results.size();
-                    System.out.printf("\r处理中: %d 个文件, %d 个目录, 找到 %d 个匹配文件",
-                            files, dirs, found);
-                    TimeUnit.SECONDS.sleep(1);
-                }
-            }
-            catch (InterruptedException e) {
-                // 忽略中断
-            }
-        });
-        progressThread.setDaemon(true);
-        progressThread.start();
+        startProgressThread(processedFiles::get, processedDirs::get, results::size);
         // 等待所有搜索线程完成
         try {
             for (Thread thread : searchThreads) {
@@ -179,9 +231,680 @@ public class ConcurrentFileSearcher
         return new ArrayList<>(results);
     }
 
+    /**
+     * 使用工作窃取模式搜索文件
+     * 每个目录是一个ForkJoin任务，子目录被拆成子任务压入当前线程的双端队列，
+     * 空闲线程从其他线程的队列尾部窃取任务，深层子树会被自动分摊到所有线程。
+     * 所有任务完成时invoke()返回，不需要靠休眠轮询来判断结束。
+     *
+     * @param startDir 起始目录
+     * @param criteria 搜索条件
+     * @return 匹配的文件列表
+     */
+    public List<File> searchWithWorkStealing(File startDir, SearchCriteria criteria)
+    {
+        if (!startDir.exists() || !startDir.isDirectory()) {
+            throw new IllegalArgumentException("起始目录不存在或不是一个目录: " + startDir);
+        }
+        // 清空上次搜索结果
+        results.clear();
+        SearchHandle handle = new SearchHandle();
+        Thread progressThread = startProgressThread(handle.processedFiles::sum, handle.processedDirs::sum,
+                handle.matches::sum);
+        ForkJoinPool pool = new ForkJoinPool(threadCount);
+        notifyDirectory(startDir);
+        try {
+            pool.invoke(new DirectorySearchTask(startDir, criteria, handle, results::add));
+        }
+        finally {
+            pool.shutdown();
+            progressThread.interrupt();
+        }
+        // 打印最终结果
+        System.out.println("\n搜索完成: 处理了 " + handle.getProcessedFiles() + " 个文件, "
+                + handle.getProcessedDirs() + " 个目录, 找到 " + results.size() + " 个匹配文件");
+        return new ArrayList<>(results);
+    }
+
+    /**
+     * 异步流式搜索：每找到一个匹配文件就在搜索线程中回调onMatch，不在内存中累积结果
+     * 使用工作窃取模式遍历，可以通过返回的句柄取消或等待结束。
+     *
+     * @param startDir 起始目录
+     * @param criteria 搜索条件
+     * @param onMatch 匹配回调，会被多个搜索线程并发调用
+     * @return 搜索句柄
+     */
+    public SearchHandle searchAsync(File startDir, SearchCriteria criteria, Consumer<? super File> onMatch)
+    {
+        SearchHandle handle = new SearchHandle();
+        startAsync(startDir, criteria, handle, onMatch);
+        return handle;
+    }
+
+    /**
+     * 以Stream的形式流式返回匹配文件
+     * 搜索线程把结果放入容量为bufferSize的有界队列，消费跟不上时搜索线程会阻塞。
+     * 返回的Stream必须关闭（建议使用try-with-resources）：只有关闭才会取消搜索，
+     * limit(n)等短路操作本身不会停止搜索线程，未关闭的流会让搜索线程一直阻塞在已满的队列上。
+     * 关闭时中断搜索线程并唤醒阻塞的读取方，剩余的结果被丢弃。
+     *
+     * @param startDir 起始目录
+     * @param criteria 搜索条件
+     * @param bufferSize 结果队列容量
+     * @return 匹配文件的流
+     */
+    public Stream<File> searchStream(File startDir, SearchCriteria criteria, int bufferSize)
+    {
+        SearchHandle handle = new SearchHandle();
+        ResultIterator iterator = new ResultIterator(handle, bufferSize);
+        handle.onFinish = iterator::finish;
+        handle.onCancel = iterator::cancel;
+        startAsync(startDir, criteria, handle, iterator::put);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.NONNULL), false).onClose(handle::cancel);
+    }
+
+    /**
+     * 找到limit个匹配文件后立即停止搜索
+     *
+     * @param startDir 起始目录
+     * @param criteria 搜索条件
+     * @param limit 最多返回的文件数
+     * @return 匹配的文件列表
+     */
+    public List<File> searchFirst(File startDir, SearchCriteria criteria, int limit)
+            throws InterruptedException
+    {
+        ConcurrentLinkedQueue<File> found = new ConcurrentLinkedQueue<>();
+        AtomicInteger remaining = new AtomicInteger(limit);
+        SearchHandle handle = new SearchHandle();
+        startAsync(startDir, criteria, handle, file -> {
+            int left = remaining.getAndDecrement();
+            if (left > 0) {
+                found.add(file);
+            }
+            if (left <= 1) {
+                handle.cancel();
+            }
+        });
+        handle.await();
+        return new ArrayList<>(found);
+    }
+
+    private void startAsync(File startDir, SearchCriteria criteria, SearchHandle handle, Consumer<? super File> sink)
+    {
+        if (!startDir.exists() || !startDir.isDirectory()) {
+            throw new IllegalArgumentException("起始目录不存在或不是一个目录: " + startDir);
+        }
+        ForkJoinPool pool = new ForkJoinPool(threadCount);
+        handle.pool = pool;
+        notifyDirectory(startDir);
+        DirectorySearchTask root = new DirectorySearchTask(startDir, criteria, handle, sink);
+        pool.execute(new RecursiveAction()
+        {
+            @Override
+            protected void compute()
+            {
+                try {
+                    root.invoke();
+                }
+                catch (RuntimeException e) {
+                    // 取消时中断线程池引起的异常不算搜索错误
+                    if (!handle.isCancelled()) {
+                        handle.error = e;
+                    }
+                }
+                finally {
+                    pool.shutdown();
+                    handle.finish();
+                }
+            }
+        });
+    }
+
+    /**
+     * 使用java.nio遍历并批量读取属性搜索文件
+     * 旧的遍历方式对每个条目调用listFiles()后再调用isDirectory()，搜索条件里还可能再调用Files.size()，
+     * 每个条目要做多次stat。这里每个目录打开一次DirectoryStream，每个条目只读取一次BasicFileAttributes，
+     * 判断类型和执行搜索条件都复用这份属性。遍历仍采用工作窃取模式。
+     * 跟随符号链接时，记录每个目录的祖先链上的fileKey，链接指向祖先目录时判定为成环并跳过。
+     * 本次遍历发出的文件系统调用次数可以通过getLastTraversalStats()查看。
+     *
+     * @param startDir 起始目录
+     * @param criteria 基于属性的搜索条件
+     * @param followLinks 是否跟随符号链接
+     * @return 匹配的文件路径列表
+     */
+    public List<Path> searchWithAttributes(Path startDir, AttributeSearchCriteria criteria, boolean followLinks)
+    {
+        BasicFileAttributes rootAttrs;
+        try {
+            rootAttrs = Files.readAttributes(startDir, BasicFileAttributes.class);
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("起始目录不存在或不是一个目录: " + startDir);
+        }
+        if (!rootAttrs.isDirectory()) {
+            throw new IllegalArgumentException("起始目录不存在或不是一个目录: " + startDir);
+        }
+        ConcurrentLinkedQueue<Path> found = new ConcurrentLinkedQueue<>();
+        SearchHandle handle = new SearchHandle();
+        TraversalStats stats = new TraversalStats();
+        stats.attributeReads.increment();
+        lastTraversalStats = stats;
+        Thread progressThread = startProgressThread(handle.processedFiles::sum, handle.processedDirs::sum,
+                handle.matches::sum);
+        ForkJoinPool pool = new ForkJoinPool(threadCount);
+        notifyDirectory(startDir.toFile());
+        try {
+            pool.invoke(new AttributeSearchTask(startDir, new Ancestor(startDir, rootAttrs.fileKey(), null),
+                    criteria, followLinks, handle, stats, found::add));
+        }
+        finally {
+            pool.shutdown();
+            progressThread.interrupt();
+        }
+        System.out.println("\n搜索完成: 处理了 " + handle.getProcessedFiles() + " 个文件, "
+                + handle.getProcessedDirs() + " 个目录, 找到 " + found.size() + " 个匹配文件");
+        return new ArrayList<>(found);
+    }
+
+    /**
+     * 最近一次searchWithAttributes()的文件系统调用统计
+     */
+    public TraversalStats getLastTraversalStats()
+    {
+        return lastTraversalStats;
+    }
+
+    /**
+     * 基于持久化索引搜索文件
+     * 先增量刷新索引（只重新扫描修改时间变化的目录），再在索引上执行搜索条件。
+     *
+     * @param startDir 起始目录
+     * @param criteria 搜索条件
+     * @param index 文件索引，调用方负责在合适的时候save()
+     * @return 匹配的文件列表
+     */
+    public List<File> searchWithIndex(File startDir, SearchCriteria criteria, FileIndex index)
+    {
+        if (!startDir.exists() || !startDir.isDirectory()) {
+            throw new IllegalArgumentException("起始目录不存在或不是一个目录: " + startDir);
+        }
+        // 清空上次搜索结果
+        results.clear();
+        long start = System.nanoTime();
+        FileIndex.RefreshStats stats = index.refresh(startDir, threadCount, directoryListener);
+        long refreshed = System.nanoTime();
+        System.out.println("索引刷新完成(" + (refreshed - start) / 1_000_000 + "ms): " + stats);
+        results.addAll(index.query(startDir, criteria));
+        System.out.println("索引查询完成(" + (System.nanoTime() - refreshed) / 1_000_000 + "ms): 索引中共 "
+                + index.getEntryCount() + " 个条目, 找到 " + results.size() + " 个匹配文件");
+        return new ArrayList<>(results);
+    }
+
+    /**
+     * 启动一个守护线程来显示搜索进度
+     */
+    private Thread startProgressThread(LongSupplier processedFiles, LongSupplier processedDirs, LongSupplier matchedFiles)
+    {
+        Thread progressThread = new Thread(() -> {
+            try {
+                while (true) {
+                    long files = processedFiles.getAsLong();
+                    long dirs = processedDirs.getAsLong();
+                    long found = matchedFiles.getAsLong();
+                    System.out.printf("\r处理中: %d 个文件, %d 个目录, 找到 %d 个匹配文件",
+                            files, dirs, found);
+                    TimeUnit.SECONDS.sleep(1);
+                }
+            }
+            catch (InterruptedException e) {
+                // 忽略中断
+            }
+        });
+        progressThread.setDaemon(true);
+        progressThread.start();
+        return progressThread;
+    }
+
+    /**
+     * 处理单个目录的ForkJoin任务
+     */
+    private class DirectorySearchTask
+            extends RecursiveAction
+    {
+        private final File dir;
+        private final SearchCriteria criteria;
+        private final SearchHandle handle;
+        private final Consumer<? super File> sink;
+
+        DirectorySearchTask(File dir, SearchCriteria criteria, SearchHandle handle, Consumer<? super File> sink)
+        {
+            this.dir = dir;
+            this.criteria = criteria;
+            this.handle = handle;
+            this.sink = sink;
+        }
+
+        @Override
+        protected void compute()
+        {
+            // 已取消时排队中的任务直接返回，搜索很快结束
+            if (handle.isCancelled()) {
+                return;
+            }
+            File[] items = dir.listFiles();
+            if (items == null) {
+                return;
+            }
+            // 先把子目录拆成子任务fork出去，让空闲线程尽早可以窃取；isDirectory每次都是一次stat，文件顺便记下来
+            List<DirectorySearchTask> subTasks = new ArrayList<>();
+            List<File> files = new ArrayList<>(items.length);
+            for (File item : items) {
+                if (item.isDirectory()) {
+                    DirectorySearchTask task = new DirectorySearchTask(item, criteria, handle, sink);
+                    task.fork();
+                    subTasks.add(task);
+                    handle.processedDirs.increment();
+                    notifyDirectory(item);
+                }
+                else {
+                    files.add(item);
+                }
+            }
+            // 再处理本目录下的文件
+            for (File file : files) {
+                if (handle.isCancelled()) {
+                    break;
+                }
+                if (criteria.matches(file)) {
+                    handle.matches.increment();
+                    sink.accept(file);
+                }
+                handle.processedFiles.increment();
+            }
+            // 按fork的相反顺序join，未被窃取的任务会直接在当前线程执行
+            for (int i = subTasks.size() - 1; i >= 0; i--) {
+                subTasks.get(i).join();
+            }
+        }
+    }
+
+    /**
+     * NIO遍历中处理单个目录的ForkJoin任务
+     */
+    private class AttributeSearchTask
+            extends RecursiveAction
+    {
+        private final Path dir;
+        private final Ancestor ancestors;
+        private final AttributeSearchCriteria criteria;
+        private final boolean followLinks;
+        private final SearchHandle handle;
+        private final TraversalStats stats;
+        private final Consumer<Path> sink;
+
+        AttributeSearchTask(Path dir, Ancestor ancestors, AttributeSearchCriteria criteria, boolean followLinks,
+                SearchHandle handle, TraversalStats stats, Consumer<Path> sink)
+        {
+            this.dir = dir;
+            this.ancestors = ancestors;
+            this.criteria = criteria;
+            this.followLinks = followLinks;
+            this.handle = handle;
+            this.stats = stats;
+            this.sink = sink;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (handle.isCancelled()) {
+                return;
+            }
+            List<AttributeSearchTask> subTasks = new ArrayList<>();
+            stats.directoryOpens.increment();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path entry : stream) {
+                    if (handle.isCancelled()) {
+                        break;
+                    }
+                    // 每个条目只读取一次属性
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        stats.attributeReads.increment();
+                    }
+                    catch (IOException e) {
+                        stats.errors.increment();
+                        continue;
+                    }
+                    boolean link = attrs.isSymbolicLink();
+                    if (link && followLinks) {
+                        // 只有符号链接需要再读一次目标属性
+                        try {
+                            attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+                            stats.attributeReads.increment();
+                        }
+                        catch (IOException e) {
+                            // 悬空链接，按链接自身处理
+                        }
+                    }
+                    if (attrs.isDirectory()) {
+                        if (link && ancestors.contains(entry, attrs.fileKey(), stats)) {
+                            stats.loopsDetected.increment();
+                            continue;
+                        }
+                        AttributeSearchTask task = new AttributeSearchTask(entry,
+                                new Ancestor(entry, attrs.fileKey(), ancestors),
+                                criteria, followLinks, handle, stats, sink);
+                        task.fork();
+                        subTasks.add(task);
+                        handle.processedDirs.increment();
+                        if (directoryListener != null) {
+                            notifyDirectory(entry.toFile());
+                        }
+                    }
+                    else {
+                        if (criteria.matches(entry, attrs)) {
+                            handle.matches.increment();
+                            sink.accept(entry);
+                        }
+                        handle.processedFiles.increment();
+                    }
+                }
+            }
+            catch (IOException | DirectoryIteratorException e) {
+                stats.errors.increment();
+            }
+            for (int i = subTasks.size() - 1; i >= 0; i--) {
+                subTasks.get(i).join();
+            }
+        }
+    }
+
+    /**
+     * 目录的祖先链，用于检测符号链接成环
+     */
+    private static class Ancestor
+    {
+        final Path path;
+        final Object fileKey;
+        final Ancestor parent;
+
+        Ancestor(Path path, Object fileKey, Ancestor parent)
+        {
+            this.path = path;
+            this.fileKey = fileKey;
+            this.parent = parent;
+        }
+
+        /**
+         * 判断目标目录是否已经出现在祖先链上
+         */
+        boolean contains(Path target, Object targetKey, TraversalStats stats)
+        {
+            for (Ancestor ancestor = this; ancestor != null; ancestor = ancestor.parent) {
+                if (targetKey != null && ancestor.fileKey != null) {
+                    if (targetKey.equals(ancestor.fileKey)) {
+                        return true;
+                    }
+                }
+                else {
+                    // 文件系统不提供fileKey时退化为逐个比较
+                    try {
+                        stats.attributeReads.increment();
+                        if (Files.isSameFile(target, ancestor.path)) {
+                            return true;
+                        }
+                    }
+                    catch (IOException e) {
+                        // 无法比较，当作不同目录
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * NIO遍历发出的文件系统调用统计
+     * 在Unix上每次打开目录对应opendir/getdents，每次读取属性对应一次lstat或stat。
+     */
+    public static class TraversalStats
+    {
+        final LongAdder directoryOpens = new LongAdder();
+        final LongAdder attributeReads = new LongAdder();
+        final LongAdder loopsDetected = new LongAdder();
+        final LongAdder errors = new LongAdder();
+
+        public long getDirectoryOpens()
+        {
+            return directoryOpens.sum();
+        }
+
+        public long getAttributeReads()
+        {
+            return attributeReads.sum();
+        }
+
+        public long getLoopsDetected()
+        {
+            return loopsDetected.sum();
+        }
+
+        public long getErrors()
+        {
+            return errors.sum();
+        }
+
+        @Override
+        public String toString()
+        {
+            return "打开目录: " + getDirectoryOpens() + " 次, 读取属性: " + getAttributeReads()
+                    + " 次, 检测到链接成环: " + getLoopsDetected() + ", 错误: " + getErrors();
+        }
+    }
+
+    /**
+     * 一次搜索的句柄，用于取消、等待结束和查看进度
+     */
+    public static class SearchHandle
+    {
+        // 文件数量可能达到百万级，使用LongAdder避免所有线程争用同一个计数器
+        final LongAdder processedFiles = new LongAdder();
+        final LongAdder processedDirs = new LongAdder();
+        final LongAdder matches = new LongAdder();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean cancelled = false;
+        volatile RuntimeException error;
+        // 执行本次搜索的线程池
+        volatile ForkJoinPool pool;
+        // 搜索结束（正常完成或取消）时的回调
+        Runnable onFinish;
+        // 取消时的回调，用于唤醒阻塞中的搜索线程和读取方
+        Runnable onCancel;
+
+        /**
+         * 取消搜索，搜索线程在处理下一个文件或目录前停止
+         */
+        public void cancel()
+        {
+            cancelled = true;
+            if (onCancel != null) {
+                onCancel.run();
+            }
+        }
+
+        public boolean isCancelled()
+        {
+            return cancelled;
+        }
+
+        public boolean isDone()
+        {
+            return done.getCount() == 0;
+        }
+
+        /**
+         * 等待搜索结束，搜索条件抛出的异常会在这里重新抛出
+         */
+        public void await()
+                throws InterruptedException
+        {
+            done.await();
+            if (error != null) {
+                throw error;
+            }
+        }
+
+        /**
+         * 限时等待搜索结束
+         *
+         * @return 是否在超时前结束
+         */
+        public boolean await(long timeout, TimeUnit unit)
+                throws InterruptedException
+        {
+            boolean finished = done.await(timeout, unit);
+            if (finished && error != null) {
+                throw error;
+            }
+            return finished;
+        }
+
+        void finish()
+        {
+            if (onFinish != null) {
+                onFinish.run();
+            }
+            done.countDown();
+        }
+
+        public long getProcessedFiles()
+        {
+            return processedFiles.sum();
+        }
+
+        public long getProcessedDirs()
+        {
+            return processedDirs.sum();
+        }
+
+        public long getMatchCount()
+        {
+            return matches.sum();
+        }
+    }
+
+    /**
+     * 有界阻塞队列支撑的结果迭代器，搜索线程是生产者，调用方是消费者
+     */
+    private static class ResultIterator
+            implements Iterator<File>
+    {
+        // 流结束标记
+        private static final File END = new File("");
+
+        private final SearchHandle handle;
+        private final ArrayBlockingQueue<File> queue;
+        private File next;
+
+        ResultIterator(SearchHandle handle, int capacity)
+        {
+            this.handle = handle;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        /**
+         * 搜索线程调用：队列满时阻塞，取消后放弃
+         */
+        void put(File file)
+        {
+            if (handle.isCancelled()) {
+                return;
+            }
+            try {
+                queue.put(file);
+            }
+            catch (InterruptedException e) {
+                // cancel()中断了线程池
+                Thread.currentThread().interrupt();
+                handle.cancel();
+            }
+        }
+
+        void finish()
+        {
+            // 取消时cancel()已经放入了结束标记
+            put(END);
+        }
+
+        /**
+         * 取消时调用：中断阻塞在put()上的搜索线程，丢弃未消费的结果并放入结束标记，唤醒阻塞在take()上的读取方
+         * 已经进入put()的搜索线程可能在清空后又放入结果，所以循环到结束标记放入成功为止。
+         */
+        void cancel()
+        {
+            ForkJoinPool pool = handle.pool;
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            do {
+                queue.clear();
+            }
+            while (!queue.offer(END));
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            if (next != null) {
+                return next != END;
+            }
+            try {
+                next = queue.take();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                handle.cancel();
+                next = END;
+            }
+            if (next == END && handle.error != null) {
+                throw handle.error;
+            }
+            return next != END;
+        }
+
+        @Override
+        public File next()
+        {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            File file = next;
+            next = null;
+            return file;
+        }
+    }
+
     // 搜索条件接口
     public interface SearchCriteria
     {
         boolean matches(File file);
     }
+
+    // 基于属性的搜索条件接口，属性由遍历时一次性读取，求值时不需要再访问文件系统
+    public interface AttributeSearchCriteria
+    {
+        boolean matches(Path path, BasicFileAttributes attrs);
+    }
+
+    // 发现目录的回调接口，可能被多个搜索线程并发调用
+    public interface DirectoryListener
+    {
+        void onDirectory(File dir);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,510 @@
+package org.devlive.tutorial.multithreading.chapter03;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 按文件内容匹配的搜索条件（grep模式）
+ * 多个模式编译成一个字节级Aho-Corasick自动机，一次扫描即可找出所有模式的所有出现位置。
+ * 小文件用每个线程复用的直接缓冲区读取；大文件通过内存映射读取，
+ * 超过chunkSize的文件被切成多段并行扫描，段与段之间重叠(最长模式长度-1)个字节，
+ * 每个匹配只归属于起始位置所在的段，因此跨段的匹配不会丢失也不会重复。
+ * 匹配结果包含字节偏移和行号（从1开始）。
+ * <p>
+ * 作为SearchCriteria使用时，matches()找到的匹配逐个交给构造时传入的消费者，本对象不保存任何匹配，
+ * 扫描再大的目录内存也不会增长；无法读取的文件不算匹配，但会计入getUnreadableFiles()。
+ */
+public class ContentSearchCriteria
+        implements ConcurrentFileSearcher.SearchCriteria
+{
+    private static final long DEFAULT_CHUNK_SIZE = 32L * 1024 * 1024;
+    private static final int DEFAULT_SMALL_FILE_THRESHOLD = 256 * 1024;
+    private static final int DEFAULT_MAX_MATCHES_PER_FILE = 1000;
+
+    private final byte[][] patterns;
+    private final String[] patternNames;
+    // 每个模式中包含的换行符数量，用于从匹配结束位置推算起始行号
+    private final int[] patternNewlines;
+    private final int maxPatternLength;
+    private final Automaton automaton;
+
+    private final long chunkSize;
+    private final int smallFileThreshold;
+    private final int maxMatchesPerFile;
+    private final ForkJoinPool pool;
+
+    // 小文件读取缓冲区，每个线程一个，重复使用
+    private final ThreadLocal<ByteBuffer> directBuffers;
+    // matches()找到的匹配交给它处理，会被多个搜索线程并发调用
+    private final Consumer<? super ContentMatch> matchConsumer;
+    // matches()中因IOException无法读取的文件数
+    private final LongAdder unreadableFiles = new LongAdder();
+
+    /**
+     * 只判断文件是否匹配，不关心匹配详情
+     */
+    public ContentSearchCriteria(String... patterns)
+    {
+        this(match -> {
+        }, patterns);
+    }
+
+    /**
+     * @param matchConsumer 接收matches()找到的每个匹配，必须是线程安全的
+     */
+    public ContentSearchCriteria(Consumer<? super ContentMatch> matchConsumer, String... patterns)
+    {
+        this(toBytes(patterns), DEFAULT_CHUNK_SIZE, DEFAULT_SMALL_FILE_THRESHOLD,
+                DEFAULT_MAX_MATCHES_PER_FILE, ForkJoinPool.commonPool(), matchConsumer);
+    }
+
+    /**
+     * @param patterns 要查找的字节模式
+     * @param chunkSize 大文件切段的大小，每段一个并行任务
+     * @param smallFileThreshold 不超过该大小的文件用直接缓冲区读取，不做内存映射
+     * @param maxMatchesPerFile 每个文件最多记录的匹配数
+     * @param pool 不在ForkJoin线程中调用时，用于并行扫描分段的线程池
+     * @param matchConsumer 接收matches()找到的每个匹配，必须是线程安全的
+     */
+    public ContentSearchCriteria(List<byte[]> patterns, long chunkSize, int smallFileThreshold,
+            int maxMatchesPerFile, ForkJoinPool pool, Consumer<? super ContentMatch> matchConsumer)
+    {
+        if (patterns.isEmpty()) {
+            throw new IllegalArgumentException("至少需要一个模式");
+        }
+        this.patterns = new byte[patterns.size()][];
+        this.patternNames = new String[patterns.size()];
+        this.patternNewlines = new int[patterns.size()];
+        int maxLength = 0;
+        for (int i = 0; i < this.patterns.length; i++) {
+            byte[] pattern = patterns.get(i);
+            if (pattern.length == 0) {
+                throw new IllegalArgumentException("模式不能为空");
+            }
+            this.patterns[i] = pattern.clone();
+            this.patternNames[i] = new String(pattern, StandardCharsets.UTF_8);
+            for (byte b : pattern) {
+                if (b == '\n') {
+                    patternNewlines[i]++;
+                }
+            }
+            maxLength = Math.max(maxLength, pattern.length);
+        }
+        if (chunkSize < maxLength) {
+            throw new IllegalArgumentException("chunkSize不能小于最长模式的长度");
+        }
+        // 每段连同向后多映射的字节按int下标扫描，单次FileChannel.map也不能超过Integer.MAX_VALUE
+        if (chunkSize > Integer.MAX_VALUE - maxLength) {
+            throw new IllegalArgumentException("chunkSize加上最长模式的长度不能超过Integer.MAX_VALUE");
+        }
+        this.maxPatternLength = maxLength;
+        this.automaton = new Automaton(this.patterns);
+        this.chunkSize = chunkSize;
+        this.smallFileThreshold = smallFileThreshold;
+        this.maxMatchesPerFile = maxMatchesPerFile;
+        this.pool = pool;
+        this.matchConsumer = matchConsumer;
+        this.directBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(smallFileThreshold));
+    }
+
+    private static List<byte[]> toBytes(String[] patterns)
+    {
+        List<byte[]> result = new ArrayList<>(patterns.length);
+        for (String pattern : patterns) {
+            result.add(pattern.getBytes(StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    /**
+     * 文件中包含任一模式即匹配，匹配详情交给构造时传入的消费者
+     */
+    @Override
+    public boolean matches(File file)
+    {
+        List<ContentMatch> found;
+        try {
+            found = scan(file);
+        }
+        catch (IOException e) {
+            unreadableFiles.increment();
+            return false;
+        }
+        for (ContentMatch match : found) {
+            matchConsumer.accept(match);
+        }
+        return !found.isEmpty();
+    }
+
+    /**
+     * matches()中无法读取（权限不足、读取时被删除等）而被当作不匹配的文件数
+     */
+    public long getUnreadableFiles()
+    {
+        return unreadableFiles.sum();
+    }
+
+    /**
+     * 扫描单个文件，返回按偏移排序的匹配列表
+     */
+    public List<ContentMatch> scan(File file)
+            throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0) {
+                return Collections.emptyList();
+            }
+            if (size <= smallFileThreshold) {
+                return scanSmall(file, channel);
+            }
+            if (size <= chunkSize) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                ChunkResult result = scanRange(buffer, 0, (int) size, (int) size, 0);
+                return toMatches(file, Collections.singletonList(result));
+            }
+            return scanChunked(file, channel, size);
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private List<ContentMatch> scanSmall(File file, FileChannel channel)
+            throws IOException
+    {
+        ByteBuffer buffer = directBuffers.get();
+        buffer.clear();
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // 读满或读到文件末尾为止
+        }
+        int length = buffer.position();
+        ChunkResult result = scanRange(buffer, 0, length, length, 0);
+        return toMatches(file, Collections.singletonList(result));
+    }
+
+    private List<ContentMatch> scanChunked(File file, FileChannel channel, long size)
+    {
+        List<ChunkTask> tasks = new ArrayList<>();
+        for (long start = 0; start < size; start += chunkSize) {
+            tasks.add(new ChunkTask(channel, start, Math.min(start + chunkSize, size), size));
+        }
+        List<ChunkResult> results = new ArrayList<>(tasks.size());
+        // 在ForkJoin线程中（例如工作窃取搜索）直接在当前线程池里分叉，否则交给指定线程池
+        if (ForkJoinTask.inForkJoinPool()) {
+            ForkJoinTask.invokeAll(tasks);
+        }
+        else {
+            pool.invoke(new RecursiveTask<Void>()
+            {
+                @Override
+                protected Void compute()
+                {
+                    invokeAll(tasks);
+                    return null;
+                }
+            });
+        }
+        for (ChunkTask task : tasks) {
+            results.add(task.join());
+        }
+        return toMatches(file, results);
+    }
+
+    /**
+     * 扫描一段数据，只报告起始位置在[from, ownedEnd)内的匹配，只统计该区间内的换行符
+     *
+     * @param buffer 数据
+     * @param from 扫描起始位置
+     * @param ownedEnd 本段拥有的区间终点
+     * @param limit 扫描终点（包含重叠区）
+     * @param baseOffset buffer中位置0对应的文件偏移
+     */
+    private ChunkResult scanRange(ByteBuffer buffer, int from, int ownedEnd, int limit, long baseOffset)
+    {
+        ChunkResult result = new ChunkResult();
+        int[] delta = automaton.delta;
+        int[][] outputs = automaton.outputs;
+        int state = 0;
+        long newlines = 0;
+        for (int i = from; i < limit; i++) {
+            byte b = buffer.get(i);
+            if (b == '\n') {
+                newlines++;
+            }
+            if (i == ownedEnd - 1) {
+                // 重叠区的换行符属于下一段
+                result.newlines = newlines;
+            }
+            state = delta[(state << 8) | (b & 0xff)];
+            int[] out = outputs[state];
+            if (out != null) {
+                for (int p : out) {
+                    int start = i - patterns[p].length + 1;
+                    if (start >= ownedEnd) {
+                        continue;
+                    }
+                    if (result.size < maxMatchesPerFile) {
+                        result.add(p, baseOffset + start, newlines - patternNewlines[p]);
+                    }
+                }
+            }
+            if (i >= ownedEnd && state == 0) {
+                // 已越过本段且没有未完成的匹配，可以提前结束
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 合并各段结果，把段内行号换算成文件行号
+     */
+    private List<ContentMatch> toMatches(File file, List<ChunkResult> chunks)
+    {
+        List<ContentMatch> found = new ArrayList<>();
+        long linesBefore = 0;
+        for (ChunkResult chunk : chunks) {
+            for (int i = 0; i < chunk.size && found.size() < maxMatchesPerFile; i++) {
+                found.add(new ContentMatch(file, patternNames[chunk.patterns[i]],
+                        chunk.offsets[i], linesBefore + chunk.lines[i] + 1));
+            }
+            linesBefore += chunk.newlines;
+        }
+        return found;
+    }
+
+    /**
+     * 大文件的一个分段，单独做内存映射
+     */
+    private class ChunkTask
+            extends RecursiveTask<ChunkResult>
+    {
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+        private final long fileSize;
+
+        ChunkTask(FileChannel channel, long start, long end, long fileSize)
+        {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.fileSize = fileSize;
+        }
+
+        @Override
+        protected ChunkResult compute()
+        {
+            // 向后多映射(最长模式长度-1)个字节，以便找到跨越段边界的匹配
+            long mapEnd = Math.min(end + maxPatternLength - 1, fileSize);
+            try {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, mapEnd - start);
+                return scanRange(buffer, 0, (int) (end - start), (int) (mapEnd - start), start);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * 一段数据的扫描结果，用并行数组存放，避免每个匹配一个对象
+     */
+    private static class ChunkResult
+    {
+        int size = 0;
+        int[] patterns = new int[4];
+        long[] offsets = new long[4];
+        long[] lines = new long[4];   // 段内行号（从0开始）
+        long newlines;                // 本段拥有区间内的换行符数量
+
+        void add(int pattern, long offset, long line)
+        {
+            if (size == offsets.length) {
+                patterns = Arrays.copyOf(patterns, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+                lines = Arrays.copyOf(lines, size * 2);
+            }
+            patterns[size] = pattern;
+            offsets[size] = offset;
+            lines[size] = line;
+            size++;
+        }
+    }
+
+    /**
+     * 字节级Aho-Corasick自动机，转移表展开成完整的DFA，每个字节只需一次查表
+     */
+    private static class Automaton
+    {
+        final int[] delta;      // delta[(state << 8) | byte] = 下一个状态
+        final int[][] outputs;  // 每个状态上结束的模式下标，包括通过失败链继承的
+
+        Automaton(byte[][] patterns)
+        {
+            int maxStates = 1;
+            for (byte[] pattern : patterns) {
+                maxStates += pattern.length;
+            }
+            int[] trie = new int[maxStates << 8];
+            Arrays.fill(trie, -1);
+            List<List<Integer>> out = new ArrayList<>();
+            out.add(null);
+            int states = 1;
+            for (int p = 0; p < patterns.length; p++) {
+                int state = 0;
+                for (byte b : patterns[p]) {
+                    int index = (state << 8) | (b & 0xff);
+                    if (trie[index] < 0) {
+                        trie[index] = states++;
+                        out.add(null);
+                    }
+                    state = trie[index];
+                }
+                if (out.get(state) == null) {
+                    out.set(state, new ArrayList<>());
+                }
+                out.get(state).add(p);
+            }
+
+            // 按广度优先计算失败链，同时把缺失的转移补全为DFA
+            int[] fail = new int[states];
+            Queue<Integer> queue = new ArrayDeque<>();
+            for (int c = 0; c < 256; c++) {
+                int next = trie[c];
+                if (next < 0) {
+                    trie[c] = 0;
+                }
+                else {
+                    fail[next] = 0;
+                    queue.add(next);
+                }
+            }
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                List<Integer> inherited = out.get(fail[state]);
+                if (inherited != null) {
+                    if (out.get(state) == null) {
+                        out.set(state, new ArrayList<>());
+                    }
+                    out.get(state).addAll(inherited);
+                }
+                for (int c = 0; c < 256; c++) {
+                    int index = (state << 8) | c;
+                    int next = trie[index];
+                    if (next < 0) {
+                        trie[index] = trie[(fail[state] << 8) | c];
+                    }
+                    else {
+                        fail[next] = trie[(fail[state] << 8) | c];
+                        queue.add(next);
+                    }
+                }
+            }
+
+            this.delta = Arrays.copyOf(trie, states << 8);
+            this.outputs = new int[states][];
+            for (int s = 0; s < states; s++) {
+                List<Integer> list = out.get(s);
+                if (list != null) {
+                    outputs[s] = list.stream().mapToInt(Integer::intValue).toArray();
+                }
+            }
+        }
+    }
+
+    /**
+     * 一次内容匹配
+     */
+    public static class ContentMatch
+    {
+        private final File file;
+        private final String pattern;
+        private final long offset;
+        private final long line;
+
+        public ContentMatch(File file, String pattern, long offset, long line)
+        {
+            this.file = file;
+            this.pattern = pattern;
+            this.offset = offset;
+            this.line = line;
+        }
+
+        public File getFile()
+        {
+            return file;
+        }
+
+        public String getPattern()
+        {
+            return pattern;
+        }
+
+        /**
+         * 匹配起始位置的字节偏移
+         */
+        public long getOffset()
+        {
+            return offset;
+        }
+
+        /**
+         * 匹配起始位置所在的行号，从1开始
+         */
+        public long getLine()
+        {
+            return line;
+        }
+
+        @Override
+        public String toString()
+        {
+            return file.getPath() + ":" + line + " (偏移 " + offset + ") " + pattern;
+        }
+    }
+
+    // 示例：在指定目录（默认当前目录）下查找包含给定关键字的文件
+    public static void main(String[] args)
+    {
+        File startDir = new File(args.length > 0 ? args[0] : ".");
+        String[] keywords = args.length > 1
+                ? Arrays.copyOfRange(args, 1, args.length)
+                : new String[] {"ReentrantLock", "Condition"};
+
+        // 只打印前20处匹配，其余只计数，不在内存中累积
+        AtomicInteger matchCount = new AtomicInteger();
+        ContentSearchCriteria criteria = new ContentSearchCriteria(match -> {
+            if (matchCount.incrementAndGet() <= 20) {
+                System.out.println(match);
+            }
+        }, keywords);
+        ConcurrentFileSearcher searcher = new ConcurrentFileSearcher(Runtime.getRuntime().availableProcessors());
+
+        long start = System.nanoTime();
+        List<File> files = searcher.searchWithWorkStealing(startDir, criteria);
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.println("在 " + files.size() + " 个文件中找到 " + matchCount.get() + " 处匹配，耗时 " + elapsed + "ms，"
+                + "无法读取的文件 " + criteria.getUnreadableFiles() + " 个");
+    }
+}
@@ -1,9 +1,14 @@
 package org.devlive.tutorial.multithreading.chapter03;
 
+import org.devlive.tutorial.multithreading.chapter02.MetricsHttpServer;
+import org.devlive.tutorial.multithreading.chapter02.MetricsRegistry;
+
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -12,9 +17,15 @@ import java.util.concurrent.TimeUnit;
 public class DaemonThreadMonitoringDemo
 {
     public static void main(String[] args)
+            throws IOException
     {
+        // 订阅GC通知，每次GC都会被记录，不依赖轮询的时机；停顿超过50ms或分配速率超过512MB/s时告警
+        GcMonitor gcMonitor = new GcMonitor(50, 512L * 1024 * 1024, 256);
+        gcMonitor.start();
         // 启动系统监控守护线程
-        startMonitoringThread();
+        startMonitoringThread(gcMonitor);
+        // 同样的数据通过HTTP端点暴露给Prometheus抓取
+        MetricsHttpServer metricsServer = startMetricsServer(args.length > 0 ? Integer.parseInt(args[0]) : 9400, gcMonitor);
         // 模拟主应用程序
         System.out.println("主应用程序开始运行...");
         // 执行一些内存密集型操作，让监控线程有些变化可以报告
@@ -22,6 +33,13 @@ public class DaemonThreadMonitoringDemo
             System.out.println("\n===== 执行任务 " + (i + 1) + " =====");
             // 分配一些内存
             byte[][] arrays = new byte[i + 1][1024 * 1024]; // 分配 (i+1) MB的内存
+            // 产生大量短命对象，触发若干次短暂的年轻代GC
+            long checksum = 0;
+            for (int j = 0; j < 500 * (i + 1); j++) {
+                byte[] garbage = new byte[64 * 1024];
+                checksum += garbage.length;
+            }
+            System.out.println("临时分配: " + checksum / (1024 * 1024) + " MB");
             // 模拟一些处理
             try {
                 TimeUnit.SECONDS.sleep(3);
@@ -35,15 +53,35 @@ public class DaemonThreadMonitoringDemo
             }
         }
         System.out.println("\n主应用程序执行完毕，即将退出");
+        gcMonitor.printSummary();
+        gcMonitor.close();
+        metricsServer.close();
+    }
+
+    private static MetricsHttpServer startMetricsServer(int port, GcMonitor gcMonitor)
+            throws IOException
+    {
+        MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.gauge("jvm_heap_used_bytes", "已使用的堆内存", () -> memoryBean.getHeapMemoryUsage().getUsed());
+        registry.gauge("jvm_heap_max_bytes", "最大堆内存", () -> memoryBean.getHeapMemoryUsage().getMax());
+        registry.gauge("jvm_non_heap_used_bytes", "已使用的非堆内存", () -> memoryBean.getNonHeapMemoryUsage().getUsed());
+        registry.gauge("jvm_threads_live", "存活线程数", () -> ManagementFactory.getThreadMXBean().getThreadCount());
+        gcMonitor.registerMetrics(registry, "jvm_gc");
+        MetricsHttpServer server = new MetricsHttpServer(registry, port);
+        server.start();
+        System.out.println("指标地址: http://127.0.0.1:" + server.getPort() + "/metrics");
+        return server;
     }
 
-    private static void startMonitoringThread()
+    private static void startMonitoringThread(GcMonitor gcMonitor)
     {
         Thread monitorThread = new Thread(() -> {
             // 获取内存管理 MXBean
             MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
             DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm:ss");
             System.out.println("系统监控线程启动");
+            long reportedGcCount = 0;
             try {
                 while (true) {
                     // 获取当前时间
@@ -66,6 +104,21 @@ public class DaemonThreadMonitoringDemo
                     if (heapUsagePercent > 70) {
                         System.out.println("警告: 内存使用率过高!");
                     }
+                    // 两次报告之间发生的每一次GC都由GcMonitor记录下来，轮询只负责展示
+                    long gcCount = gcMonitor.getGcCount();
+                    if (gcCount > reportedGcCount) {
+                        List<GcMonitor.GcEvent> events = gcMonitor.getHistory();
+                        // 只展示最近的几次
+                        int newEvents = (int) Math.min(3, Math.min(events.size(), gcCount - reportedGcCount));
+                        System.out.println("期间发生GC " + (gcCount - reportedGcCount) + " 次:");
+                        for (GcMonitor.GcEvent event : events.subList(events.size() - newEvents, events.size())) {
+                            System.out.println("  " + event);
+                        }
+                        System.out.printf("分配速率: %.1f MB/s, 晋升速率: %.1f MB/s\n",
+                                gcMonitor.getAllocationRate() / (1024.0 * 1024.0),
+                                gcMonitor.getPromotionRate() / (1024.0 * 1024.0));
+                        reportedGcCount = gcCount;
+                    }
                     // 每2秒收集一次信息
                     TimeUnit.SECONDS.sleep(2);
                 }
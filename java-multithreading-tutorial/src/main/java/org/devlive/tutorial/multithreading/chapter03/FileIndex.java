@@ -0,0 +1,572 @@
+package org.devlive.tutorial.multithreading.chapter03;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 持久化的增量文件索引
+ * 按目录保存每个条目的名称、类型、大小和修改时间，并记录目录自身的修改时间。
+ * 刷新时只对每个目录做一次stat：修改时间没变说明目录中没有新增、删除或重命名的条目，
+ * 直接复用索引中的条目，只有修改时间变化的目录才重新列出并读取属性。
+ * 搜索条件在索引上求值，传给SearchCriteria的File对象的length()/lastModified()/isDirectory()
+ * 直接返回索引中的值，不会触发系统调用。
+ * 符号链接记录目标的属性，但不会递归进入指向目录的链接，避免链接成环。
+ * <p>
+ * 注意：修改文件内容不会改变所在目录的修改时间，因此未变目录中的文件大小可能已过期，
+ * 需要实时准确的属性时配合FileIndexWatcher使用。
+ */
+public class FileIndex
+{
+    private static final int MAGIC = 0x46494458; // "FIDX"
+    // 版本2起目录修改时间按纳秒保存
+    private static final int VERSION = 2;
+
+    public static final byte TYPE_FILE = 0;
+    public static final byte TYPE_DIRECTORY = 1;
+    public static final byte TYPE_OTHER = 2;
+    // 条目本身是符号链接，类型、大小和修改时间取自链接目标；指向目录的链接不会被递归进入，避免循环
+    public static final byte FLAG_SYMLINK = 0x10;
+
+    // 索引文件位置
+    private final Path indexFile;
+    // 目录绝对路径 -> 目录条目
+    private final ConcurrentHashMap<String, DirectoryEntry> directories = new ConcurrentHashMap<>();
+
+    private FileIndex(Path indexFile)
+    {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * 从磁盘加载索引，文件不存在时返回空索引
+     */
+    public static FileIndex load(Path indexFile)
+            throws IOException
+    {
+        FileIndex index = new FileIndex(indexFile);
+        if (!Files.exists(indexFile)) {
+            return index;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                System.out.println("索引文件格式不匹配，将重新建立: " + indexFile);
+                return index;
+            }
+            int dirCount = in.readInt();
+            for (int i = 0; i < dirCount; i++) {
+                String path = in.readUTF();
+                long mtime = in.readLong();
+                int size = in.readInt();
+                DirectoryEntry entry = new DirectoryEntry(mtime, size);
+                for (int j = 0; j < size; j++) {
+                    entry.names[j] = in.readUTF();
+                    entry.types[j] = in.readByte();
+                    entry.sizes[j] = in.readLong();
+                    entry.mtimes[j] = in.readLong();
+                }
+                index.directories.put(path, entry);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 把索引写回磁盘，先写临时文件再替换，避免中途失败损坏旧索引
+     */
+    public void save()
+            throws IOException
+    {
+        Path parent = indexFile.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            // 先取快照，保证写出的目录数和实际条目一致
+            List<Map.Entry<String, DirectoryEntry>> snapshot = new ArrayList<>(directories.entrySet());
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, DirectoryEntry> item : snapshot) {
+                DirectoryEntry entry = item.getValue();
+                out.writeUTF(item.getKey());
+                out.writeLong(entry.mtime);
+                out.writeInt(entry.names.length);
+                for (int j = 0; j < entry.names.length; j++) {
+                    out.writeUTF(entry.names[j]);
+                    out.writeByte(entry.types[j]);
+                    out.writeLong(entry.sizes[j]);
+                    out.writeLong(entry.mtimes[j]);
+                }
+            }
+        }
+        Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 增量刷新root下的索引
+     *
+     * @param root 根目录
+     * @param threads 并行线程数
+     * @return 本次刷新的统计
+     */
+    public RefreshStats refresh(File root, int threads)
+    {
+        return refresh(root, threads, null);
+    }
+
+    /**
+     * 增量刷新root下的索引，并对遍历到的每个目录（包括复用的目录）调用listener
+     *
+     * @param root 根目录
+     * @param threads 并行线程数
+     * @param listener 目录回调，可以为null
+     * @return 本次刷新的统计
+     */
+    public RefreshStats refresh(File root, int threads, ConcurrentFileSearcher.DirectoryListener listener)
+    {
+        RefreshStats stats = new RefreshStats();
+        Set<String> visited = ConcurrentHashMap.newKeySet();
+        String rootPath = root.getAbsolutePath();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new RefreshTask(new File(rootPath), stats, visited, listener));
+        }
+        finally {
+            pool.shutdown();
+        }
+        // 清理已经不存在的目录
+        directories.keySet().removeIf(path -> {
+            if (isUnder(path, rootPath) && !visited.contains(path)) {
+                stats.dirsRemoved.increment();
+                return true;
+            }
+            return false;
+        });
+        return stats;
+    }
+
+    /**
+     * 在索引上执行查询，只对非目录条目求值，和ConcurrentFileSearcher.search()一致
+     */
+    public List<File> query(File root, ConcurrentFileSearcher.SearchCriteria criteria)
+    {
+        String rootPath = root.getAbsolutePath();
+        ConcurrentLinkedQueue<File> matched = new ConcurrentLinkedQueue<>();
+        // 并行遍历所有目录条目，并行度阈值1表示尽量拆分
+        directories.forEach(1, (path, entry) -> {
+            if (!isUnder(path, rootPath)) {
+                return;
+            }
+            for (int i = 0; i < entry.names.length; i++) {
+                if ((entry.types[i] & ~FLAG_SYMLINK) == TYPE_DIRECTORY) {
+                    continue;
+                }
+                IndexedFile file = new IndexedFile(path, entry, i);
+                if (criteria.matches(file)) {
+                    matched.add(file);
+                }
+            }
+        });
+        return new ArrayList<>(matched);
+    }
+
+    /**
+     * 索引中的目录数量
+     */
+    public int getDirectoryCount()
+    {
+        return directories.size();
+    }
+
+    /**
+     * 索引中的条目总数
+     */
+    public long getEntryCount()
+    {
+        long total = 0;
+        for (DirectoryEntry entry : directories.values()) {
+            total += entry.names.length;
+        }
+        return total;
+    }
+
+    /**
+     * 读取单个目录的当前内容并写入索引，返回新条目
+     */
+    private DirectoryEntry scanDirectory(Path dir, long mtime, LongAdder statCount)
+            throws IOException
+    {
+        List<String> names = new ArrayList<>();
+        List<BasicFileAttributes> attributes = new ArrayList<>();
+        List<Boolean> links = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path child : stream) {
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    statCount.increment();
+                    boolean link = attrs.isSymbolicLink();
+                    if (link) {
+                        // 和File.length()等方法一样跟随链接取目标属性，悬空链接保留链接自身的属性
+                        try {
+                            attrs = Files.readAttributes(child, BasicFileAttributes.class);
+                            statCount.increment();
+                        }
+                        catch (IOException e) {
+                            // 悬空链接
+                        }
+                    }
+                    names.add(child.getFileName().toString());
+                    attributes.add(attrs);
+                    links.add(link);
+                }
+                catch (NoSuchFileException e) {
+                    // 列出后被删除，忽略
+                }
+            }
+        }
+        DirectoryEntry entry = new DirectoryEntry(mtime, names.size());
+        for (int i = 0; i < names.size(); i++) {
+            BasicFileAttributes attrs = attributes.get(i);
+            entry.names[i] = names.get(i);
+            entry.types[i] = typeOf(attrs, links.get(i));
+            entry.sizes[i] = attrs.size();
+            entry.mtimes[i] = attrs.lastModifiedTime().toMillis();
+        }
+        directories.put(dir.toString(), entry);
+        return entry;
+    }
+
+    /**
+     * 新增或更新目录中的单个条目，目录不在索引中时忽略（由重新扫描补全）
+     *
+     * @param dirMtime 目录当前的修改时间，记录下来避免下次刷新时重复扫描
+     * @param attrs 条目属性，为null表示条目已删除
+     */
+    void applyChange(Path dir, long dirMtime, String name, BasicFileAttributes attrs, boolean symlink)
+    {
+        directories.computeIfPresent(dir.toString(), (path, old) -> {
+            int index = -1;
+            for (int i = 0; i < old.names.length; i++) {
+                if (old.names[i].equals(name)) {
+                    index = i;
+                    break;
+                }
+            }
+            if (attrs == null) {
+                return index < 0 ? old.withMtime(dirMtime) : old.without(index, dirMtime);
+            }
+            return old.with(index, name, typeOf(attrs, symlink), attrs.size(),
+                    attrs.lastModifiedTime().toMillis(), dirMtime);
+        });
+    }
+
+    /**
+     * 删除path及其下所有目录的索引
+     */
+    void removeTree(String path)
+    {
+        directories.keySet().removeIf(key -> isUnder(key, path));
+    }
+
+    /**
+     * 让目录在下次刷新时必定重新列出
+     */
+    void invalidate(String path)
+    {
+        directories.computeIfPresent(path, (key, entry) -> entry.withMtime(-1));
+    }
+
+    /**
+     * 目录在索引中记录的修改时间，不在索引中返回-1
+     */
+    long getDirectoryMtime(String path)
+    {
+        DirectoryEntry entry = directories.get(path);
+        return entry == null ? -1 : entry.mtime;
+    }
+
+    /**
+     * 目录的修改时间（纳秒，精度取决于文件系统），无法访问时返回0
+     * File.lastModified()在JDK 8上只精确到秒，同一秒内的两次修改会被当成没有变化。
+     */
+    static long directoryMtime(Path dir)
+    {
+        try {
+            return Files.getLastModifiedTime(dir).to(TimeUnit.NANOSECONDS);
+        }
+        catch (IOException e) {
+            return 0L;
+        }
+    }
+
+    static byte typeOf(BasicFileAttributes attrs, boolean symlink)
+    {
+        byte flag = symlink ? FLAG_SYMLINK : 0;
+        if (attrs.isDirectory()) {
+            return (byte) (TYPE_DIRECTORY | flag);
+        }
+        return (byte) ((attrs.isRegularFile() ? TYPE_FILE : TYPE_OTHER) | flag);
+    }
+
+    static boolean isUnder(String path, String root)
+    {
+        if (!path.startsWith(root)) {
+            return false;
+        }
+        return path.length() == root.length()
+                || root.endsWith(File.separator)
+                || path.charAt(root.length()) == File.separatorChar;
+    }
+
+    /**
+     * 刷新单个目录的ForkJoin任务
+     */
+    private class RefreshTask
+            extends RecursiveAction
+    {
+        private final File dir;
+        private final RefreshStats stats;
+        private final Set<String> visited;
+        private final ConcurrentFileSearcher.DirectoryListener listener;
+
+        RefreshTask(File dir, RefreshStats stats, Set<String> visited, ConcurrentFileSearcher.DirectoryListener listener)
+        {
+            this.dir = dir;
+            this.stats = stats;
+            this.visited = visited;
+            this.listener = listener;
+        }
+
+        @Override
+        protected void compute()
+        {
+            String path = dir.getPath();
+            // 每个目录只做一次stat，读取修改时间
+            long mtime = directoryMtime(dir.toPath());
+            stats.statCalls.increment();
+            if (mtime == 0L) {
+                return; // 目录已不存在或无法访问
+            }
+            visited.add(path);
+            if (listener != null) {
+                listener.onDirectory(dir);
+            }
+            DirectoryEntry entry = directories.get(path);
+            if (entry != null && entry.mtime == mtime) {
+                stats.dirsReused.increment();
+            }
+            else {
+                try {
+                    entry = scanDirectory(dir.toPath(), mtime, stats.statCalls);
+                    stats.dirsScanned.increment();
+                }
+                catch (IOException e) {
+                    directories.remove(path);
+                    return;
+                }
+            }
+            List<RefreshTask> subTasks = new ArrayList<>();
+            for (int i = 0; i < entry.names.length; i++) {
+                if (entry.types[i] == TYPE_DIRECTORY) {
+                    RefreshTask task = new RefreshTask(new File(dir, entry.names[i]), stats, visited, listener);
+                    task.fork();
+                    subTasks.add(task);
+                }
+            }
+            for (int i = subTasks.size() - 1; i >= 0; i--) {
+                subTasks.get(i).join();
+            }
+        }
+    }
+
+    /**
+     * 单个目录在索引中的内容，用并行数组存放以节省内存
+     */
+    static class DirectoryEntry
+    {
+        // 目录自身的修改时间（纳秒），条目的mtimes仍按毫秒保存
+        final long mtime;
+        final String[] names;
+        final byte[] types;
+        final long[] sizes;
+        final long[] mtimes;
+
+        DirectoryEntry(long mtime, int size)
+        {
+            this.mtime = mtime;
+            this.names = new String[size];
+            this.types = new byte[size];
+            this.sizes = new long[size];
+            this.mtimes = new long[size];
+        }
+
+        private DirectoryEntry(long mtime, String[] names, byte[] types, long[] sizes, long[] mtimes)
+        {
+            this.mtime = mtime;
+            this.names = names;
+            this.types = types;
+            this.sizes = sizes;
+            this.mtimes = mtimes;
+        }
+
+        DirectoryEntry withMtime(long newMtime)
+        {
+            return new DirectoryEntry(newMtime, names, types, sizes, mtimes);
+        }
+
+        /**
+         * 写时复制：返回替换（index >= 0）或追加（index < 0）一个条目后的新对象
+         */
+        DirectoryEntry with(int index, String name, byte type, long size, long entryMtime, long newMtime)
+        {
+            int length = index < 0 ? names.length + 1 : names.length;
+            int target = index < 0 ? names.length : index;
+            DirectoryEntry copy = new DirectoryEntry(newMtime,
+                    Arrays.copyOf(names, length), Arrays.copyOf(types, length),
+                    Arrays.copyOf(sizes, length), Arrays.copyOf(mtimes, length));
+            copy.names[target] = name;
+            copy.types[target] = type;
+            copy.sizes[target] = size;
+            copy.mtimes[target] = entryMtime;
+            return copy;
+        }
+
+        /**
+         * 写时复制：返回删除一个条目后的新对象，最后一个条目移到被删除的位置
+         */
+        DirectoryEntry without(int index, long newMtime)
+        {
+            int last = names.length - 1;
+            DirectoryEntry copy = new DirectoryEntry(newMtime,
+                    Arrays.copyOf(names, last), Arrays.copyOf(types, last),
+                    Arrays.copyOf(sizes, last), Arrays.copyOf(mtimes, last));
+            if (index != last) {
+                copy.names[index] = names[last];
+                copy.types[index] = types[last];
+                copy.sizes[index] = sizes[last];
+                copy.mtimes[index] = mtimes[last];
+            }
+            return copy;
+        }
+    }
+
+    /**
+     * 由索引数据支撑的File，常用属性方法不访问文件系统
+     */
+    public static class IndexedFile
+            extends File
+    {
+        private final byte type;
+        private final long size;
+        private final long mtime;
+
+        IndexedFile(String parent, DirectoryEntry entry, int i)
+        {
+            super(parent, entry.names[i]);
+            this.type = entry.types[i];
+            this.size = entry.sizes[i];
+            this.mtime = entry.mtimes[i];
+        }
+
+        @Override
+        public long length()
+        {
+            return size;
+        }
+
+        @Override
+        public long lastModified()
+        {
+            return mtime;
+        }
+
+        @Override
+        public boolean isDirectory()
+        {
+            return (type & ~FLAG_SYMLINK) == TYPE_DIRECTORY;
+        }
+
+        @Override
+        public boolean isFile()
+        {
+            return (type & ~FLAG_SYMLINK) == TYPE_FILE;
+        }
+
+        public boolean isSymbolicLink()
+        {
+            return (type & FLAG_SYMLINK) != 0;
+        }
+
+        @Override
+        public boolean exists()
+        {
+            return true;
+        }
+
+        public byte getType()
+        {
+            return type;
+        }
+    }
+
+    /**
+     * 一次刷新的统计
+     */
+    public static class RefreshStats
+    {
+        final LongAdder dirsScanned = new LongAdder();
+        final LongAdder dirsReused = new LongAdder();
+        final LongAdder dirsRemoved = new LongAdder();
+        final LongAdder statCalls = new LongAdder();
+
+        public long getDirsScanned()
+        {
+            return dirsScanned.sum();
+        }
+
+        public long getDirsReused()
+        {
+            return dirsReused.sum();
+        }
+
+        public long getDirsRemoved()
+        {
+            return dirsRemoved.sum();
+        }
+
+        public long getStatCalls()
+        {
+            return statCalls.sum();
+        }
+
+        @Override
+        public String toString()
+        {
+            return "重新扫描目录: " + getDirsScanned() + ", 复用目录: " + getDirsReused()
+                    + ", 删除目录: " + getDirsRemoved() + ", stat次数: " + getStatCalls();
+        }
+    }
+}
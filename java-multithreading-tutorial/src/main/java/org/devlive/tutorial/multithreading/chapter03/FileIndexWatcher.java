@@ -0,0 +1,319 @@
+package org.devlive.tutorial.multithreading.chapter03;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于WatchService的文件索引实时维护
+ * ConcurrentFileSearcher或FileIndex.refresh()每发现一个目录就交给onDirectory()，
+ * 注册线程把目录注册到WatchService；事件线程把创建/修改/删除事件逐条应用到索引上，
+ * 事件队列溢出（OVERFLOW）时对该目录做一次定向的增量刷新。
+ * 目录注册和重新扫描都经过令牌桶限速，避免短时间内大量系统调用压垮文件系统。
+ */
+public class FileIndexWatcher
+        implements ConcurrentFileSearcher.DirectoryListener, AutoCloseable
+{
+    private final FileIndex index;
+    private final WatchService watchService;
+    // WatchKey -> 被监听的目录
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+    // 已经注册或等待注册的目录，用于去重
+    private final Set<Path> knownDirs = ConcurrentHashMap.newKeySet();
+    private final LinkedBlockingQueue<Path> pendingRegistrations = new LinkedBlockingQueue<>();
+    // 等待重新扫描的目录，Set去重后再排队
+    private final Set<Path> pendingRescanSet = ConcurrentHashMap.newKeySet();
+    private final LinkedBlockingQueue<Path> pendingRescans = new LinkedBlockingQueue<>();
+
+    private final TokenBucket registrationLimiter;
+    private final TokenBucket rescanLimiter;
+
+    private final Thread registrationThread;
+    private final Thread eventThread;
+    private final Thread rescanThread;
+    private volatile boolean running = false;
+
+    // 统计信息
+    private final AtomicLong registrations = new AtomicLong();
+    private final AtomicLong registrationFailures = new AtomicLong();
+    private final AtomicLong eventsApplied = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+    private final AtomicLong rescans = new AtomicLong();
+
+    /**
+     * @param index 要维护的索引
+     * @param registrationsPerSecond 每秒最多注册的目录数
+     * @param rescansPerSecond 每秒最多重新扫描的目录数
+     */
+    public FileIndexWatcher(FileIndex index, double registrationsPerSecond, double rescansPerSecond)
+            throws IOException
+    {
+        this.index = index;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.registrationLimiter = new TokenBucket(registrationsPerSecond);
+        this.rescanLimiter = new TokenBucket(rescansPerSecond);
+        this.registrationThread = new Thread(this::registrationLoop, "IndexWatcher-Register");
+        this.eventThread = new Thread(this::eventLoop, "IndexWatcher-Events");
+        this.rescanThread = new Thread(this::rescanLoop, "IndexWatcher-Rescan");
+        registrationThread.setDaemon(true);
+        eventThread.setDaemon(true);
+        rescanThread.setDaemon(true);
+    }
+
+    public void start()
+    {
+        running = true;
+        registrationThread.start();
+        eventThread.start();
+        rescanThread.start();
+    }
+
+    /**
+     * 发现目录时调用，只入队不做系统调用，不会拖慢搜索线程
+     */
+    @Override
+    public void onDirectory(File dir)
+    {
+        Path path = dir.toPath().toAbsolutePath();
+        if (knownDirs.add(path)) {
+            pendingRegistrations.offer(path);
+        }
+    }
+
+    private void registrationLoop()
+    {
+        try {
+            while (running) {
+                Path dir = pendingRegistrations.take();
+                registrationLimiter.acquire();
+                try {
+                    WatchKey key = dir.register(watchService,
+                            StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE,
+                            StandardWatchEventKinds.ENTRY_MODIFY);
+                    watchedDirs.put(key, dir);
+                    registrations.incrementAndGet();
+                    // 扫描和注册之间发生的变化收不到事件，修改时间不一致时补扫一次
+                    long indexed = index.getDirectoryMtime(dir.toString());
+                    if (indexed != -1 && indexed != FileIndex.directoryMtime(dir)) {
+                        scheduleRescan(dir);
+                    }
+                }
+                catch (IOException e) {
+                    // 目录已删除或超出系统监听数量上限
+                    knownDirs.remove(dir);
+                    registrationFailures.incrementAndGet();
+                }
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException e) {
+            // 关闭
+        }
+    }
+
+    private void eventLoop()
+    {
+        try {
+            while (running) {
+                WatchKey key = watchService.take();
+                Path dir = watchedDirs.get(key);
+                if (dir == null) {
+                    key.cancel();
+                    continue;
+                }
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        overflows.incrementAndGet();
+                        // 丢失的事件可能已被后续事件掩盖了目录修改时间，强制重新列出该目录
+                        index.invalidate(dir.toString());
+                        scheduleRescan(dir);
+                        continue;
+                    }
+                    applyEvent(dir, event);
+                }
+                if (!key.reset()) {
+                    // 目录已不可访问（通常是被删除了）
+                    watchedDirs.remove(key);
+                    knownDirs.remove(dir);
+                }
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException e) {
+            // 关闭
+        }
+    }
+
+    private void applyEvent(Path dir, WatchEvent<?> event)
+    {
+        Path name = (Path) event.context();
+        Path child = dir.resolve(name);
+        long dirMtime = FileIndex.directoryMtime(dir);
+        BasicFileAttributes attrs = null;
+        boolean symlink = false;
+        try {
+            attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            symlink = attrs.isSymbolicLink();
+            if (symlink) {
+                try {
+                    attrs = Files.readAttributes(child, BasicFileAttributes.class);
+                }
+                catch (IOException e) {
+                    // 悬空链接，保留链接自身的属性
+                }
+            }
+        }
+        catch (IOException e) {
+            // 条目已经不存在，按删除处理
+        }
+
+        if (attrs == null) {
+            index.applyChange(dir, dirMtime, name.toString(), null, false);
+            index.removeTree(child.toString());
+        }
+        else {
+            index.applyChange(dir, dirMtime, name.toString(), attrs, symlink);
+            if (attrs.isDirectory() && !symlink && event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                // 新目录：扫描其内容并注册监听，注册之前创建的文件由扫描补上
+                scheduleRescan(child);
+            }
+        }
+        eventsApplied.incrementAndGet();
+    }
+
+    private void scheduleRescan(Path dir)
+    {
+        if (pendingRescanSet.add(dir)) {
+            pendingRescans.offer(dir);
+        }
+    }
+
+    private void rescanLoop()
+    {
+        try {
+            while (running) {
+                Path dir = pendingRescans.take();
+                rescanLimiter.acquire();
+                pendingRescanSet.remove(dir);
+                if (Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+                    // 增量刷新只会重新列出修改时间变化的目录，新发现的目录会回调onDirectory注册监听
+                    index.refresh(dir.toFile(), 1, this);
+                    rescans.incrementAndGet();
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            // 关闭
+        }
+    }
+
+    public int getWatchedDirectoryCount()
+    {
+        return watchedDirs.size();
+    }
+
+    /**
+     * 打印统计信息
+     */
+    public void printStatistics()
+    {
+        System.out.println("=== 索引监听统计 ===");
+        System.out.println("监听目录数: " + watchedDirs.size());
+        System.out.println("等待注册: " + pendingRegistrations.size() + ", 等待重新扫描: " + pendingRescans.size());
+        System.out.println("注册成功: " + registrations.get() + ", 注册失败: " + registrationFailures.get());
+        System.out.println("已应用事件: " + eventsApplied.get() + ", 溢出次数: " + overflows.get()
+                + ", 重新扫描次数: " + rescans.get());
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        running = false;
+        registrationThread.interrupt();
+        rescanThread.interrupt();
+        watchService.close();
+    }
+
+    /**
+     * 简单的令牌桶限速器，桶容量为一秒的配额
+     */
+    private static class TokenBucket
+    {
+        private final double permitsPerNano;
+        private final double capacity;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        TokenBucket(double permitsPerSecond)
+        {
+            if (permitsPerSecond <= 0) {
+                throw new IllegalArgumentException("速率必须大于0");
+            }
+            this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = Math.max(1, permitsPerSecond);
+            this.tokens = capacity;
+        }
+
+        synchronized void acquire()
+                throws InterruptedException
+        {
+            while (true) {
+                long now = System.nanoTime();
+                tokens = Math.min(capacity, tokens + (now - lastRefill) * permitsPerNano);
+                lastRefill = now;
+                if (tokens >= 1) {
+                    tokens -= 1;
+                    return;
+                }
+                // 等到攒够一个令牌
+                TimeUnit.NANOSECONDS.sleep((long) ((1 - tokens) / permitsPerNano) + 1);
+            }
+        }
+    }
+
+    // 示例：建立索引后在目录中增删文件，索引无需重新遍历即可反映变化
+    public static void main(String[] args)
+            throws IOException, InterruptedException
+    {
+        Path root = Files.createTempDirectory("index-watcher");
+        Files.createDirectories(root.resolve("logs"));
+        Files.write(root.resolve("logs/app.log"), new byte[100]);
+
+        FileIndex index = FileIndex.load(root.resolve(".index"));
+        ConcurrentFileSearcher searcher = new ConcurrentFileSearcher(2);
+        try (FileIndexWatcher watcher = new FileIndexWatcher(index, 500, 20)) {
+            watcher.start();
+            searcher.setDirectoryListener(watcher);
+            ConcurrentFileSearcher.SearchCriteria logs = file -> file.getName().endsWith(".log");
+            System.out.println("初始结果: " + searcher.searchWithIndex(root.toFile(), logs, index));
+
+            TimeUnit.MILLISECONDS.sleep(500);
+            Files.write(root.resolve("logs/error.log"), new byte[2048]);
+            Files.createDirectories(root.resolve("logs/archive"));
+            Files.write(root.resolve("logs/archive/old.log"), new byte[10]);
+            Files.delete(root.resolve("logs/app.log"));
+
+            // WatchService的事件有延迟，某些平台上是轮询实现，多等一会儿
+            TimeUnit.SECONDS.sleep(3);
+            for (File file : index.query(root.toFile(), logs)) {
+                System.out.println("索引中: " + file + " (" + file.length() + " 字节)");
+            }
+            watcher.printStatistics();
+        }
+    }
+}
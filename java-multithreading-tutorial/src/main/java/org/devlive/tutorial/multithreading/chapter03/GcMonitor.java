@@ -0,0 +1,417 @@
+package org.devlive.tutorial.multithreading.chapter03;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import org.devlive.tutorial.multithreading.chapter02.LatencyHistogram;
+import org.devlive.tutorial.multithreading.chapter02.MetricsRegistry;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于GC通知的内存监控
+ * 订阅每个GarbageCollectorMXBean的回收通知，每次GC都会被记录下来，不会像定时轮询那样漏掉短时间内的GC。
+ * 根据相邻两次GC之间堆使用量的变化推算分配速率，根据老年代在GC前后的增长推算晋升速率，
+ * 停顿时间或分配速率超出预算时发出告警。
+ * <p>
+ * 通知在JMX的守护线程中回调，这里只做简单的计算和记录。
+ */
+public class GcMonitor
+        implements AutoCloseable
+{
+    private static final long ALERT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final long pauseBudgetMillis;
+    private final long allocationBudgetBytesPerSecond;
+    private volatile AlertListener alertListener = (message, event) -> System.out.println("[GC告警] " + message);
+
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+    private final NotificationListener listener = this::handleNotification;
+    private final Set<String> heapPools = new HashSet<>();
+    private final Set<String> oldPools = new HashSet<>();
+
+    // 最近的GC事件
+    private final GcEvent[] history;
+    private int historyNext = 0;
+    private int historyCount = 0;
+
+    // 上一次GC结束时的堆使用量和时间（JVM启动后的毫秒数）
+    private long lastHeapAfter = -1;
+    private long lastEndTime = -1;
+
+    private final LatencyHistogram pauseHistogram = new LatencyHistogram("gc_pause");
+    private final AtomicLong gcCount = new AtomicLong();
+    private final AtomicLong pauseCount = new AtomicLong();
+    private final AtomicLong totalPauseMillis = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final AtomicLong promotedBytes = new AtomicLong();
+    private final AtomicLong alertCount = new AtomicLong();
+    private volatile double allocationRate;
+    private volatile double promotionRate;
+    private volatile long lastPauseMillis;
+    // 最近一次告警的时间，同一类告警至少间隔1秒，避免分配高峰期间每次年轻代GC都告警
+    private long lastPauseAlert;
+    private long lastAllocationAlert;
+    private final AtomicLong suppressedAlerts = new AtomicLong();
+
+    /**
+     * @param pauseBudgetMillis 单次停顿超过该值时告警
+     * @param allocationBudgetBytesPerSecond 两次GC之间的分配速率超过该值时告警
+     * @param historySize 保留的GC事件数量
+     */
+    public GcMonitor(long pauseBudgetMillis, long allocationBudgetBytesPerSecond, int historySize)
+    {
+        this.pauseBudgetMillis = pauseBudgetMillis;
+        this.allocationBudgetBytesPerSecond = allocationBudgetBytesPerSecond;
+        this.history = new GcEvent[historySize];
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapPools.add(pool.getName());
+                // Serial/Parallel/CMS/G1的老年代分别叫Tenured Gen、PS Old Gen、CMS Old Gen、G1 Old Gen
+                if (pool.getName().contains("Old") || pool.getName().contains("Tenured")) {
+                    oldPools.add(pool.getName());
+                }
+            }
+        }
+    }
+
+    public void setAlertListener(AlertListener alertListener)
+    {
+        this.alertListener = alertListener;
+    }
+
+    /**
+     * 开始订阅GC通知
+     */
+    public synchronized void start()
+    {
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) {
+                NotificationEmitter emitter = (NotificationEmitter) gc;
+                emitter.addNotificationListener(listener,
+                        notification -> GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION
+                                .equals(notification.getType()),
+                        null);
+                emitters.add(emitter);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(listener);
+            }
+            catch (ListenerNotFoundException e) {
+                // 已经移除
+            }
+        }
+        emitters.clear();
+    }
+
+    private void handleNotification(Notification notification, Object handback)
+    {
+        GarbageCollectionNotificationInfo info =
+                GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        GcEvent event = record(info);
+        if (event.isPause() && event.getDurationMillis() > pauseBudgetMillis && allowAlert(true)) {
+            alert(String.format("%s 停顿 %d ms，超过预算 %d ms，原因: %s",
+                    event.getGcName(), event.getDurationMillis(), pauseBudgetMillis, event.getCause()), event);
+        }
+        if (event.getAllocationRate() > allocationBudgetBytesPerSecond && allowAlert(false)) {
+            alert(String.format("分配速率 %.1f MB/s，超过预算 %.1f MB/s",
+                    event.getAllocationRate() / (1024.0 * 1024.0),
+                    allocationBudgetBytesPerSecond / (1024.0 * 1024.0)), event);
+        }
+    }
+
+    private synchronized GcEvent record(GarbageCollectionNotificationInfo info)
+    {
+        GcInfo gcInfo = info.getGcInfo();
+        Map<String, MemoryUsage> before = gcInfo.getMemoryUsageBeforeGc();
+        Map<String, MemoryUsage> after = gcInfo.getMemoryUsageAfterGc();
+        Map<String, long[]> pools = new LinkedHashMap<>();
+        long heapBefore = 0;
+        long heapAfter = 0;
+        long promoted = 0;
+        for (Map.Entry<String, MemoryUsage> entry : before.entrySet()) {
+            MemoryUsage usageAfter = after.get(entry.getKey());
+            long used = entry.getValue().getUsed();
+            long usedAfter = usageAfter == null ? used : usageAfter.getUsed();
+            pools.put(entry.getKey(), new long[] {used, usedAfter});
+            if (heapPools.contains(entry.getKey())) {
+                heapBefore += used;
+                heapAfter += usedAfter;
+            }
+            if (oldPools.contains(entry.getKey()) && usedAfter > used) {
+                promoted += usedAfter - used;
+            }
+        }
+
+        // 两次GC之间新增的堆使用量即为这段时间的分配量（并发回收器下是近似值）
+        long allocated = lastHeapAfter < 0 ? 0 : Math.max(0, heapBefore - lastHeapAfter);
+        long intervalMillis = lastEndTime < 0 ? 0 : Math.max(1, gcInfo.getStartTime() - lastEndTime);
+        lastHeapAfter = heapAfter;
+        lastEndTime = gcInfo.getEndTime();
+
+        double allocRate = intervalMillis == 0 ? 0 : allocated * 1000.0 / intervalMillis;
+        double promoteRate = intervalMillis == 0 ? 0 : promoted * 1000.0 / intervalMillis;
+        boolean pause = !info.getGcAction().contains("concurrent") && !info.getGcName().contains("Concurrent")
+                && !info.getGcName().contains("Cycles");
+        GcEvent event = new GcEvent(info.getGcName(), info.getGcAction(), info.getGcCause(), pause,
+                gcInfo.getStartTime(), gcInfo.getDuration(), Collections.unmodifiableMap(pools),
+                allocated, promoted, allocRate, promoteRate);
+
+        gcCount.incrementAndGet();
+        allocatedBytes.addAndGet(allocated);
+        promotedBytes.addAndGet(promoted);
+        if (intervalMillis > 0) {
+            allocationRate = allocRate;
+            promotionRate = promoteRate;
+        }
+        if (pause) {
+            pauseCount.incrementAndGet();
+            totalPauseMillis.addAndGet(gcInfo.getDuration());
+            pauseHistogram.record(TimeUnit.MILLISECONDS.toNanos(gcInfo.getDuration()));
+            lastPauseMillis = gcInfo.getDuration();
+        }
+        history[historyNext] = event;
+        historyNext = (historyNext + 1) % history.length;
+        historyCount = Math.min(historyCount + 1, history.length);
+        return event;
+    }
+
+    private synchronized boolean allowAlert(boolean pause)
+    {
+        long now = System.nanoTime();
+        long last = pause ? lastPauseAlert : lastAllocationAlert;
+        if (last != 0 && now - last < ALERT_INTERVAL_NANOS) {
+            suppressedAlerts.incrementAndGet();
+            return false;
+        }
+        if (pause) {
+            lastPauseAlert = now;
+        }
+        else {
+            lastAllocationAlert = now;
+        }
+        return true;
+    }
+
+    private void alert(String message, GcEvent event)
+    {
+        alertCount.incrementAndGet();
+        alertListener.onAlert(message, event);
+    }
+
+    /**
+     * 获取最近的GC事件，按时间从旧到新排列
+     */
+    public synchronized List<GcEvent> getHistory()
+    {
+        List<GcEvent> result = new ArrayList<>(historyCount);
+        int start = (historyNext - historyCount + history.length) % history.length;
+        for (int i = 0; i < historyCount; i++) {
+            result.add(history[(start + i) % history.length]);
+        }
+        return result;
+    }
+
+    public long getGcCount()
+    {
+        return gcCount.get();
+    }
+
+    public long getTotalPauseMillis()
+    {
+        return totalPauseMillis.get();
+    }
+
+    public double getAllocationRate()
+    {
+        return allocationRate;
+    }
+
+    public double getPromotionRate()
+    {
+        return promotionRate;
+    }
+
+    public LatencyHistogram.Snapshot getPauseSnapshot()
+    {
+        return pauseHistogram.snapshot();
+    }
+
+    /**
+     * 把GC统计注册为指标
+     *
+     * @param prefix 指标名前缀，例如 jvm_gc
+     */
+    public void registerMetrics(MetricsRegistry registry, String prefix)
+    {
+        registry.counter(prefix + "_collections_total", "GC次数（包括并发周期）", gcCount::get);
+        registry.counter(prefix + "_pause_seconds_total", "累计停顿时间", () -> totalPauseMillis.get() / 1000.0);
+        registry.histogram(prefix + "_pause_seconds", "单次停顿时间", pauseHistogram);
+        registry.gauge(prefix + "_last_pause_seconds", "最近一次停顿时间", () -> lastPauseMillis / 1000.0);
+        registry.counter(prefix + "_allocated_bytes_total", "推算的累计分配量", allocatedBytes::get);
+        registry.counter(prefix + "_promoted_bytes_total", "推算的累计晋升量", promotedBytes::get);
+        registry.gauge(prefix + "_allocation_rate_bytes", "最近两次GC之间的分配速率（字节/秒）", () -> allocationRate);
+        registry.gauge(prefix + "_promotion_rate_bytes", "最近一次GC的晋升速率（字节/秒）", () -> promotionRate);
+        registry.counter(prefix + "_alerts_total", "超出预算的告警次数", alertCount::get);
+    }
+
+    /**
+     * 打印汇总信息
+     */
+    public void printSummary()
+    {
+        System.out.println("=== GC监控汇总 ===");
+        System.out.println("GC次数: " + gcCount.get() + ", 停顿次数: " + pauseCount.get()
+                + ", 累计停顿: " + totalPauseMillis.get() + " ms, 告警: " + alertCount.get()
+                + " (另有 " + suppressedAlerts.get() + " 次被合并)");
+        System.out.printf("分配速率: %.1f MB/s, 晋升速率: %.1f MB/s, 累计分配: %.1f MB, 累计晋升: %.1f MB%n",
+                allocationRate / (1024.0 * 1024.0), promotionRate / (1024.0 * 1024.0),
+                allocatedBytes.get() / (1024.0 * 1024.0), promotedBytes.get() / (1024.0 * 1024.0));
+        System.out.println(pauseHistogram.snapshot());
+    }
+
+    /**
+     * 告警回调，在JMX通知线程中调用
+     */
+    public interface AlertListener
+    {
+        void onAlert(String message, GcEvent event);
+    }
+
+    /**
+     * 一次GC的记录
+     */
+    public static class GcEvent
+    {
+        private final String gcName;
+        private final String action;
+        private final String cause;
+        private final boolean pause;
+        private final long startTime;
+        private final long durationMillis;
+        // 内存池名称 -> [GC前使用量, GC后使用量]
+        private final Map<String, long[]> poolUsage;
+        private final long allocatedBytes;
+        private final long promotedBytes;
+        private final double allocationRate;
+        private final double promotionRate;
+
+        GcEvent(String gcName, String action, String cause, boolean pause, long startTime, long durationMillis,
+                Map<String, long[]> poolUsage, long allocatedBytes, long promotedBytes,
+                double allocationRate, double promotionRate)
+        {
+            this.gcName = gcName;
+            this.action = action;
+            this.cause = cause;
+            this.pause = pause;
+            this.startTime = startTime;
+            this.durationMillis = durationMillis;
+            this.poolUsage = poolUsage;
+            this.allocatedBytes = allocatedBytes;
+            this.promotedBytes = promotedBytes;
+            this.allocationRate = allocationRate;
+            this.promotionRate = promotionRate;
+        }
+
+        public String getGcName()
+        {
+            return gcName;
+        }
+
+        public String getAction()
+        {
+            return action;
+        }
+
+        public String getCause()
+        {
+            return cause;
+        }
+
+        /**
+         * 是否是停顿，并发回收周期的时长不计入停顿
+         */
+        public boolean isPause()
+        {
+            return pause;
+        }
+
+        /**
+         * JVM启动后的毫秒数
+         */
+        public long getStartTime()
+        {
+            return startTime;
+        }
+
+        public long getDurationMillis()
+        {
+            return durationMillis;
+        }
+
+        public Map<String, long[]> getPoolUsage()
+        {
+            return poolUsage;
+        }
+
+        public long getAllocatedBytes()
+        {
+            return allocatedBytes;
+        }
+
+        public long getPromotedBytes()
+        {
+            return promotedBytes;
+        }
+
+        public double getAllocationRate()
+        {
+            return allocationRate;
+        }
+
+        public double getPromotionRate()
+        {
+            return promotionRate;
+        }
+
+        @Override
+        public String toString()
+        {
+            StringBuilder builder = new StringBuilder();
+            builder.append(String.format("[%d ms] %s (%s) 原因: %s 耗时: %d ms 分配: %.1f MB 晋升: %.1f MB",
+                    startTime, gcName, action, cause, durationMillis,
+                    allocatedBytes / (1024.0 * 1024.0), promotedBytes / (1024.0 * 1024.0)));
+            poolUsage.forEach((pool, usage) -> {
+                if (usage[0] != usage[1]) {
+                    builder.append(String.format("%n    %s: %.1f MB -> %.1f MB", pool,
+                            usage[0] / (1024.0 * 1024.0), usage[1] / (1024.0 * 1024.0)));
+                }
+            });
+            return builder.toString();
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package org.devlive.tutorial.multithreading.chapter04;
 
+import org.devlive.tutorial.multithreading.chapter02.LatencyHistogram;
+
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -45,6 +47,10 @@ public class InventoryManagementDemo
     private static void testInventory(Object inventory, String[] products)
             throws InterruptedException
     {
+        // 按操作类型记录单次调用的耗时
+        LatencyHistogram buyLatency = new LatencyHistogram("购买");
+        LatencyHistogram restockLatency = new LatencyHistogram("补货");
+        LatencyHistogram queryLatency = new LatencyHistogram("查询");
         // 创建多个购买线程（减少库存）
         Thread[] buyThreads = new Thread[10];
         for (int i = 0; i < buyThreads.length; i++) {
@@ -52,6 +58,7 @@ public class InventoryManagementDemo
                 for (int j = 0; j < 100; j++) {
                     String product = products[j % products.length];
                     boolean success = false;
+                    long start = System.nanoTime();
                     if (inventory instanceof UnsafeInventory) {
                         success = ((UnsafeInventory) inventory).decreaseStock(product, 1);
                     }
@@ -64,6 +71,7 @@ public class InventoryManagementDemo
                     else if (inventory instanceof ReadWriteLockInventory) {
                         success = ((ReadWriteLockInventory) inventory).decreaseStock(product, 1);
                     }
+                    buyLatency.recordSince(start);
                     if (!success) {
                         System.out.println("购买失败: " + product + " - 库存不足");
                     }
@@ -76,6 +84,7 @@ public class InventoryManagementDemo
             restockThreads[i] = new Thread(() -> {
                 for (int j = 0; j < 40; j++) {
                     String product = products[j % products.length];
+                    long start = System.nanoTime();
                     if (inventory instanceof UnsafeInventory) {
                         ((UnsafeInventory) inventory).updateStock(product, 5);
                     }
@@ -88,6 +97,7 @@ public class InventoryManagementDemo
                     else if (inventory instanceof ReadWriteLockInventory) {
                         ((ReadWriteLockInventory) inventory).updateStock(product, 5);
                     }
+                    restockLatency.recordSince(start);
                 }
             });
         }
@@ -98,6 +108,7 @@ public class InventoryManagementDemo
                 for (int j = 0; j < 50; j++) {
                     String product = products[j % products.length];
                     int stock = 0;
+                    long start = System.nanoTime();
                     if (inventory instanceof UnsafeInventory) {
                         stock = ((UnsafeInventory) inventory).getStock(product);
                     }
@@ -110,6 +121,7 @@ public class InventoryManagementDemo
                     else if (inventory instanceof ReadWriteLockInventory) {
                         stock = ((ReadWriteLockInventory) inventory).getStock(product);
                     }
+                    queryLatency.recordSince(start);
                     // 不打印库存信息，避免输出过多
                 }
             });
@@ -140,6 +152,9 @@ public class InventoryManagementDemo
         long endTime = System.currentTimeMillis();
         // 输出最终库存和执行时间
         System.out.println("执行时间: " + (endTime - startTime) + "ms");
+        System.out.println(buyLatency.snapshot());
+        System.out.println(restockLatency.snapshot());
+        System.out.println(queryLatency.snapshot());
         System.out.println("最终库存:");
         Map<String, Integer> finalStock = null;
         if (inventory instanceof UnsafeInventory) {
@@ -0,0 +1,410 @@
+package org.devlive.tutorial.multithreading.chapter07;
+
+import org.devlive.tutorial.multithreading.chapter02.MetricsRegistry;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按大小分级复用byte[]和char[]临时缓冲区
+ * 长度向上取整到2的幂作为一个大小级别，先从当前线程的缓存中取，取不到再从共享的溢出池中取，
+ * 都没有才新分配。归还时先放回线程缓存，超过单线程上限后放入共享池，共享池也满了就交给GC。
+ * 线程缓存和共享池还共用一个总字节数上限，线程再多缓存的总量也不会超过它；
+ * 每次放入和取出缓存都要更新这个全局计数器。
+ * <p>
+ * 线程缓存放在FastThreadLocal中，FastThreadLocalThread上取缓存只是一次数组访问。
+ * 通过wrap()包装的任务结束时，任务内借出而没有归还的缓冲区会自动归还，
+ * 因此这些缓冲区不能在任务结束后继续使用，也不能交给其他线程保存。
+ * 每个实例占用一个FastThreadLocal下标，应当长期存在而不是频繁创建。
+ */
+public class BufferRecycler
+{
+    private static final int BYTE_ARRAY = 0;
+    private static final int CHAR_ARRAY = 1;
+
+    private final int minShift;
+    private final int classCount;
+    private final long maxBytesPerThread;
+    private final long maxSharedBytes;
+    private final long maxTotalBytes;
+
+    // 下标为 类型 * classCount + 大小级别
+    private final ConcurrentLinkedQueue<Object>[] shared;
+    private final AtomicLong sharedBytes = new AtomicLong();
+    // 线程缓存和共享池中的字节数之和
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final FastThreadLocal<ThreadCache> threadCache = FastThreadLocal.withInitial(this::newThreadCache);
+    private final CopyOnWriteArrayList<ThreadCache> threadCaches = new CopyOnWriteArrayList<>();
+
+    private final LongAdder threadHits = new LongAdder();
+    private final LongAdder sharedHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    // 超过上限或长度不符合大小级别而没有缓存的归还次数
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder autoReleased = new LongAdder();
+
+    /**
+     * 默认缓存1KB到4MB的缓冲区，每个线程最多缓存8MB，共享池最多64MB，总共最多128MB
+     */
+    public BufferRecycler()
+    {
+        this(1024, 4 * 1024 * 1024, 8L * 1024 * 1024, 64L * 1024 * 1024, 128L * 1024 * 1024);
+    }
+
+    /**
+     * @param minSize 最小的大小级别（元素个数），向上取整到2的幂
+     * @param maxSize 最大的大小级别（元素个数），超过的请求直接分配，不缓存
+     * @param maxBytesPerThread 单个线程缓存的字节数上限
+     * @param maxSharedBytes 共享池缓存的字节数上限
+     * @param maxTotalBytes 所有线程缓存与共享池合计的字节数上限
+     */
+    @SuppressWarnings("unchecked")
+    public BufferRecycler(int minSize, int maxSize, long maxBytesPerThread, long maxSharedBytes, long maxTotalBytes)
+    {
+        if (minSize <= 0 || maxSize < minSize || maxSize > 1 << 30) {
+            throw new IllegalArgumentException("大小范围不合法: " + minSize + " - " + maxSize);
+        }
+        this.minShift = shiftFor(minSize);
+        this.classCount = shiftFor(maxSize) - minShift + 1;
+        this.maxBytesPerThread = maxBytesPerThread;
+        this.maxSharedBytes = maxSharedBytes;
+        this.maxTotalBytes = maxTotalBytes;
+        this.shared = new ConcurrentLinkedQueue[2 * classCount];
+        for (int i = 0; i < shared.length; i++) {
+            shared[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    private static int shiftFor(int size)
+    {
+        return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    /**
+     * 借出长度至少为minLength的byte[]，内容是上一次使用留下的数据
+     */
+    public byte[] allocateBytes(int minLength)
+    {
+        return (byte[]) allocate(BYTE_ARRAY, minLength);
+    }
+
+    /**
+     * 借出长度至少为minLength的char[]，内容是上一次使用留下的数据
+     */
+    public char[] allocateChars(int minLength)
+    {
+        return (char[]) allocate(CHAR_ARRAY, minLength);
+    }
+
+    public void release(byte[] buffer)
+    {
+        release(BYTE_ARRAY, buffer, buffer.length);
+    }
+
+    public void release(char[] buffer)
+    {
+        release(CHAR_ARRAY, buffer, buffer.length);
+    }
+
+    private Object allocate(int kind, int minLength)
+    {
+        int sizeClass = Math.max(shiftFor(minLength), minShift) - minShift;
+        if (sizeClass >= classCount) {
+            misses.increment();
+            return newArray(kind, minLength);
+        }
+        int slot = kind * classCount + sizeClass;
+        ThreadCache cache = threadCache.get();
+        Object buffer = cache.poll(slot);
+        if (buffer != null) {
+            threadHits.increment();
+        }
+        else {
+            buffer = shared[slot].poll();
+            if (buffer != null) {
+                sharedBytes.addAndGet(-bytesOf(slot));
+                totalBytes.addAndGet(-bytesOf(slot));
+                sharedHits.increment();
+            }
+            else {
+                misses.increment();
+                buffer = newArray(kind, 1 << (sizeClass + minShift));
+            }
+        }
+        if (cache.scopeDepth > 0) {
+            cache.borrowed.add(buffer);
+        }
+        return buffer;
+    }
+
+    private void release(int kind, Object buffer, int length)
+    {
+        ThreadCache cache = threadCache.get();
+        if (cache.scopeDepth > 0) {
+            cache.forget(buffer);
+        }
+        offer(cache, kind, buffer, length);
+    }
+
+    private void offer(ThreadCache cache, int kind, Object buffer, int length)
+    {
+        // 只缓存长度正好是某个大小级别的数组，其他数组交给GC
+        if (Integer.bitCount(length) != 1 || shiftFor(length) < minShift || shiftFor(length) - minShift >= classCount) {
+            dropped.increment();
+            return;
+        }
+        int slot = kind * classCount + shiftFor(length) - minShift;
+        long bytes = bytesOf(slot);
+        if (cache.offer(slot, buffer, bytes)) {
+            return;
+        }
+        // 先占用共享池和总量的额度，成功后再放入，保证不超过上限
+        if (!reserve(sharedBytes, bytes, maxSharedBytes)) {
+            dropped.increment();
+            return;
+        }
+        if (!reserve(totalBytes, bytes, maxTotalBytes)) {
+            sharedBytes.addAndGet(-bytes);
+            dropped.increment();
+            return;
+        }
+        shared[slot].offer(buffer);
+    }
+
+    /**
+     * 在counter上占用bytes的额度，超过max时不占用并返回false
+     */
+    private static boolean reserve(AtomicLong counter, long bytes, long max)
+    {
+        long current;
+        do {
+            current = counter.get();
+            if (current + bytes > max) {
+                return false;
+            }
+        }
+        while (!counter.compareAndSet(current, current + bytes));
+        return true;
+    }
+
+    private long bytesOf(int slot)
+    {
+        int kind = slot / classCount;
+        long length = 1L << (slot % classCount + minShift);
+        return kind == CHAR_ARRAY ? length * 2 : length;
+    }
+
+    private static Object newArray(int kind, int length)
+    {
+        return kind == CHAR_ARRAY ? new char[length] : new byte[length];
+    }
+
+    private ThreadCache newThreadCache()
+    {
+        ThreadCache cache = new ThreadCache(Thread.currentThread(), 2 * classCount);
+        // 线程结束后它的缓存只被这里引用，新线程注册时顺便清理
+        pruneDeadCaches();
+        threadCaches.add(cache);
+        return cache;
+    }
+
+    private void pruneDeadCaches()
+    {
+        for (ThreadCache cache : threadCaches) {
+            Thread owner = cache.owner.get();
+            // 拥有者已结束，retainedBytes不会再变化，归还它占用的总量额度
+            if ((owner == null || !owner.isAlive()) && threadCaches.remove(cache)) {
+                totalBytes.addAndGet(-cache.retainedBytes);
+            }
+        }
+    }
+
+    /**
+     * 包装任务，任务结束时自动归还任务内借出而未归还的缓冲区
+     */
+    public Runnable wrap(Runnable task)
+    {
+        return () -> {
+            ThreadCache cache = enterScope();
+            try {
+                task.run();
+            }
+            finally {
+                exitScope(cache);
+            }
+        };
+    }
+
+    public <T> Callable<T> wrap(Callable<T> task)
+    {
+        return () -> {
+            ThreadCache cache = enterScope();
+            try {
+                return task.call();
+            }
+            finally {
+                exitScope(cache);
+            }
+        };
+    }
+
+    /**
+     * 包装执行器，提交的每个任务都会自动归还缓冲区
+     */
+    public Executor wrap(Executor executor)
+    {
+        return command -> executor.execute(wrap(command));
+    }
+
+    private ThreadCache enterScope()
+    {
+        ThreadCache cache = threadCache.get();
+        cache.scopeDepth++;
+        return cache;
+    }
+
+    private void exitScope(ThreadCache cache)
+    {
+        // 嵌套的包装只在最外层结束时归还
+        if (--cache.scopeDepth > 0) {
+            return;
+        }
+        ArrayList<Object> borrowed = cache.borrowed;
+        for (int i = borrowed.size() - 1; i >= 0; i--) {
+            Object buffer = borrowed.get(i);
+            if (buffer instanceof byte[]) {
+                offer(cache, BYTE_ARRAY, buffer, ((byte[]) buffer).length);
+            }
+            else {
+                offer(cache, CHAR_ARRAY, buffer, ((char[]) buffer).length);
+            }
+            autoReleased.increment();
+        }
+        borrowed.clear();
+    }
+
+    /**
+     * 从线程缓存或共享池借出的比例
+     */
+    public double getHitRatio()
+    {
+        long hits = threadHits.sum() + sharedHits.sum();
+        long total = hits + misses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * 所有存活线程缓存中的字节数
+     */
+    public long getThreadRetainedBytes()
+    {
+        pruneDeadCaches();
+        long total = 0;
+        for (ThreadCache cache : threadCaches) {
+            total += cache.retainedBytes;
+        }
+        return total;
+    }
+
+    public long getSharedRetainedBytes()
+    {
+        return sharedBytes.get();
+    }
+
+    /**
+     * 线程缓存和共享池合计的字节数，包括尚未清理的已结束线程的缓存
+     */
+    public long getTotalRetainedBytes()
+    {
+        return totalBytes.get();
+    }
+
+    /**
+     * 注册命中率和缓存占用的指标
+     *
+     * @param prefix 指标名前缀，例如 app_buffer
+     */
+    public void registerMetrics(MetricsRegistry registry, String prefix)
+    {
+        registry.counter(prefix + "_thread_hits_total", "从线程缓存借出的次数", threadHits::sum);
+        registry.counter(prefix + "_shared_hits_total", "从共享池借出的次数", sharedHits::sum);
+        registry.counter(prefix + "_misses_total", "新分配缓冲区的次数", misses::sum);
+        registry.counter(prefix + "_dropped_total", "超过上限而交给GC的归还次数", dropped::sum);
+        registry.counter(prefix + "_auto_released_total", "任务结束时自动归还的次数", autoReleased::sum);
+        registry.gauge(prefix + "_hit_ratio", "借出时命中缓存的比例", this::getHitRatio);
+        registry.gauge(prefix + "_thread_retained_bytes", "线程缓存中的字节数", this::getThreadRetainedBytes);
+        registry.gauge(prefix + "_shared_retained_bytes", "共享池中的字节数", this::getSharedRetainedBytes);
+        registry.gauge(prefix + "_retained_bytes", "线程缓存和共享池合计的字节数", this::getTotalRetainedBytes);
+    }
+
+    public void printStatistics()
+    {
+        System.out.printf("缓冲区复用: 线程缓存命中 %d, 共享池命中 %d, 新分配 %d, 丢弃 %d, 自动归还 %d, 命中率 %.1f%%\n",
+                threadHits.sum(), sharedHits.sum(), misses.sum(), dropped.sum(), autoReleased.sum(), getHitRatio() * 100);
+        System.out.printf("缓存占用: 线程缓存 %.1f MB, 共享池 %.1f MB, 合计 %.1f MB\n",
+                getThreadRetainedBytes() / (1024.0 * 1024.0), getSharedRetainedBytes() / (1024.0 * 1024.0),
+                getTotalRetainedBytes() / (1024.0 * 1024.0));
+    }
+
+    /**
+     * 单个线程的缓存，只由拥有者线程修改
+     */
+    private final class ThreadCache
+    {
+        final WeakReference<Thread> owner;
+        final ArrayDeque<Object>[] stacks;
+        // 指标线程会读取
+        volatile long retainedBytes;
+        // 当前所在的包装任务层数和任务内借出的缓冲区
+        int scopeDepth;
+        final ArrayList<Object> borrowed = new ArrayList<>();
+
+        @SuppressWarnings("unchecked")
+        ThreadCache(Thread owner, int slots)
+        {
+            this.owner = new WeakReference<>(owner);
+            this.stacks = new ArrayDeque[slots];
+        }
+
+        Object poll(int slot)
+        {
+            ArrayDeque<Object> stack = stacks[slot];
+            Object buffer = stack == null ? null : stack.pollLast();
+            if (buffer != null) {
+                retainedBytes -= bytesOf(slot);
+                totalBytes.addAndGet(-bytesOf(slot));
+            }
+            return buffer;
+        }
+
+        boolean offer(int slot, Object buffer, long bytes)
+        {
+            if (retainedBytes + bytes > maxBytesPerThread || !reserve(totalBytes, bytes, maxTotalBytes)) {
+                return false;
+            }
+            if (stacks[slot] == null) {
+                stacks[slot] = new ArrayDeque<>();
+            }
+            stacks[slot].addLast(buffer);
+            retainedBytes += bytes;
+            return true;
+        }
+
+        void forget(Object buffer)
+        {
+            for (int i = borrowed.size() - 1; i >= 0; i--) {
+                if (borrowed.get(i) == buffer) {
+                    borrowed.remove(i);
+                    return;
+                }
+            }
+        }
+    }
+}
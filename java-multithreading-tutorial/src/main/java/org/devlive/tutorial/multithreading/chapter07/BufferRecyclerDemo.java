@@ -0,0 +1,85 @@
+package org.devlive.tutorial.multithreading.chapter07;
+
+import org.devlive.tutorial.multithreading.chapter02.MetricsRegistry;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 对比每个任务新分配1MB缓冲区与通过BufferRecycler复用缓冲区的GC次数
+ * 任务内容与ThreadLocalMemoryLeakDemo.executeTask()相同，只是不再把缓冲区放进ThreadLocal
+ */
+public class BufferRecyclerDemo
+{
+    private static final int TASK_COUNT = 2000;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    public static void main(String[] args)
+            throws InterruptedException
+    {
+        ExecutorService executorService = Executors.newFixedThreadPool(3, FastThreadLocalThread.factory("复用线程-"));
+        BufferRecycler recycler = new BufferRecycler();
+        MetricsRegistry registry = new MetricsRegistry();
+        recycler.registerMetrics(registry, "app_buffer");
+
+        System.out.println("=== 每个任务新分配缓冲区 ===");
+        run(executorService, () -> new byte[BUFFER_SIZE]);
+
+        System.out.println("\n=== 通过BufferRecycler复用缓冲区 ===");
+        // 任务只借不还，由包装后的执行器在任务结束时自动归还
+        run(recycler.wrap(executorService), () -> recycler.allocateBytes(BUFFER_SIZE));
+        recycler.printStatistics();
+
+        System.out.println("\n指标输出:");
+        System.out.print(registry.scrape());
+        executorService.shutdown();
+    }
+
+    private static void run(Executor executor, BufferSupplier supplier)
+            throws InterruptedException
+    {
+        CountDownLatch latch = new CountDownLatch(TASK_COUNT);
+        AtomicLong checksum = new AtomicLong();
+        long gcBefore = gcCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < TASK_COUNT; i++) {
+            int taskId = i;
+            executor.execute(() -> {
+                try {
+                    byte[] buffer = supplier.get();
+                    // 模拟使用缓冲区
+                    for (int j = 0; j < buffer.length; j += 4096) {
+                        buffer[j] = (byte) taskId;
+                    }
+                    checksum.addAndGet(buffer[0]);
+                }
+                finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%d 个任务耗时: %d ms, 期间GC次数: %d\n",
+                TASK_COUNT, elapsed / 1_000_000, gcCount() - gcBefore);
+    }
+
+    private static long gcCount()
+    {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private interface BufferSupplier
+    {
+        byte[] get();
+    }
+}
@@ -0,0 +1,318 @@
+package org.devlive.tutorial.multithreading.chapter07;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/**
+ * 缓存最近两秒的"yyyy-MM-dd HH:mm:ss"时间戳格式化/解析器
+ * 日志中的时间戳绝大多数落在同一秒内，因此把这一秒渲染好的19个字符缓存起来，
+ * 命中时只需复制前缀并补上毫秒数字；同时保留上一秒，跨秒时多个线程的时间戳在相邻两秒间交替也不会重建缓存。
+ * <p>
+ * 缓存是一个不可变对象，通过volatile字段整体发布，多线程并发使用不需要加锁也不需要ThreadLocal；
+ * 结果写入调用方提供的char[]或byte[]，命中缓存时不产生任何垃圾。解析同样按分钟缓存时区换算结果。
+ */
+public class CachedTimestampFormatter
+{
+    // "yyyy-MM-dd HH:mm:ss"
+    public static final int LENGTH = 19;
+    // "yyyy-MM-dd HH:mm:ss.SSS"
+    public static final int LENGTH_WITH_MILLIS = 23;
+
+    private final ZoneId zone;
+    // 最新的一秒和它之前的一秒
+    private volatile FormatCache formatCache = new FormatCache(Long.MIN_VALUE, Long.MIN_VALUE, new char[LENGTH], new byte[LENGTH]);
+    private volatile FormatCache previousFormatCache = formatCache;
+    private volatile ParseCache parseCache = new ParseCache(-1, 0);
+
+    public CachedTimestampFormatter()
+    {
+        this(ZoneId.systemDefault());
+    }
+
+    public CachedTimestampFormatter(ZoneId zone)
+    {
+        this.zone = zone;
+    }
+
+    /**
+     * 写入"yyyy-MM-dd HH:mm:ss"
+     *
+     * @return 写入后的下一个位置
+     */
+    public int format(long epochMillis, char[] dst, int offset)
+    {
+        FormatCache cache = cacheFor(Math.floorDiv(epochMillis, 1000));
+        System.arraycopy(cache.chars, 0, dst, offset, LENGTH);
+        return offset + LENGTH;
+    }
+
+    /**
+     * 写入"yyyy-MM-dd HH:mm:ss.SSS"
+     *
+     * @return 写入后的下一个位置
+     */
+    public int formatWithMillis(long epochMillis, char[] dst, int offset)
+    {
+        int end = format(epochMillis, dst, offset);
+        int millis = (int) Math.floorMod(epochMillis, 1000);
+        dst[end] = '.';
+        dst[end + 1] = (char) ('0' + millis / 100);
+        dst[end + 2] = (char) ('0' + millis / 10 % 10);
+        dst[end + 3] = (char) ('0' + millis % 10);
+        return end + 4;
+    }
+
+    /**
+     * 以ASCII写入"yyyy-MM-dd HH:mm:ss"，适合直接写入日志的字节缓冲区
+     */
+    public int format(long epochMillis, byte[] dst, int offset)
+    {
+        FormatCache cache = cacheFor(Math.floorDiv(epochMillis, 1000));
+        System.arraycopy(cache.bytes, 0, dst, offset, LENGTH);
+        return offset + LENGTH;
+    }
+
+    public int formatWithMillis(long epochMillis, byte[] dst, int offset)
+    {
+        int end = format(epochMillis, dst, offset);
+        int millis = (int) Math.floorMod(epochMillis, 1000);
+        dst[end] = '.';
+        dst[end + 1] = (byte) ('0' + millis / 100);
+        dst[end + 2] = (byte) ('0' + millis / 10 % 10);
+        dst[end + 3] = (byte) ('0' + millis % 10);
+        return end + 4;
+    }
+
+    private FormatCache cacheFor(long epochSecond)
+    {
+        FormatCache cache = formatCache;
+        if (cache.epochSecond == epochSecond) {
+            return cache;
+        }
+        FormatCache previous = previousFormatCache;
+        if (previous.epochSecond == epochSecond) {
+            return previous;
+        }
+        // 每秒只在这里查一次偏移；偏移不一定是整分钟（例如Africa/Monrovia曾是-0:44:30），按本地时间判断是否同一分钟
+        ZoneOffset offset = zone.getRules().getOffset(Instant.ofEpochSecond(epochSecond));
+        long localSecond = epochSecond + offset.getTotalSeconds();
+        char[] chars;
+        if (Math.floorDiv(cache.localSecond, 60) == Math.floorDiv(localSecond, 60)) {
+            // 本地时间同一分钟内只有秒数变化
+            chars = cache.chars.clone();
+            int second = (int) Math.floorMod(localSecond, 60);
+            chars[17] = (char) ('0' + second / 10);
+            chars[18] = (char) ('0' + second % 10);
+        }
+        else {
+            chars = render(epochSecond, offset);
+        }
+        byte[] bytes = new byte[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            bytes[i] = (byte) chars[i];
+        }
+        // 并发线程可能同时重建缓存，两个槽位里的任何一个都是完整的结果，谁最后写入都可以
+        FormatCache created = new FormatCache(epochSecond, localSecond, chars, bytes);
+        if (epochSecond > cache.epochSecond) {
+            previousFormatCache = cache;
+            formatCache = created;
+        }
+        else {
+            previousFormatCache = created;
+        }
+        return created;
+    }
+
+    private char[] render(long epochSecond, ZoneOffset offset)
+    {
+        LocalDateTime time = LocalDateTime.ofEpochSecond(epochSecond, 0, offset);
+        if (time.getYear() < 0 || time.getYear() > 9999) {
+            throw new DateTimeException("年份超出四位数范围: " + time.getYear());
+        }
+        char[] chars = new char[LENGTH];
+        writeDigits(chars, 0, time.getYear(), 4);
+        chars[4] = '-';
+        writeDigits(chars, 5, time.getMonthValue(), 2);
+        chars[7] = '-';
+        writeDigits(chars, 8, time.getDayOfMonth(), 2);
+        chars[10] = ' ';
+        writeDigits(chars, 11, time.getHour(), 2);
+        chars[13] = ':';
+        writeDigits(chars, 14, time.getMinute(), 2);
+        chars[16] = ':';
+        writeDigits(chars, 17, time.getSecond(), 2);
+        return chars;
+    }
+
+    private static void writeDigits(char[] chars, int offset, int value, int width)
+    {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    /**
+     * 解析"yyyy-MM-dd HH:mm:ss"，返回毫秒时间戳
+     *
+     * @throws IllegalArgumentException 格式不正确
+     */
+    public long parse(CharSequence text, int offset)
+    {
+        checkLength(text.length(), offset, LENGTH);
+        long fields = 0;
+        // 把"yyyyMMddHHmm"12位数字压成一个long作为分钟的键，同时校验分隔符
+        for (int i = 0; i < 16; i++) {
+            char c = text.charAt(offset + i);
+            if (i == 4 || i == 7) {
+                expect(c, '-', offset + i);
+            }
+            else if (i == 10) {
+                expect(c, ' ', offset + i);
+            }
+            else if (i == 13) {
+                expect(c, ':', offset + i);
+            }
+            else {
+                fields = fields * 10 + digit(c, offset + i);
+            }
+        }
+        expect(text.charAt(offset + 16), ':', offset + 16);
+        int second = digit(text.charAt(offset + 17), offset + 17) * 10 + digit(text.charAt(offset + 18), offset + 18);
+        checkSecond(second);
+        return minuteStart(fields) + second * 1000L;
+    }
+
+    /**
+     * 解析"yyyy-MM-dd HH:mm:ss.SSS"
+     */
+    public long parseWithMillis(CharSequence text, int offset)
+    {
+        checkLength(text.length(), offset, LENGTH_WITH_MILLIS);
+        long base = parse(text, offset);
+        expect(text.charAt(offset + 19), '.', offset + 19);
+        int millis = digit(text.charAt(offset + 20), offset + 20) * 100
+                + digit(text.charAt(offset + 21), offset + 21) * 10
+                + digit(text.charAt(offset + 22), offset + 22);
+        return base + millis;
+    }
+
+    /**
+     * 解析ASCII字节中的"yyyy-MM-dd HH:mm:ss"
+     */
+    public long parse(byte[] text, int offset)
+    {
+        checkLength(text.length, offset, LENGTH);
+        long fields = 0;
+        for (int i = 0; i < 16; i++) {
+            char c = (char) (text[offset + i] & 0xFF);
+            if (i == 4 || i == 7) {
+                expect(c, '-', offset + i);
+            }
+            else if (i == 10) {
+                expect(c, ' ', offset + i);
+            }
+            else if (i == 13) {
+                expect(c, ':', offset + i);
+            }
+            else {
+                fields = fields * 10 + digit(c, offset + i);
+            }
+        }
+        expect((char) text[offset + 16], ':', offset + 16);
+        int second = digit((char) text[offset + 17], offset + 17) * 10 + digit((char) text[offset + 18], offset + 18);
+        checkSecond(second);
+        return minuteStart(fields) + second * 1000L;
+    }
+
+    private long minuteStart(long fields)
+    {
+        ParseCache cache = parseCache;
+        if (cache.fields == fields) {
+            return cache.epochMillis;
+        }
+        int minute = (int) (fields % 100);
+        int hour = (int) (fields / 100 % 100);
+        int day = (int) (fields / 10_000 % 100);
+        int month = (int) (fields / 1_000_000 % 100);
+        int year = (int) (fields / 100_000_000);
+        long epochMillis;
+        try {
+            // 夏令时跳过的时间按ZonedDateTime的规则向后调整
+            epochMillis = LocalDateTime.of(year, month, day, hour, minute).atZone(zone).toInstant().toEpochMilli();
+        }
+        catch (DateTimeException e) {
+            throw new IllegalArgumentException("日期时间无效: " + fields, e);
+        }
+        parseCache = new ParseCache(fields, epochMillis);
+        return epochMillis;
+    }
+
+    private static void checkLength(int length, int offset, int required)
+    {
+        if (offset < 0 || length - offset < required) {
+            throw new IllegalArgumentException("长度不足，需要 " + required + " 个字符");
+        }
+    }
+
+    private static void checkSecond(int second)
+    {
+        // 分钟的起点来自缓存，超过59的秒数会被加到下一分钟
+        if (second > 59) {
+            throw new IllegalArgumentException("秒数超出范围: " + second);
+        }
+    }
+
+    private static int digit(char c, int position)
+    {
+        if (c < '0' || c > '9') {
+            throw new IllegalArgumentException("位置 " + position + " 应为数字: " + c);
+        }
+        return c - '0';
+    }
+
+    private static void expect(char c, char expected, int position)
+    {
+        if (c != expected) {
+            throw new IllegalArgumentException("位置 " + position + " 应为 '" + expected + "': " + c);
+        }
+    }
+
+    /**
+     * 某一秒渲染好的结果，创建后不再修改
+     */
+    private static final class FormatCache
+    {
+        final long epochSecond;
+        // 加上时区偏移后的本地秒数
+        final long localSecond;
+        final char[] chars;
+        final byte[] bytes;
+
+        FormatCache(long epochSecond, long localSecond, char[] chars, byte[] bytes)
+        {
+            this.epochSecond = epochSecond;
+            this.localSecond = localSecond;
+            this.chars = chars;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * 某一分钟（yyyyMMddHHmm）对应的毫秒时间戳
+     */
+    private static final class ParseCache
+    {
+        final long fields;
+        final long epochMillis;
+
+        ParseCache(long fields, long epochMillis)
+        {
+            this.fields = fields;
+            this.epochMillis = epochMillis;
+        }
+    }
+}
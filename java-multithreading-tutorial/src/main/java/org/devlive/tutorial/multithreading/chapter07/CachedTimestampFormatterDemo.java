@@ -0,0 +1,116 @@
+package org.devlive.tutorial.multithreading.chapter07;
+
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 对比ThreadLocal<SimpleDateFormat>与CachedTimestampFormatter
+ * 多个线程共享同一个CachedTimestampFormatter，结果写入各自的缓冲区，不需要ThreadLocal
+ */
+public class CachedTimestampFormatterDemo
+{
+    private static final int THREAD_COUNT = 4;
+    private static final int OPERATIONS_PER_THREAD = 500_000;
+
+    private static final ThreadLocal<SimpleDateFormat> dateFormatThreadLocal =
+            ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyy-MM-dd HH:mm:ss"));
+    private static final CachedTimestampFormatter formatter = new CachedTimestampFormatter();
+
+    public static void main(String[] args)
+            throws InterruptedException
+    {
+        verify();
+        // 预热一轮，再正式测试
+        run("ThreadLocal<SimpleDateFormat>", CachedTimestampFormatterDemo::formatWithSimpleDateFormat, false);
+        run("CachedTimestampFormatter", CachedTimestampFormatterDemo::formatWithCachedFormatter, false);
+        System.out.println("\n=== 格式化性能对比 ===");
+        run("ThreadLocal<SimpleDateFormat>", CachedTimestampFormatterDemo::formatWithSimpleDateFormat, true);
+        run("CachedTimestampFormatter", CachedTimestampFormatterDemo::formatWithCachedFormatter, true);
+    }
+
+    /**
+     * 多线程同时格式化、解析随机时间，与SimpleDateFormat的结果逐一比对
+     */
+    private static void verify()
+            throws InterruptedException
+    {
+        AtomicInteger mismatches = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(THREAD_COUNT);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            int seed = i;
+            new Thread(() -> {
+                char[] buffer = new char[CachedTimestampFormatter.LENGTH_WITH_MILLIS];
+                SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+                for (int j = 0; j < 100_000; j++) {
+                    // 大部分时间落在相邻几秒内，偶尔跳到几年之外，让缓存反复失效
+                    long time = j % 100 == 0 ? now + (long) seed * j * 86_400_000L : now + j % 3000;
+                    formatter.formatWithMillis(time, buffer, 0);
+                    String text = new String(buffer);
+                    if (!text.equals(sdf.format(new Date(time))) || formatter.parseWithMillis(text, 0) != time) {
+                        mismatches.incrementAndGet();
+                    }
+                }
+                latch.countDown();
+            }, "校验线程-" + i).start();
+        }
+        latch.await();
+        char[] buffer = new char[CachedTimestampFormatter.LENGTH];
+        formatter.format(formatter.parse("2023-09-15 10:30:00", 0), buffer, 0);
+        System.out.println("解析并格式化: " + new String(buffer));
+        System.out.println("与SimpleDateFormat结果不一致的次数: " + mismatches.get());
+    }
+
+    private static long formatWithSimpleDateFormat(long time, char[] buffer)
+    {
+        return dateFormatThreadLocal.get().format(new Date(time)).charAt(18);
+    }
+
+    private static long formatWithCachedFormatter(long time, char[] buffer)
+    {
+        formatter.format(time, buffer, 0);
+        return buffer[18];
+    }
+
+    private static void run(String name, FormatTask task, boolean print)
+            throws InterruptedException
+    {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        CountDownLatch latch = new CountDownLatch(THREAD_COUNT);
+        AtomicLong allocated = new AtomicLong();
+        // 累加结果，避免格式化调用被JIT当作无用代码消除
+        AtomicLong checksum = new AtomicLong();
+        long start = System.nanoTime();
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            new Thread(() -> {
+                char[] buffer = new char[CachedTimestampFormatter.LENGTH];
+                long before = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                long sum = 0;
+                for (int j = 0; j < OPERATIONS_PER_THREAD; j++) {
+                    // 模拟日志：连续的调用大多落在同一秒内
+                    sum += task.format(System.currentTimeMillis(), buffer);
+                }
+                allocated.addAndGet(threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - before);
+                checksum.addAndGet(sum);
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+        long elapsed = System.nanoTime() - start;
+        if (print) {
+            long operations = (long) THREAD_COUNT * OPERATIONS_PER_THREAD;
+            System.out.printf("%-30s 耗时: %d ms, 每次: %.1f ns, 每次分配: %.1f 字节\n",
+                    name, elapsed / 1_000_000, (double) elapsed / operations,
+                    (double) allocated.get() / operations);
+        }
+    }
+
+    private interface FormatTask
+    {
+        long format(long time, char[] buffer);
+    }
+}
@@ -0,0 +1,156 @@
+package org.devlive.tutorial.multithreading.chapter07;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+
+/**
+ * 传递ThreadLocal上下文的线程池包装
+ * 提交任务时在提交线程上抓取所有已注册ThreadLocal的当前值，任务执行期间在工作线程上恢复，
+ * 结束后还原工作线程原来的值。业务代码不再需要在每个子任务里手动调用preHandle/postHandle。
+ * <p>
+ * 抓取只是把已注册的ThreadLocal逐个get()到一个数组里，注册表本身是写时复制的数组，
+ * 每个任务只多两个小数组和一个包装对象，开销在纳秒级别。
+ * 传递的是对象引用，可变的上下文对象在父子任务之间是共享的。
+ * 任务和线程池的包装由ContextTransmitter和ContextTransmittingExecutorService完成，这里只负责抓取已注册的值。
+ */
+public class ContextPropagatingExecutor
+        extends ContextTransmittingExecutorService
+{
+    private static final ThreadLocal<?>[] EMPTY = new ThreadLocal<?>[0];
+    // 已注册的ThreadLocal，注册很少发生，读取极其频繁，所以用写时复制的数组
+    private static volatile ThreadLocal<?>[] registered = EMPTY;
+
+    // 抓取时连同当时的注册表一起保存，之后的注册和注销不影响已经提交的任务
+    private static final ContextTransmitter<Context> TRANSMITTER = new ContextTransmitter<Context>()
+    {
+        @Override
+        public Context capture()
+        {
+            ThreadLocal<?>[] locals = registered;
+            if (locals.length == 0) {
+                return null;
+            }
+            Object[] values = new Object[locals.length];
+            for (int i = 0; i < locals.length; i++) {
+                values[i] = locals[i].get();
+            }
+            return new Context(locals, values);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Context replay(Context captured)
+        {
+            ThreadLocal<?>[] locals = captured.locals;
+            Object[] backup = new Object[locals.length];
+            for (int i = 0; i < locals.length; i++) {
+                ThreadLocal<Object> local = (ThreadLocal<Object>) locals[i];
+                backup[i] = local.get();
+                ContextTransmitter.transmit(local, backup[i], captured.values[i]);
+            }
+            return new Context(locals, backup);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void restore(Context backup)
+        {
+            ThreadLocal<?>[] locals = backup.locals;
+            for (int i = 0; i < locals.length; i++) {
+                ThreadLocal<Object> local = (ThreadLocal<Object>) locals[i];
+                ContextTransmitter.transmit(local, local.get(), backup.values[i]);
+            }
+        }
+    };
+
+    public ContextPropagatingExecutor(ExecutorService delegate)
+    {
+        super(delegate, TRANSMITTER);
+    }
+
+    /**
+     * 注册需要传递的ThreadLocal，通常在持有ThreadLocal的类的静态初始化中调用
+     */
+    public static synchronized void register(ThreadLocal<?> threadLocal)
+    {
+        for (ThreadLocal<?> existing : registered) {
+            if (existing == threadLocal) {
+                return;
+            }
+        }
+        ThreadLocal<?>[] copy = Arrays.copyOf(registered, registered.length + 1);
+        copy[registered.length] = threadLocal;
+        registered = copy;
+    }
+
+    public static synchronized void unregister(ThreadLocal<?> threadLocal)
+    {
+        List<ThreadLocal<?>> list = new ArrayList<>(Arrays.asList(registered));
+        list.remove(threadLocal);
+        registered = list.toArray(EMPTY);
+    }
+
+    /**
+     * 在当前线程抓取上下文，返回的Runnable在任意线程执行时都会带上这份上下文
+     */
+    public static Runnable wrap(Runnable task)
+    {
+        return TRANSMITTER.wrap(task);
+    }
+
+    public static <T> Callable<T> wrap(Callable<T> task)
+    {
+        return TRANSMITTER.wrap(task);
+    }
+
+    public static <T> Supplier<T> wrap(Supplier<T> task)
+    {
+        return TRANSMITTER.wrap(task);
+    }
+
+    /**
+     * 包装任意Executor，适合传给CompletableFuture的xxxAsync方法
+     * 由于execute()在提交线程上调用，后续的thenApplyAsync等阶段也会抓取到触发它的线程上的上下文。
+     */
+    public static Executor wrap(Executor executor)
+    {
+        return command -> executor.execute(wrap(command));
+    }
+
+    /**
+     * 带上下文的CompletableFuture.supplyAsync
+     */
+    public static <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier, Executor executor)
+    {
+        return CompletableFuture.supplyAsync(wrap(supplier), executor);
+    }
+
+    /**
+     * 带上下文的CompletableFuture.runAsync
+     */
+    public static CompletableFuture<Void> runAsync(Runnable runnable, Executor executor)
+    {
+        return CompletableFuture.runAsync(wrap(runnable), executor);
+    }
+
+    /**
+     * 一组ThreadLocal和对应的值
+     */
+    private static final class Context
+    {
+        final ThreadLocal<?>[] locals;
+        final Object[] values;
+
+        Context(ThreadLocal<?>[] locals, Object[] values)
+        {
+            this.locals = locals;
+            this.values = values;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.devlive.tutorial.multithreading.chapter07;
+
+import org.devlive.tutorial.multithreading.chapter07.UserContextPropagationDemo.AuditLogger;
+import org.devlive.tutorial.multithreading.chapter07.UserContextPropagationDemo.UserContextFilter;
+import org.devlive.tutorial.multithreading.chapter07.UserContextPropagationDemo.UserContextHolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 上下文传递线程池使用示例
+ * 请求线程设置用户上下文后把工作拆分到线程池，子任务无需再调用preHandle/postHandle。
+ */
+public class ContextPropagatingExecutorDemo
+{
+    public static void main(String[] args)
+            throws Exception
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        ContextPropagatingExecutor executor = new ContextPropagatingExecutor(pool);
+
+        // 1. ExecutorService方式
+        UserContextFilter.preHandle("1001", "张三", "管理员");
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                final int part = i;
+                futures.add(executor.submit(() -> {
+                    AuditLogger.logAction("处理分片 " + part);
+                    return UserContextHolder.getUserContext().getUsername();
+                }));
+            }
+            for (Future<String> future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            UserContextFilter.postHandle();
+        }
+
+        // 2. CompletableFuture方式，后续的异步阶段同样带有上下文
+        UserContextFilter.preHandle("1002", "李四", "普通用户");
+        try {
+            CompletableFuture<String> result = ContextPropagatingExecutor
+                    .supplyAsync(() -> UserContextHolder.getUserContext().getUserId(), executor)
+                    .thenApplyAsync(id -> id + " / " + UserContextHolder.getUserContext().getUserRole(), executor);
+            System.out.println("CompletableFuture结果: " + result.get());
+        }
+        finally {
+            UserContextFilter.postHandle();
+        }
+
+        // 3. 工作线程上不会残留上下文
+        Future<Boolean> leaked = pool.submit(() -> {
+            try {
+                UserContextHolder.getUserContext();
+                return true;
+            }
+            catch (IllegalStateException e) {
+                return false;
+            }
+        });
+        System.out.println("工作线程是否残留上下文: " + leaked.get());
+
+        measureOverhead();
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 测量抓取和恢复上下文的开销
+     */
+    private static void measureOverhead()
+    {
+        UserContextHolder.setUserContext(new UserContextPropagationDemo.UserContext("1003", "王五", "访客"));
+        try {
+            int[] counter = new int[1];
+            Runnable task = () -> counter[0]++;
+            int iterations = 5_000_000;
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    task.run();
+                }
+                long plain = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    ContextPropagatingExecutor.wrap(task).run();
+                }
+                long wrapped = System.nanoTime() - start;
+                System.out.printf("第%d轮 每个任务抓取+恢复上下文的额外开销: %.1f ns%n",
+                        round + 1, (double) (wrapped - plain) / iterations);
+            }
+            System.out.println("计数: " + counter[0]);
+        }
+        finally {
+            UserContextHolder.clearUserContext();
+        }
+    }
+}
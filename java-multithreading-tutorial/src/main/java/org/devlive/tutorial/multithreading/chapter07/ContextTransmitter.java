@@ -0,0 +1,102 @@
+package org.devlive.tutorial.multithreading.chapter07;
+
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+/**
+ * 在线程之间传递上下文的策略
+ * 提交任务时在提交线程上调用capture()，任务开始前在工作线程上调用replay()，
+ * 任务结束后用replay()返回的备份调用restore()，还原工作线程原来的上下文。
+ * ContextPropagatingExecutor和TransmittableThreadLocal各自实现抓取方式，包装任务和线程池的代码共用。
+ *
+ * @param <S> 抓取结果的类型，也是备份的类型
+ */
+public interface ContextTransmitter<S>
+{
+    /**
+     * 抓取当前线程的上下文，返回null表示没有需要传递的内容，任务不做包装
+     */
+    S capture();
+
+    /**
+     * 在当前线程上重放抓取的上下文，返回当前线程原来的上下文
+     */
+    S replay(S captured);
+
+    /**
+     * 还原replay()之前的上下文
+     */
+    void restore(S backup);
+
+    /**
+     * 在当前线程抓取上下文，返回的Runnable在任意线程执行时都会带上这份上下文
+     * 周期任务每次执行都重放同一份抓取结果。
+     */
+    default Runnable wrap(Runnable task)
+    {
+        S captured = capture();
+        if (captured == null) {
+            return task;
+        }
+        return () -> {
+            S backup = replay(captured);
+            try {
+                task.run();
+            }
+            finally {
+                restore(backup);
+            }
+        };
+    }
+
+    default <T> Callable<T> wrap(Callable<T> task)
+    {
+        S captured = capture();
+        if (captured == null) {
+            return task;
+        }
+        return () -> {
+            S backup = replay(captured);
+            try {
+                return task.call();
+            }
+            finally {
+                restore(backup);
+            }
+        };
+    }
+
+    default <T> Supplier<T> wrap(Supplier<T> task)
+    {
+        S captured = capture();
+        if (captured == null) {
+            return task;
+        }
+        return () -> {
+            S backup = replay(captured);
+            try {
+                return task.get();
+            }
+            finally {
+                restore(backup);
+            }
+        };
+    }
+
+    /**
+     * 值有变化时才写入，写入null等同于remove()，工作线程上不留下空条目
+     * 在提交线程上同步执行（例如调用方运行策略）时值相同，省掉一次写入。
+     */
+    static <T> void transmit(ThreadLocal<T> local, T current, T value)
+    {
+        if (current == value) {
+            return;
+        }
+        if (value == null) {
+            local.remove();
+        }
+        else {
+            local.set(value);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.devlive.tutorial.multithreading.chapter07;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 提交任务时按ContextTransmitter传递上下文的线程池包装
+ * submit/invokeAll等方法都经过execute()，只需要在这里包装一次。
+ */
+public class ContextTransmittingExecutorService
+        extends AbstractExecutorService
+{
+    private final ExecutorService delegate;
+    private final ContextTransmitter<?> transmitter;
+
+    public ContextTransmittingExecutorService(ExecutorService delegate, ContextTransmitter<?> transmitter)
+    {
+        this.delegate = delegate;
+        this.transmitter = transmitter;
+    }
+
+    protected ContextTransmitter<?> getTransmitter()
+    {
+        return transmitter;
+    }
+
+    @Override
+    public void execute(Runnable command)
+    {
+        delegate.execute(transmitter.wrap(command));
+    }
+
+    @Override
+    public void shutdown()
+    {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow()
+    {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown()
+    {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated()
+    {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+            throws InterruptedException
+    {
+        return delegate.awaitTermination(timeout, unit);
+    }
+}
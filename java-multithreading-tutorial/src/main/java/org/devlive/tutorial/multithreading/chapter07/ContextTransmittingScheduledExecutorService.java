@@ -0,0 +1,46 @@
+package org.devlive.tutorial.multithreading.chapter07;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 定时线程池的包装，在调度时抓取上下文，周期任务每次执行都重放同一份抓取结果
+ */
+public class ContextTransmittingScheduledExecutorService
+        extends ContextTransmittingExecutorService
+        implements ScheduledExecutorService
+{
+    private final ScheduledExecutorService delegate;
+
+    public ContextTransmittingScheduledExecutorService(ScheduledExecutorService delegate, ContextTransmitter<?> transmitter)
+    {
+        super(delegate, transmitter);
+        this.delegate = delegate;
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit)
+    {
+        return delegate.schedule(getTransmitter().wrap(command), delay, unit);
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit)
+    {
+        return delegate.schedule(getTransmitter().wrap(callable), delay, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit)
+    {
+        return delegate.scheduleAtFixedRate(getTransmitter().wrap(command), initialDelay, period, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit)
+    {
+        return delegate.scheduleWithFixedDelay(getTransmitter().wrap(command), initialDelay, delay, unit);
+    }
+}
@@ -0,0 +1,183 @@
+package org.devlive.tutorial.multithreading.chapter07;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 基于数组下标的ThreadLocal
+ * 在ThreadLocalPrincipleDemo的思路上，把每个线程的HashMap换成数组：每个FastThreadLocal创建时分配一个全局唯一的下标，
+ * 值直接存放在FastThreadLocalThread持有的数组中，get()/set()只是一次数组访问，没有哈希计算和探测。
+ * 在普通线程上退化为通过一个JDK ThreadLocal找到该线程的数组，语义不变，只是少了速度优势。
+ * <p>
+ * 下标不会回收，应当像JDK ThreadLocal一样作为静态字段长期存在，而不是频繁创建。
+ * 线程池中的线程复用前应调用removeAll()清理，否则上一个任务的值会被下一个任务看到。
+ */
+public class FastThreadLocal<T>
+{
+    private static final AtomicInteger nextIndex = new AtomicInteger();
+
+    private final int index;
+
+    public FastThreadLocal()
+    {
+        int next = nextIndex.getAndIncrement();
+        if (next < 0) {
+            nextIndex.decrementAndGet();
+            throw new IllegalStateException("FastThreadLocal数量超出上限");
+        }
+        this.index = next;
+    }
+
+    /**
+     * 创建带初始值的FastThreadLocal，与ThreadLocal.withInitial对应
+     */
+    public static <T> FastThreadLocal<T> withInitial(Supplier<? extends T> supplier)
+    {
+        return new FastThreadLocal<T>()
+        {
+            @Override
+            protected T initialValue()
+            {
+                return supplier.get();
+            }
+        };
+    }
+
+    /**
+     * 当前线程第一次get()且没有set()过时调用
+     */
+    protected T initialValue()
+    {
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public final T get()
+    {
+        InternalMap map = InternalMap.get();
+        Object value = map.get(index);
+        if (value != InternalMap.UNSET) {
+            return (T) value;
+        }
+        T initial = initialValue();
+        map.set(index, initial);
+        return initial;
+    }
+
+    public final void set(T value)
+    {
+        InternalMap.get().set(index, value);
+    }
+
+    /**
+     * 当前线程是否设置过值（包括初始化）
+     */
+    public final boolean isSet()
+    {
+        InternalMap map = InternalMap.getIfExists();
+        return map != null && map.get(index) != InternalMap.UNSET;
+    }
+
+    public final void remove()
+    {
+        InternalMap map = InternalMap.getIfExists();
+        if (map != null) {
+            map.set(index, InternalMap.UNSET);
+        }
+    }
+
+    /**
+     * 清除当前线程上所有FastThreadLocal的值，线程归还线程池时调用
+     */
+    public static void removeAll()
+    {
+        InternalMap.remove();
+    }
+
+    /**
+     * 已分配的下标数量
+     */
+    public static int getAllocatedCount()
+    {
+        return nextIndex.get();
+    }
+
+    /**
+     * 每个线程的值数组
+     */
+    static final class InternalMap
+    {
+        static final Object UNSET = new Object();
+        private static final int INITIAL_CAPACITY = 32;
+        // 普通线程的退路
+        private static final ThreadLocal<InternalMap> slowMap = new ThreadLocal<>();
+
+        private Object[] values;
+
+        InternalMap()
+        {
+            values = new Object[Math.max(INITIAL_CAPACITY, nextIndex.get())];
+            Arrays.fill(values, UNSET);
+        }
+
+        static InternalMap get()
+        {
+            Thread thread = Thread.currentThread();
+            if (thread instanceof FastThreadLocalThread) {
+                FastThreadLocalThread fastThread = (FastThreadLocalThread) thread;
+                InternalMap map = fastThread.getThreadLocalMap();
+                if (map == null) {
+                    map = new InternalMap();
+                    fastThread.setThreadLocalMap(map);
+                }
+                return map;
+            }
+            InternalMap map = slowMap.get();
+            if (map == null) {
+                map = new InternalMap();
+                slowMap.set(map);
+            }
+            return map;
+        }
+
+        static InternalMap getIfExists()
+        {
+            Thread thread = Thread.currentThread();
+            if (thread instanceof FastThreadLocalThread) {
+                return ((FastThreadLocalThread) thread).getThreadLocalMap();
+            }
+            return slowMap.get();
+        }
+
+        static void remove()
+        {
+            Thread thread = Thread.currentThread();
+            if (thread instanceof FastThreadLocalThread) {
+                ((FastThreadLocalThread) thread).setThreadLocalMap(null);
+            }
+            else {
+                slowMap.remove();
+            }
+        }
+
+        Object get(int index)
+        {
+            Object[] array = values;
+            return index < array.length ? array[index] : UNSET;
+        }
+
+        void set(int index, Object value)
+        {
+            Object[] array = values;
+            if (index >= array.length) {
+                // 按2的幂扩容，新增部分填充UNSET
+                int newCapacity = Integer.highestOneBit(index) << 1;
+                array = Arrays.copyOf(array, newCapacity);
+                Arrays.fill(array, values.length, newCapacity, UNSET);
+                values = array;
+            }
+            array[index] = value;
+        }
+    }
+}
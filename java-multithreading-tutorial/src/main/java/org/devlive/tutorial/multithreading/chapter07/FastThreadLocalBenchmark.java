@@ -0,0 +1,107 @@
+package org.devlive.tutorial.multithreading.chapter07;
+
+/**
+ * FastThreadLocal与java.lang.ThreadLocal的性能对比
+ * 每个线程分别持有1、10、100个变量，循环对每个变量做一次get()和set()，
+ * 分别在FastThreadLocalThread和普通线程上测试FastThreadLocal（普通线程上走退路）。
+ */
+public class FastThreadLocalBenchmark
+{
+    private static final int OPERATIONS = 20_000_000;
+    private static final int ROUNDS = 5;
+
+    // 防止JIT把循环优化掉
+    private static volatile long sink;
+
+    public static void main(String[] args)
+            throws InterruptedException
+    {
+        System.out.println("每轮 " + OPERATIONS + " 次get+set，取后" + (ROUNDS - 2) + "轮的平均值（前两轮为预热）");
+        System.out.printf("%-8s %-22s %-22s %-22s%n", "变量数", "ThreadLocal", "FastThreadLocal", "FastThreadLocal(普通线程)");
+        for (int count : new int[] {1, 10, 100}) {
+            ThreadLocal<Long>[] jdkLocals = createJdkLocals(count);
+            FastThreadLocal<Long>[] fastLocals = createFastLocals(count);
+
+            double[] results = new double[3];
+            Thread jdk = new Thread(() -> results[0] = benchmarkJdk(jdkLocals));
+            Thread fast = new FastThreadLocalThread(() -> results[1] = benchmarkFast(fastLocals));
+            Thread fallback = new Thread(() -> results[2] = benchmarkFast(fastLocals));
+            for (Thread thread : new Thread[] {jdk, fast, fallback}) {
+                thread.start();
+                thread.join();
+            }
+            System.out.printf("%-10d %-22s %-22s %-22s%n", count,
+                    String.format("%.2f ns/op", results[0]),
+                    String.format("%.2f ns/op", results[1]),
+                    String.format("%.2f ns/op", results[2]));
+        }
+        System.out.println("校验值: " + sink);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ThreadLocal<Long>[] createJdkLocals(int count)
+    {
+        ThreadLocal<Long>[] locals = new ThreadLocal[count];
+        for (int i = 0; i < count; i++) {
+            locals[i] = ThreadLocal.withInitial(() -> 0L);
+        }
+        return locals;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static FastThreadLocal<Long>[] createFastLocals(int count)
+    {
+        FastThreadLocal<Long>[] locals = new FastThreadLocal[count];
+        for (int i = 0; i < count; i++) {
+            locals[i] = FastThreadLocal.withInitial(() -> 0L);
+        }
+        return locals;
+    }
+
+    private static double benchmarkJdk(ThreadLocal<Long>[] locals)
+    {
+        double total = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            long sum = 0;
+            for (int i = 0; i < OPERATIONS; i++) {
+                ThreadLocal<Long> local = locals[i % locals.length];
+                long value = local.get();
+                // 只在小范围内取值，命中Long缓存，避免把装箱开销算进来
+                local.set((value + 1) & 127);
+                sum += value;
+            }
+            long elapsed = System.nanoTime() - start;
+            sink += sum;
+            if (round >= 2) {
+                total += (double) elapsed / OPERATIONS;
+            }
+        }
+        for (ThreadLocal<Long> local : locals) {
+            local.remove();
+        }
+        return total / (ROUNDS - 2);
+    }
+
+    private static double benchmarkFast(FastThreadLocal<Long>[] locals)
+    {
+        double total = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            long sum = 0;
+            for (int i = 0; i < OPERATIONS; i++) {
+                FastThreadLocal<Long> local = locals[i % locals.length];
+                long value = local.get();
+                local.set((value + 1) & 127);
+                sum += value;
+            }
+            long elapsed = System.nanoTime() - start;
+            sink += sum;
+            if (round >= 2) {
+                total += (double) elapsed / OPERATIONS;
+            }
+        }
+        FastThreadLocal.removeAll();
+        return total / (ROUNDS - 2);
+    }
+}
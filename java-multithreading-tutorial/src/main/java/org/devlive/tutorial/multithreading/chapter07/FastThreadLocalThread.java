@@ -0,0 +1,45 @@
+package org.devlive.tutorial.multithreading.chapter07;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 直接持有FastThreadLocal值数组的线程，相当于ThreadLocalPrincipleDemo中的MyThread
+ */
+public class FastThreadLocalThread
+        extends Thread
+{
+    // 只由本线程访问
+    private FastThreadLocal.InternalMap threadLocalMap;
+
+    public FastThreadLocalThread(Runnable target)
+    {
+        super(target);
+    }
+
+    public FastThreadLocalThread(Runnable target, String name)
+    {
+        super(target, name);
+    }
+
+    FastThreadLocal.InternalMap getThreadLocalMap()
+    {
+        return threadLocalMap;
+    }
+
+    void setThreadLocalMap(FastThreadLocal.InternalMap threadLocalMap)
+    {
+        this.threadLocalMap = threadLocalMap;
+    }
+
+    /**
+     * 创建FastThreadLocalThread的线程工厂，用于线程池
+     *
+     * @param namePrefix 线程名前缀
+     */
+    public static ThreadFactory factory(String namePrefix)
+    {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> new FastThreadLocalThread(runnable, namePrefix + threadNumber.incrementAndGet());
+    }
+}
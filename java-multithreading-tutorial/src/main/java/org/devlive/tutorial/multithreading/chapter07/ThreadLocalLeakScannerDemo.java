@@ -0,0 +1,72 @@
+package org.devlive.tutorial.multithreading.chapter07;
+
+import org.devlive.tutorial.multithreading.chapter02.MetricsRegistry;
+import org.devlive.tutorial.multithreading.chapter02.ThreadLocalLeakScanner;
+import org.devlive.tutorial.multithreading.chapter02.ThreadMonitor;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 使用ThreadLocalLeakScanner找出线程池线程中残留的ThreadLocal值
+ * JDK 9以上运行时需要添加 --add-opens java.base/java.lang=ALL-UNNAMED
+ */
+public class ThreadLocalLeakScannerDemo
+{
+    // 与ThreadLocalWithThreadPoolDemo.BadTask一样，任务结束后没有remove
+    private static final ThreadLocal<String> requestId = new ThreadLocal<>();
+
+    public static void main(String[] args)
+            throws InterruptedException
+    {
+        if (!ThreadLocalLeakScanner.isSupported()) {
+            System.out.println("当前JVM不允许读取ThreadLocalMap: " + ThreadLocalLeakScanner.getUnsupportedReason());
+            System.out.println("请添加启动参数 --add-opens java.base/java.lang=ALL-UNNAMED 后重试");
+            return;
+        }
+        ThreadLocalLeakScanner scanner = new ThreadLocalLeakScanner();
+        // 由ThreadMonitor每秒采样后扫描一次池中线程，不打印线程状态报告
+        ThreadMonitor monitor = new ThreadMonitor(1, 10, false);
+        monitor.setThreadLocalScanner(scanner);
+        MetricsRegistry registry = new MetricsRegistry();
+        scanner.registerMetrics(registry, "app_thread_local");
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(3, runnable -> {
+            Thread thread = new Thread(runnable, "工作线程-" + threadNumber.incrementAndGet());
+            monitor.addThread(thread.getName(), thread);
+            return thread;
+        });
+        monitor.startMonitoring();
+
+        for (int i = 0; i < 10; i++) {
+            int taskId = i;
+            executorService.execute(() -> {
+                requestId.set("请求-" + taskId);
+                // 与ThreadLocalMemoryLeakDemo一样，局部ThreadLocal存放1MB数组后没有remove
+                ThreadLocal<byte[]> buffer = new ThreadLocal<>();
+                buffer.set(new byte[1024 * 1024]);
+            });
+        }
+        TimeUnit.MILLISECONDS.sleep(200);
+        // 局部ThreadLocal已经不可达，GC后它们的条目变为陈旧条目，但1MB的value仍然被线程引用
+        System.gc();
+        TimeUnit.MILLISECONDS.sleep(1500);
+        scanner.printReport(scanner.getLatest());
+
+        System.out.println("\n开启清理陈旧条目");
+        scanner.setPurgeStale(true);
+        TimeUnit.MILLISECONDS.sleep(1000);
+        scanner.printReport(scanner.getLatest());
+        TimeUnit.MILLISECONDS.sleep(1000);
+        scanner.printReport(scanner.getLatest());
+
+        System.out.println("\n指标输出:");
+        System.out.print(registry.scrape());
+
+        monitor.stopMonitoring();
+        executorService.shutdown();
+    }
+}
@@ -0,0 +1,266 @@
+package org.devlive.tutorial.multithreading.chapter07;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * 可在线程池中传递的InheritableThreadLocal
+ * InheritableThreadLocal只在创建线程时复制一次值，线程池复用线程后子任务看到的是旧值。
+ * 这里在提交任务时抓取提交线程上的值，任务开始时在工作线程上重放，结束后还原工作线程原来的值，
+ * 工作线程上残留的、提交线程没有设置的值在任务执行期间也会被清除。
+ * <p>
+ * 每个线程额外维护一个集合，记录本线程上已经设置了值的TransmittableThreadLocal，
+ * 抓取只遍历这个集合，开销与实际设置了值的数量成正比，而不是与声明的数量成正比。
+ * 与ContextPropagatingExecutor不同，不需要注册，声明为TransmittableThreadLocal即可；
+ * 两者共用ContextTransmitter包装任务和线程池，只是抓取和重放的方式不同。
+ */
+public class TransmittableThreadLocal<T>
+        extends InheritableThreadLocal<T>
+{
+    // 当前线程上已经设置了值的TransmittableThreadLocal，以弱引用为键，不会阻止其被回收
+    private static final InheritableThreadLocal<WeakHashMap<TransmittableThreadLocal<Object>, Boolean>> holder =
+            new InheritableThreadLocal<WeakHashMap<TransmittableThreadLocal<Object>, Boolean>>()
+            {
+                @Override
+                protected WeakHashMap<TransmittableThreadLocal<Object>, Boolean> initialValue()
+                {
+                    return new WeakHashMap<>();
+                }
+
+                @Override
+                protected WeakHashMap<TransmittableThreadLocal<Object>, Boolean> childValue(
+                        WeakHashMap<TransmittableThreadLocal<Object>, Boolean> parentValue)
+                {
+                    // 新线程继承了值，也要继承这份记录，但不能与父线程共享同一个集合
+                    return new WeakHashMap<>(parentValue);
+                }
+            };
+
+    // 抓取结果为空时也要包装，重放时需要清除工作线程上残留的值
+    private static final ContextTransmitter<Snapshot> TRANSMITTER = new ContextTransmitter<Snapshot>()
+    {
+        @Override
+        public Snapshot capture()
+        {
+            return TransmittableThreadLocal.capture();
+        }
+
+        @Override
+        public Snapshot replay(Snapshot captured)
+        {
+            return TransmittableThreadLocal.replay(captured);
+        }
+
+        @Override
+        public void restore(Snapshot backup)
+        {
+            TransmittableThreadLocal.restore(backup);
+        }
+    };
+
+    /**
+     * 抓取时复制值，默认传递同一个引用，可变的上下文对象可以重写为深拷贝
+     */
+    protected T copy(T parentValue)
+    {
+        return parentValue;
+    }
+
+    @Override
+    public final T get()
+    {
+        T value = super.get();
+        // initialValue()产生的值不经过set()，在这里补记
+        if (value != null) {
+            addToHolder();
+        }
+        return value;
+    }
+
+    /**
+     * 设置为null等同于remove()，null值不会被传递
+     */
+    @Override
+    public final void set(T value)
+    {
+        if (value == null) {
+            remove();
+            return;
+        }
+        super.set(value);
+        addToHolder();
+    }
+
+    @Override
+    public final void remove()
+    {
+        super.remove();
+        holder.get().remove(this);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addToHolder()
+    {
+        WeakHashMap<TransmittableThreadLocal<Object>, Boolean> locals = holder.get();
+        if (!locals.containsKey(this)) {
+            locals.put((TransmittableThreadLocal<Object>) this, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * 抓取当前线程上所有已设置的值
+     */
+    public static Snapshot capture()
+    {
+        return capture(true);
+    }
+
+    private static Snapshot capture(boolean copy)
+    {
+        WeakHashMap<TransmittableThreadLocal<Object>, Boolean> locals = holder.get();
+        if (locals.isEmpty()) {
+            return Snapshot.EMPTY;
+        }
+        Map<TransmittableThreadLocal<Object>, Object> values = new IdentityHashMap<>(locals.size());
+        for (TransmittableThreadLocal<Object> local : locals.keySet()) {
+            Object value = local.getIfPresent();
+            values.put(local, copy ? local.copy(value) : value);
+        }
+        return new Snapshot(values);
+    }
+
+    /**
+     * 在当前线程上重放抓取的值，返回当前线程原来的值，用于之后的restore()
+     */
+    public static Snapshot replay(Snapshot snapshot)
+    {
+        // 备份工作线程自己的值，不经过copy()
+        Snapshot backup = capture(false);
+        if (backup == Snapshot.EMPTY && snapshot == Snapshot.EMPTY) {
+            return backup;
+        }
+        // 清除提交线程上没有的值，避免任务看到上一个任务留下的数据
+        for (TransmittableThreadLocal<Object> local : backup.values.keySet()) {
+            if (!snapshot.values.containsKey(local)) {
+                local.remove();
+            }
+        }
+        apply(snapshot);
+        return backup;
+    }
+
+    /**
+     * 还原replay()之前的值
+     */
+    public static void restore(Snapshot backup)
+    {
+        WeakHashMap<TransmittableThreadLocal<Object>, Boolean> locals = holder.get();
+        if (!locals.isEmpty()) {
+            // 先复制键，remove()会修改集合
+            for (Object local : locals.keySet().toArray()) {
+                if (!backup.values.containsKey(local)) {
+                    ((TransmittableThreadLocal<?>) local).remove();
+                }
+            }
+        }
+        apply(backup);
+    }
+
+    private static void apply(Snapshot snapshot)
+    {
+        for (Map.Entry<TransmittableThreadLocal<Object>, Object> entry : snapshot.values.entrySet()) {
+            TransmittableThreadLocal<Object> local = entry.getKey();
+            ContextTransmitter.transmit(local, local.getIfPresent(), entry.getValue());
+        }
+    }
+
+    private T getIfPresent()
+    {
+        // 不触发initialValue()
+        return holder.get().containsKey(this) ? super.get() : null;
+    }
+
+    /**
+     * 在当前线程抓取上下文，返回的Runnable在任意线程执行时都会带上这份上下文
+     * 周期任务每次执行都重放同一份抓取结果。
+     */
+    public static Runnable wrap(Runnable task)
+    {
+        return TRANSMITTER.wrap(task);
+    }
+
+    public static <V> Callable<V> wrap(Callable<V> task)
+    {
+        return TRANSMITTER.wrap(task);
+    }
+
+    public static Executor wrap(Executor executor)
+    {
+        return command -> executor.execute(wrap(command));
+    }
+
+    /**
+     * 包装线程池，ForkJoinPool通过execute/submit/invokeAll提交的任务同样适用，
+     * 在ForkJoinTask内部fork出的子任务请使用TransmittableRecursiveTask
+     */
+    public static ExecutorService wrap(ExecutorService executor)
+    {
+        return new ContextTransmittingExecutorService(executor, TRANSMITTER);
+    }
+
+    public static ScheduledExecutorService wrap(ScheduledExecutorService executor)
+    {
+        return new ContextTransmittingScheduledExecutorService(executor, TRANSMITTER);
+    }
+
+    /**
+     * 一次抓取的结果
+     */
+    public static final class Snapshot
+    {
+        static final Snapshot EMPTY = new Snapshot(Collections.emptyMap());
+
+        private final Map<TransmittableThreadLocal<Object>, Object> values;
+
+        private Snapshot(Map<TransmittableThreadLocal<Object>, Object> values)
+        {
+            this.values = values;
+        }
+
+        public int size()
+        {
+            return values.size();
+        }
+    }
+
+    /**
+     * 创建时抓取上下文的RecursiveTask，fork()到任意工作线程执行时都会重放
+     * 在compute()中创建的子任务抓取到的是重放后的上下文，因此整棵任务树都能看到提交时的值。
+     */
+    public abstract static class TransmittableRecursiveTask<V>
+            extends RecursiveTask<V>
+    {
+        private final Snapshot snapshot = capture();
+
+        @Override
+        protected final V compute()
+        {
+            Snapshot backup = replay(snapshot);
+            try {
+                return doCompute();
+            }
+            finally {
+                restore(backup);
+            }
+        }
+
+        protected abstract V doCompute();
+    }
+}
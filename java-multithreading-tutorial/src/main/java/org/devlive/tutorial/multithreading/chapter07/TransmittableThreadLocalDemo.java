@@ -0,0 +1,95 @@
+package org.devlive.tutorial.multithreading.chapter07;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 使用TransmittableThreadLocal解决InheritableThreadLocalLimitationDemo中线程池的问题
+ */
+public class TransmittableThreadLocalDemo
+{
+    private static final TransmittableThreadLocal<String> context = new TransmittableThreadLocal<>();
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        System.out.println("=== 演示线程池的情况 ===");
+        ExecutorService executorService = TransmittableThreadLocal.wrap(Executors.newFixedThreadPool(1));
+        context.set("主线程设置的值");
+        executorService.submit(() -> {
+            System.out.println("线程池-任务1: " + context.get());
+            context.set("线程池中设置的值");
+            System.out.println("线程池-任务1设置后: " + context.get());
+        }).get();
+        // 任务1的修改在任务结束后被还原，不会影响主线程和后续任务
+        System.out.println("任务1结束后主线程的值: " + context.get());
+        context.set("主线程修改后的值");
+        executorService.submit(() -> System.out.println("线程池-任务2: " + context.get())).get();
+        context.remove();
+        executorService.submit(() -> System.out.println("主线程remove后的任务3: " + context.get())).get();
+        executorService.shutdown();
+
+        System.out.println("\n=== 演示定时任务 ===");
+        ScheduledExecutorService scheduler = TransmittableThreadLocal.wrap(Executors.newScheduledThreadPool(1));
+        context.set("提交定时任务时的值");
+        // 周期任务每次执行都重放提交时抓取的值
+        ScheduledFuture<?> future = scheduler.scheduleAtFixedRate(
+                () -> System.out.println("定时任务: " + context.get()), 0, 100, TimeUnit.MILLISECONDS);
+        context.set("提交之后修改的值");
+        Thread.sleep(250);
+        future.cancel(false);
+        scheduler.shutdown();
+
+        System.out.println("\n=== 演示ForkJoinPool ===");
+        ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+        context.set("ForkJoin提交时的值");
+        long sum = forkJoinPool.invoke(new SumTask(1, 1000));
+        System.out.println("计算结果: " + sum);
+        forkJoinPool.shutdown();
+        context.remove();
+
+        System.out.println("\n=== 抓取开销与实际设置的数量成正比 ===");
+        TransmittableThreadLocal<?>[] declared = new TransmittableThreadLocal<?>[1000];
+        for (int i = 0; i < declared.length; i++) {
+            declared[i] = new TransmittableThreadLocal<Integer>();
+        }
+        context.set("唯一设置了值的上下文");
+        System.out.println("声明了 " + (declared.length + 1) + " 个，抓取到 " + TransmittableThreadLocal.capture().size() + " 个");
+        context.remove();
+    }
+
+    static class SumTask
+            extends TransmittableThreadLocal.TransmittableRecursiveTask<Long>
+    {
+        private final int from;
+        private final int to;
+
+        SumTask(int from, int to)
+        {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Long doCompute()
+        {
+            if (to - from < 250) {
+                System.out.println(Thread.currentThread().getName() + " 计算 [" + from + ", " + to + "] 上下文: " + context.get());
+                long sum = 0;
+                for (int i = from; i <= to; i++) {
+                    sum += i;
+                }
+                return sum;
+            }
+            int middle = (from + to) / 2;
+            SumTask left = new SumTask(from, middle);
+            SumTask right = new SumTask(middle + 1, to);
+            left.fork();
+            return right.compute() + left.join();
+        }
+    }
+}
@@ -96,6 +96,11 @@ public class UserContextPropagationDemo
         // 使用ThreadLocal存储用户上下文
         private static final ThreadLocal<UserContext> userContextThreadLocal = new ThreadLocal<>();
 
+        static {
+            // 注册后，通过ContextPropagatingExecutor提交的子任务会自动带上用户上下文
+            ContextPropagatingExecutor.register(userContextThreadLocal);
+        }
+
         /**
          * 获取用户上下文
          */
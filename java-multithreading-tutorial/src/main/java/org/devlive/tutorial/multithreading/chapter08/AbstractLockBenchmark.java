@@ -0,0 +1,52 @@
+package org.devlive.tutorial.multithreading.chapter08;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * 锁基准测试的公共设置：同时输出吞吐量和单次操作的延迟分布（SampleTime模式的分位数），
+ * 以及按线程数依次运行的main方法。JMH的类级别注解会被子类继承，子类只需要声明自己的参数和@Benchmark方法。
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public abstract class AbstractLockBenchmark
+{
+    /**
+     * 依次用每个线程数运行benchmark中的全部@Benchmark方法，
+     * 命令行参数按JMH的格式覆盖默认设置，指定-t时只运行该线程数
+     */
+    protected static void run(Class<? extends AbstractLockBenchmark> benchmark, String[] args, int[] threadCounts)
+            throws RunnerException, CommandLineOptionException
+    {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.getThreads().hasValue()) {
+            threadCounts = new int[] {commandLine.getThreads().get()};
+        }
+        for (int threads : threadCounts) {
+            System.out.println("\n===== 线程数: " + threads + " =====");
+            new Runner(new OptionsBuilder()
+                    .parent(commandLine)
+                    .include("^" + Pattern.quote(benchmark.getName() + "."))
+                    .threads(threads)
+                    .build()).run();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package org.devlive.tutorial.multithreading.chapter08;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * 先自旋再挂起的可重入锁
+ * 临界区很短时，ReentrantLock的park/unpark本身就占了大部分开销；纯自旋锁在线程数超过CPU核数时又会白白烧掉CPU。
+ * 这里在获取失败后先自旋一段时间，自旋时长根据最近的持有时间自动调整：
+ * 持有时间越短自旋越短，持有时间超过一次挂起/唤醒的代价时直接挂起，
+ * 同时自旋的线程数不超过CPU核数的一半，超出的线程直接排队挂起。
+ * <p>
+ * 排队、挂起和条件变量都交给AbstractQueuedSynchronizer，语义与非公平的ReentrantLock相同。
+ * 持有时间每16次获取采样一次，避免每次加解锁都调用nanoTime。
+ */
+public class AdaptiveSpinLock
+        implements Lock
+{
+    // 采样间隔，必须是2的幂
+    private static final int HOLD_SAMPLE_MASK = 15;
+    // 自旋时每隔多少次检查一次是否超时
+    private static final int SPIN_CHECK_MASK = 63;
+
+    private final Sync sync = new Sync();
+    // 单次自旋的上下限（纳秒），上限大致是一次挂起再被唤醒的代价
+    private final long minSpinNanos;
+    private final long maxSpinNanos;
+    private final int maxSpinners;
+    private final AtomicInteger spinners = new AtomicInteger();
+
+    // 只统计慢路径，直接获取成功的快路径不增加任何开销
+    private final LongAdder spinAcquisitions = new LongAdder();
+    private final LongAdder parkAcquisitions = new LongAdder();
+
+    public AdaptiveSpinLock()
+    {
+        this(500, 20_000);
+    }
+
+    /**
+     * @param minSpinNanos 单次自旋的最短时间（纳秒）
+     * @param maxSpinNanos 单次自旋的最长时间（纳秒），平均持有时间超过该值时不再自旋
+     */
+    public AdaptiveSpinLock(long minSpinNanos, long maxSpinNanos)
+    {
+        this.minSpinNanos = minSpinNanos;
+        this.maxSpinNanos = maxSpinNanos;
+        // 单核机器上自旋没有意义，持有锁的线程不可能同时在运行
+        this.maxSpinners = Runtime.getRuntime().availableProcessors() / 2;
+    }
+
+    @Override
+    public void lock()
+    {
+        if (sync.tryAcquire(1)) {
+            return;
+        }
+        if (spin(Long.MAX_VALUE)) {
+            spinAcquisitions.increment();
+        }
+        else {
+            sync.acquire(1);
+            parkAcquisitions.increment();
+        }
+    }
+
+    @Override
+    public void lockInterruptibly()
+            throws InterruptedException
+    {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (sync.tryAcquire(1)) {
+            return;
+        }
+        if (spin(Long.MAX_VALUE)) {
+            spinAcquisitions.increment();
+        }
+        else {
+            sync.acquireInterruptibly(1);
+            parkAcquisitions.increment();
+        }
+    }
+
+    @Override
+    public boolean tryLock()
+    {
+        return sync.tryAcquire(1);
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit)
+            throws InterruptedException
+    {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (sync.tryAcquire(1)) {
+            return true;
+        }
+        long timeoutNanos = unit.toNanos(time);
+        long start = System.nanoTime();
+        if (spin(timeoutNanos)) {
+            spinAcquisitions.increment();
+            return true;
+        }
+        if (sync.tryAcquireNanos(1, timeoutNanos - (System.nanoTime() - start))) {
+            parkAcquisitions.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 在预计的持有时间内自旋等待，超时返回false
+     */
+    private boolean spin(long timeoutNanos)
+    {
+        long holdEstimate = sync.holdEstimateNanos;
+        if (maxSpinners == 0 || holdEstimate > maxSpinNanos || timeoutNanos <= 0) {
+            return false;
+        }
+        // 自旋的线程已经够多了，再自旋只会和持有锁的线程抢CPU
+        if (spinners.incrementAndGet() > maxSpinners) {
+            spinners.decrementAndGet();
+            return false;
+        }
+        try {
+            // 等待时间通常不超过一次完整的持有时间，留出一倍余量
+            long budget = Math.min(Math.min(maxSpinNanos, Math.max(minSpinNanos, holdEstimate * 2)), timeoutNanos);
+            long deadline = System.nanoTime() + budget;
+            for (int i = 1; ; i++) {
+                if (sync.isFree() && sync.tryAcquire(1)) {
+                    return true;
+                }
+                if ((i & SPIN_CHECK_MASK) == 0 && System.nanoTime() - deadline >= 0) {
+                    return false;
+                }
+            }
+        }
+        finally {
+            spinners.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void unlock()
+    {
+        sync.release(1);
+    }
+
+    @Override
+    public Condition newCondition()
+    {
+        return sync.newCondition();
+    }
+
+    public boolean isLocked()
+    {
+        return !sync.isFree();
+    }
+
+    public boolean isHeldByCurrentThread()
+    {
+        return sync.isHeldExclusively();
+    }
+
+    public boolean hasQueuedThreads()
+    {
+        return sync.hasQueuedThreads();
+    }
+
+    /**
+     * 最近持有时间的指数加权平均（纳秒）
+     */
+    public long getHoldEstimateNanos()
+    {
+        return sync.holdEstimateNanos;
+    }
+
+    public long getSpinAcquisitions()
+    {
+        return spinAcquisitions.sum();
+    }
+
+    public long getParkAcquisitions()
+    {
+        return parkAcquisitions.sum();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("AdaptiveSpinLock[%s, 平均持有 %d ns, 自旋获取 %d, 挂起获取 %d]",
+                isLocked() ? "已锁定" : "未锁定", getHoldEstimateNanos(), getSpinAcquisitions(), getParkAcquisitions());
+    }
+
+    /**
+     * 非公平的可重入同步器，在锁完全释放时更新持有时间的估计
+     */
+    private static final class Sync
+            extends AbstractQueuedSynchronizer
+    {
+        // 以下两个字段只由持有锁的线程读写，state的volatile读写保证了可见性
+        private int acquisitions;
+        private long holdStart;
+        volatile long holdEstimateNanos;
+
+        @Override
+        protected boolean tryAcquire(int acquires)
+        {
+            Thread current = Thread.currentThread();
+            int c = getState();
+            if (c == 0) {
+                if (compareAndSetState(0, acquires)) {
+                    setExclusiveOwnerThread(current);
+                    holdStart = (++acquisitions & HOLD_SAMPLE_MASK) == 0 ? System.nanoTime() : 0;
+                    return true;
+                }
+            }
+            else if (current == getExclusiveOwnerThread()) {
+                int next = c + acquires;
+                if (next < 0) {
+                    throw new Error("超过最大重入次数");
+                }
+                setState(next);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        protected boolean tryRelease(int releases)
+        {
+            if (Thread.currentThread() != getExclusiveOwnerThread()) {
+                throw new IllegalMonitorStateException();
+            }
+            int c = getState() - releases;
+            boolean free = c == 0;
+            if (free) {
+                if (holdStart != 0) {
+                    long estimate = holdEstimateNanos;
+                    holdEstimateNanos = estimate + ((System.nanoTime() - holdStart - estimate) >> 3);
+                }
+                setExclusiveOwnerThread(null);
+            }
+            setState(c);
+            return free;
+        }
+
+        @Override
+        protected boolean isHeldExclusively()
+        {
+            return getExclusiveOwnerThread() == Thread.currentThread();
+        }
+
+        boolean isFree()
+        {
+            return getState() == 0;
+        }
+
+        Condition newCondition()
+        {
+            return new ConditionObject();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.devlive.tutorial.multithreading.chapter08;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AdaptiveSpinLock与ReentrantLock在不同获取方式下的JMH对比
+ * 工作负载取自LockVsSynchronizedStrategy，去掉了其中的打印和sleep，只保留加锁方式和计数：
+ * simple对应simpleTaskWithSynchronized，tryLock对应advancedTaskWithLock，interruptible对应interruptibleTask。
+ * synchronized不支持超时和可中断的获取，与它的对比见LockBenchmark的 -p lock=synchronized,adaptive。
+ * work为临界区内消耗的CPU单位，用来模拟库存扣减这类很短的临界区。
+ */
+public class AdaptiveSpinLockBenchmark
+        extends AbstractLockBenchmark
+{
+    @Param({"reentrant", "adaptive"})
+    private String lock;
+
+    @Param({"simple", "tryLock", "interruptible"})
+    private String workload;
+
+    @Param({"0", "20", "200"})
+    private int work;
+
+    private Lock target;
+    private int count = 0;
+
+    @Setup
+    public void setup()
+    {
+        target = "adaptive".equals(lock) ? new AdaptiveSpinLock() : new ReentrantLock();
+    }
+
+    @TearDown(Level.Trial)
+    public void printStatistics()
+    {
+        if (target instanceof AdaptiveSpinLock) {
+            System.out.println("\n" + target);
+        }
+    }
+
+    @Benchmark
+    public int operation()
+            throws InterruptedException
+    {
+        switch (workload) {
+            case "tryLock":
+                if (target.tryLock(1, TimeUnit.SECONDS)) {
+                    try {
+                        Blackhole.consumeCPU(work);
+                        return ++count;
+                    }
+                    finally {
+                        target.unlock();
+                    }
+                }
+                // 获取超时，执行不需要锁的替代逻辑
+                return -1;
+            case "interruptible":
+                target.lockInterruptibly();
+                try {
+                    Blackhole.consumeCPU(work);
+                    return ++count;
+                }
+                finally {
+                    target.unlock();
+                }
+            default:
+                target.lock();
+                try {
+                    Blackhole.consumeCPU(work);
+                    return ++count;
+                }
+                finally {
+                    target.unlock();
+                }
+        }
+    }
+
+    /**
+     * 依次用1个线程、CPU核数和两倍CPU核数的线程运行，最后一组用来观察超订时的表现
+     */
+    public static void main(String[] args)
+            throws RunnerException, CommandLineOptionException
+    {
+        int processors = Runtime.getRuntime().availableProcessors();
+        run(AdaptiveSpinLockBenchmark.class, args, new int[] {1, processors, processors * 2});
+    }
+}
@@ -159,6 +159,7 @@ public class DeadlockAvoidanceDemo
     public void deadlockFreeMethod3()
     {
         // 根据锁的hash值排序，确保获取顺序一致
+        // 注意：两个锁的identityHashCode可能相同，这时顺序不确定，MultiLock用唯一序号打破平局
         ReentrantLock firstLock = System.identityHashCode(lock1) < System.identityHashCode(lock2) ? lock1 : lock2;
         ReentrantLock secondLock = firstLock == lock1 ? lock2 : lock1;
 
@@ -187,6 +188,35 @@ public class DeadlockAvoidanceDemo
         }
     }
 
+    /**
+     * 避免死锁的方法4：使用MultiLock一次获取全部锁
+     * 按全局顺序获取并带超时，失败时已获取的锁全部释放
+     */
+    public void deadlockFreeMethod4()
+    {
+        // 传入的顺序无关紧要，MultiLock内部会统一排序
+        MultiLock locks = new MultiLock(lock2, lock1);
+        try {
+            if (locks.tryLock(500, TimeUnit.MILLISECONDS)) {
+                try {
+                    System.out.println(Thread.currentThread().getName() + " 一次获取全部 " + locks.size() + " 个锁");
+                    // 执行需要两个锁的操作
+                    Thread.sleep(50);
+                }
+                finally {
+                    locks.unlock();
+                }
+            }
+            else {
+                System.out.println(Thread.currentThread().getName() + " 未能获取所有锁，执行替代逻辑");
+            }
+        }
+        catch (InterruptedException e) {
+            System.out.println(Thread.currentThread().getName() + " 被中断");
+            Thread.currentThread().interrupt();
+        }
+    }
+
     public static void main(String[] args)
             throws InterruptedException
     {
@@ -263,5 +293,24 @@ public class DeadlockAvoidanceDemo
         sortedThread2.start();
         sortedThread1.join();
         sortedThread2.join();
+
+        System.out.println("\n=== 演示避免死锁的方法4：MultiLock ===");
+
+        Thread multiLockThread1 = new Thread(() -> {
+            for (int i = 0; i < 3; i++) {
+                demo.deadlockFreeMethod4();
+            }
+        }, "MultiLock线程1");
+
+        Thread multiLockThread2 = new Thread(() -> {
+            for (int i = 0; i < 3; i++) {
+                demo.deadlockFreeMethod4();
+            }
+        }, "MultiLock线程2");
+
+        multiLockThread1.start();
+        multiLockThread2.start();
+        multiLockThread1.join();
+        multiLockThread2.join();
     }
 }
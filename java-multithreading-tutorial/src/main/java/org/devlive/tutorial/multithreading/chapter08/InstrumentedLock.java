@@ -0,0 +1,381 @@
+package org.devlive.tutorial.multithreading.chapter08;
+
+import org.devlive.tutorial.multithreading.chapter02.LatencyHistogram;
+import org.devlive.tutorial.multithreading.chapter02.MetricsRegistry;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 带统计信息的ReentrantLock
+ * 记录获取锁的等待时间、持有时间、有竞争与无竞争的获取次数以及持有时间最长的线程。
+ * 直接继承ReentrantLock，原来声明为Lock或ReentrantLock的字段都可以直接替换。
+ * <p>
+ * 统计开销：无竞争的获取只多一次nanoTime；等待时间和持有时间都在持有锁时写入，
+ * 写入本身没有竞争，LatencyHistogram只写当前线程的记录器，适合在生产环境常开。
+ * 可重入的嵌套获取只计次，不重复计时。
+ */
+public class InstrumentedLock
+        extends ReentrantLock
+{
+    private final String name;
+
+    private final LatencyHistogram waitHistogram;
+    private final LatencyHistogram holdHistogram;
+    private final LongAdder uncontendedAcquisitions = new LongAdder();
+    private final LongAdder contendedAcquisitions = new LongAdder();
+    private final LongAdder failedTryLocks = new LongAdder();
+
+    // 以下字段只由持有锁的线程写入，锁的释放/获取保证了可见性，volatile只为读取统计
+    private long holdStart;
+    private volatile long longestHoldNanos;
+    private volatile String longestHolder;
+
+    public InstrumentedLock(String name)
+    {
+        this(name, false);
+    }
+
+    public InstrumentedLock(String name, boolean fair)
+    {
+        super(fair);
+        this.name = name;
+        this.waitHistogram = new LatencyHistogram(name + " 等待时间(有竞争)");
+        this.holdHistogram = new LatencyHistogram(name + " 持有时间");
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    @Override
+    public void lock()
+    {
+        if (fastAcquire()) {
+            return;
+        }
+        long start = System.nanoTime();
+        super.lock();
+        acquired(start);
+    }
+
+    @Override
+    public void lockInterruptibly()
+            throws InterruptedException
+    {
+        if (fastAcquire()) {
+            return;
+        }
+        long start = System.nanoTime();
+        super.lockInterruptibly();
+        acquired(start);
+    }
+
+    @Override
+    public boolean tryLock()
+    {
+        if (super.tryLock()) {
+            if (getHoldCount() == 1) {
+                uncontendedAcquisitions.increment();
+                holdStart = System.nanoTime();
+            }
+            return true;
+        }
+        failedTryLocks.increment();
+        return false;
+    }
+
+    @Override
+    public boolean tryLock(long timeout, TimeUnit unit)
+            throws InterruptedException
+    {
+        if (fastAcquire()) {
+            return true;
+        }
+        long start = System.nanoTime();
+        if (super.tryLock(timeout, unit)) {
+            acquired(start);
+            return true;
+        }
+        failedTryLocks.increment();
+        return false;
+    }
+
+    @Override
+    public void unlock()
+    {
+        if (getHoldCount() == 1) {
+            recordHold(System.nanoTime());
+        }
+        super.unlock();
+    }
+
+    /**
+     * 无竞争时直接获取
+     * 非公平锁用tryLock插队，与lock()本身的语义一致；公平锁只有在没有人持有或排队时才尝试，不破坏公平性。
+     */
+    private boolean fastAcquire()
+    {
+        if (isHeldByCurrentThread()) {
+            // 重入
+            super.lock();
+            return true;
+        }
+        if (isFair() && (isLocked() || hasQueuedThreads())) {
+            return false;
+        }
+        if (super.tryLock()) {
+            uncontendedAcquisitions.increment();
+            holdStart = System.nanoTime();
+            return true;
+        }
+        return false;
+    }
+
+    private void acquired(long start)
+    {
+        long now = System.nanoTime();
+        contendedAcquisitions.increment();
+        waitHistogram.record(now - start);
+        holdStart = now;
+    }
+
+    private void recordHold(long now)
+    {
+        long held = now - holdStart;
+        holdHistogram.record(held);
+        if (held > longestHoldNanos) {
+            longestHoldNanos = held;
+            longestHolder = Thread.currentThread().getName();
+        }
+    }
+
+    @Override
+    public Condition newCondition()
+    {
+        return new InstrumentedCondition(super.newCondition());
+    }
+
+    // 以下方法只接受本锁创建的Condition，需要换成内部真正的ConditionObject
+
+    @Override
+    public boolean hasWaiters(Condition condition)
+    {
+        return super.hasWaiters(unwrap(condition));
+    }
+
+    @Override
+    public int getWaitQueueLength(Condition condition)
+    {
+        return super.getWaitQueueLength(unwrap(condition));
+    }
+
+    @Override
+    protected Collection<Thread> getWaitingThreads(Condition condition)
+    {
+        return super.getWaitingThreads(unwrap(condition));
+    }
+
+    private static Condition unwrap(Condition condition)
+    {
+        return condition instanceof InstrumentedCondition ? ((InstrumentedCondition) condition).delegate : condition;
+    }
+
+    public LatencyHistogram.Snapshot getWaitSnapshot()
+    {
+        return waitHistogram.snapshot();
+    }
+
+    public LatencyHistogram.Snapshot getHoldSnapshot()
+    {
+        return holdHistogram.snapshot();
+    }
+
+    public long getUncontendedAcquisitions()
+    {
+        return uncontendedAcquisitions.sum();
+    }
+
+    public long getContendedAcquisitions()
+    {
+        return contendedAcquisitions.sum();
+    }
+
+    public long getFailedTryLocks()
+    {
+        return failedTryLocks.sum();
+    }
+
+    public long getLongestHoldNanos()
+    {
+        return longestHoldNanos;
+    }
+
+    public String getLongestHolder()
+    {
+        return longestHolder;
+    }
+
+    /**
+     * 清空统计信息
+     */
+    public void resetStatistics()
+    {
+        waitHistogram.reset();
+        holdHistogram.reset();
+        uncontendedAcquisitions.reset();
+        contendedAcquisitions.reset();
+        failedTryLocks.reset();
+        longestHoldNanos = 0;
+        longestHolder = null;
+    }
+
+    /**
+     * 把锁的统计信息注册为指标
+     *
+     * @param prefix 指标名前缀，例如 cache_lock
+     */
+    public void registerMetrics(MetricsRegistry registry, String prefix)
+    {
+        registry.counter(prefix + "_uncontended_total", "无竞争获取锁的次数", this::getUncontendedAcquisitions);
+        registry.counter(prefix + "_contended_total", "有竞争获取锁的次数", this::getContendedAcquisitions);
+        registry.counter(prefix + "_try_lock_failed_total", "tryLock失败次数", this::getFailedTryLocks);
+        registry.gauge(prefix + "_queue_length", "等待获取锁的线程数", this::getQueueLength);
+        registry.gauge(prefix + "_longest_hold_seconds", "最长的一次持有时间", () -> longestHoldNanos / 1e9);
+        registry.histogram(prefix + "_wait_seconds", "有竞争时获取锁的等待时间", waitHistogram);
+        registry.histogram(prefix + "_hold_seconds", "锁的持有时间", holdHistogram);
+    }
+
+    /**
+     * 打印统计信息
+     */
+    public void printStatistics()
+    {
+        long uncontended = getUncontendedAcquisitions();
+        long contended = getContendedAcquisitions();
+        long total = uncontended + contended;
+        System.out.println("=== 锁统计: " + name + (isFair() ? " (公平)" : " (非公平)") + " ===");
+        System.out.printf("获取次数: %d, 无竞争: %d, 有竞争: %d (%.1f%%), tryLock失败: %d%n",
+                total, uncontended, contended, total == 0 ? 0 : contended * 100.0 / total, getFailedTryLocks());
+        System.out.println(waitHistogram.snapshot());
+        System.out.println(holdHistogram.snapshot());
+        System.out.printf("最长持有: %.3f ms (%s), 当前排队线程: %d%n",
+                longestHoldNanos / 1_000_000.0, longestHolder, getQueueLength());
+    }
+
+    @Override
+    public String toString()
+    {
+        return super.toString() + "[" + name + "]";
+    }
+
+    /**
+     * 对外仍然是普通的Condition，await期间锁被释放，不计入持有时间
+     */
+    private class InstrumentedCondition
+            implements Condition
+    {
+        private final Condition delegate;
+
+        InstrumentedCondition(Condition delegate)
+        {
+            this.delegate = delegate;
+        }
+
+        private void beforeAwait()
+        {
+            if (isHeldByCurrentThread()) {
+                recordHold(System.nanoTime());
+            }
+        }
+
+        private void afterAwait()
+        {
+            // 未持有锁就调用await会直接抛出IllegalMonitorStateException，此时holdStart属于真正的持有者
+            if (isHeldByCurrentThread()) {
+                holdStart = System.nanoTime();
+            }
+        }
+
+        @Override
+        public void await()
+                throws InterruptedException
+        {
+            beforeAwait();
+            try {
+                delegate.await();
+            }
+            finally {
+                afterAwait();
+            }
+        }
+
+        @Override
+        public void awaitUninterruptibly()
+        {
+            beforeAwait();
+            try {
+                delegate.awaitUninterruptibly();
+            }
+            finally {
+                afterAwait();
+            }
+        }
+
+        @Override
+        public long awaitNanos(long nanosTimeout)
+                throws InterruptedException
+        {
+            beforeAwait();
+            try {
+                return delegate.awaitNanos(nanosTimeout);
+            }
+            finally {
+                afterAwait();
+            }
+        }
+
+        @Override
+        public boolean await(long time, TimeUnit unit)
+                throws InterruptedException
+        {
+            beforeAwait();
+            try {
+                return delegate.await(time, unit);
+            }
+            finally {
+                afterAwait();
+            }
+        }
+
+        @Override
+        public boolean awaitUntil(Date deadline)
+                throws InterruptedException
+        {
+            beforeAwait();
+            try {
+                return delegate.awaitUntil(deadline);
+            }
+            finally {
+                afterAwait();
+            }
+        }
+
+        @Override
+        public void signal()
+        {
+            delegate.signal();
+        }
+
+        @Override
+        public void signalAll()
+        {
+            delegate.signalAll();
+        }
+    }
+}
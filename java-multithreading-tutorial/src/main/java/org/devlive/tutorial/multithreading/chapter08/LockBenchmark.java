@@ -0,0 +1,280 @@
+package org.devlive.tutorial.multithreading.chapter08;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 锁性能的JMH基准测试
+ * LockPerformanceComparison每种锁只跑一次，结果受线程启动和JIT编译影响很大。
+ * 这里由JMH负责预热、多次测量和分叉JVM，测量模式等公共设置见AbstractLockBenchmark。
+ * <p>
+ * 参数：lock为锁的类型（adaptive为AdaptiveSpinLock），readPercent为读操作占比，work为临界区内消耗的CPU单位（Blackhole.consumeCPU），
+ * 线程数由main方法依次设置，也可以用JMH的-t参数指定。
+ * 原子类没有临界区，AtomicLong在CAS重试循环内消耗work，LongAdder在递增前消耗work。
+ */
+public class LockBenchmark
+        extends AbstractLockBenchmark
+{
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+
+    @Param({"synchronized", "fair", "unfair", "adaptive", "readWrite", "stamped", "atomic", "adder"})
+    private String lock;
+
+    @Param({"0", "50", "90"})
+    private int readPercent;
+
+    @Param({"0", "10", "100"})
+    private int work;
+
+    private Counter counter;
+
+    @Setup
+    public void setup()
+    {
+        switch (lock) {
+            case "synchronized":
+                counter = new SynchronizedCounter();
+                break;
+            case "fair":
+                counter = new LockCounter(new ReentrantLock(true));
+                break;
+            case "unfair":
+                counter = new LockCounter(new ReentrantLock(false));
+                break;
+            case "adaptive":
+                counter = new LockCounter(new AdaptiveSpinLock());
+                break;
+            case "readWrite":
+                counter = new ReadWriteLockCounter();
+                break;
+            case "stamped":
+                counter = new StampedLockCounter();
+                break;
+            case "atomic":
+                counter = new AtomicCounter();
+                break;
+            case "adder":
+                counter = new AdderCounter();
+                break;
+            default:
+                throw new IllegalArgumentException("未知的锁类型: " + lock);
+        }
+    }
+
+    @Benchmark
+    public long operation()
+    {
+        if (ThreadLocalRandom.current().nextInt(100) < readPercent) {
+            return counter.read(work);
+        }
+        counter.increment(work);
+        return 0;
+    }
+
+    /**
+     * 受保护的计数器，read和increment在各自的临界区内消耗work个CPU单位
+     */
+    interface Counter
+    {
+        long read(int work);
+
+        void increment(int work);
+    }
+
+    static class SynchronizedCounter
+            implements Counter
+    {
+        private long value;
+
+        @Override
+        public synchronized long read(int work)
+        {
+            Blackhole.consumeCPU(work);
+            return value;
+        }
+
+        @Override
+        public synchronized void increment(int work)
+        {
+            Blackhole.consumeCPU(work);
+            value++;
+        }
+    }
+
+    static class LockCounter
+            implements Counter
+    {
+        private final Lock lock;
+        private long value;
+
+        LockCounter(Lock lock)
+        {
+            this.lock = lock;
+        }
+
+        @Override
+        public long read(int work)
+        {
+            lock.lock();
+            try {
+                Blackhole.consumeCPU(work);
+                return value;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void increment(int work)
+        {
+            lock.lock();
+            try {
+                Blackhole.consumeCPU(work);
+                value++;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    static class ReadWriteLockCounter
+            implements Counter
+    {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private long value;
+
+        @Override
+        public long read(int work)
+        {
+            lock.readLock().lock();
+            try {
+                Blackhole.consumeCPU(work);
+                return value;
+            }
+            finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public void increment(int work)
+        {
+            lock.writeLock().lock();
+            try {
+                Blackhole.consumeCPU(work);
+                value++;
+            }
+            finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    static class StampedLockCounter
+            implements Counter
+    {
+        private final StampedLock lock = new StampedLock();
+        private long value;
+
+        @Override
+        public long read(int work)
+        {
+            // 先乐观读，期间有写入再退化为悲观读锁
+            long stamp = lock.tryOptimisticRead();
+            Blackhole.consumeCPU(work);
+            long current = value;
+            if (lock.validate(stamp)) {
+                return current;
+            }
+            stamp = lock.readLock();
+            try {
+                Blackhole.consumeCPU(work);
+                return value;
+            }
+            finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        @Override
+        public void increment(int work)
+        {
+            long stamp = lock.writeLock();
+            try {
+                Blackhole.consumeCPU(work);
+                value++;
+            }
+            finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    static class AtomicCounter
+            implements Counter
+    {
+        private final AtomicLong value = new AtomicLong();
+
+        @Override
+        public long read(int work)
+        {
+            Blackhole.consumeCPU(work);
+            return value.get();
+        }
+
+        @Override
+        public void increment(int work)
+        {
+            long current;
+            do {
+                current = value.get();
+                Blackhole.consumeCPU(work);
+            }
+            while (!value.compareAndSet(current, current + 1));
+        }
+    }
+
+    static class AdderCounter
+            implements Counter
+    {
+        private final LongAdder value = new LongAdder();
+
+        @Override
+        public long read(int work)
+        {
+            Blackhole.consumeCPU(work);
+            return value.sum();
+        }
+
+        @Override
+        public void increment(int work)
+        {
+            Blackhole.consumeCPU(work);
+            value.increment();
+        }
+    }
+
+    /**
+     * 依次用1、2、4、8个线程运行全部组合，命令行参数按JMH的格式覆盖默认设置，
+     * 例如 -p lock=fair,unfair -p work=10 -wi 1 -i 3，指定-t时只运行该线程数
+     */
+    public static void main(String[] args)
+            throws RunnerException, CommandLineOptionException
+    {
+        run(LockBenchmark.class, args, THREAD_COUNTS);
+    }
+}
@@ -1,10 +1,13 @@
 package org.devlive.tutorial.multithreading.chapter08;
 
+import org.devlive.tutorial.multithreading.chapter02.LatencyHistogram;
+
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 公平锁与非公平锁的性能对比
+ * 每种锁只运行一次，适合直观演示；需要可靠的数据时使用JMH基准测试LockBenchmark
  */
 public class LockPerformanceComparison
 {
@@ -18,6 +21,10 @@ public class LockPerformanceComparison
     private volatile int fairCounter = 0;
     private volatile int unfairCounter = 0;
 
+    // 每次加锁计数的耗时分布
+    private final LatencyHistogram fairLatency = new LatencyHistogram("公平锁单次操作");
+    private final LatencyHistogram unfairLatency = new LatencyHistogram("非公平锁单次操作");
+
     /**
      * 使用公平锁进行计数
      */
@@ -62,7 +69,9 @@ public class LockPerformanceComparison
                     startLatch.await(); // 等待统一开始信号
 
                     for (int j = 0; j < OPERATIONS_PER_THREAD; j++) {
+                        long start = System.nanoTime();
                         fairIncrement();
+                        fairLatency.recordSince(start);
                     }
                 }
                 catch (InterruptedException e) {
@@ -98,7 +107,9 @@ public class LockPerformanceComparison
                     startLatch.await(); // 等待统一开始信号
 
                     for (int j = 0; j < OPERATIONS_PER_THREAD; j++) {
+                        long start = System.nanoTime();
                         unfairIncrement();
+                        unfairLatency.recordSince(start);
                     }
                 }
                 catch (InterruptedException e) {
@@ -133,6 +144,7 @@ public class LockPerformanceComparison
         long fairLockTime = comparison.testFairLock();
         System.out.println("公平锁执行时间：" + (fairLockTime / 1_000_000) + " 毫秒");
         System.out.println("公平锁计数结果：" + comparison.fairCounter);
+        System.out.println(comparison.fairLatency.snapshot());
 
         // 稍等一下，让系统稳定
         Thread.sleep(1000);
@@ -142,6 +154,7 @@ public class LockPerformanceComparison
         long unfairLockTime = comparison.testUnfairLock();
         System.out.println("非公平锁执行时间：" + (unfairLockTime / 1_000_000) + " 毫秒");
         System.out.println("非公平锁计数结果：" + comparison.unfairCounter);
+        System.out.println(comparison.unfairLatency.snapshot());
 
         // 性能对比
         System.out.println("\n=== 性能对比 ===");
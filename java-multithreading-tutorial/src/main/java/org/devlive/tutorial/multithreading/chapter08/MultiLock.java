@@ -0,0 +1,202 @@
+package org.devlive.tutorial.multithreading.chapter08;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 一次获取一组锁
+ * 创建时把锁按全局统一的顺序排好：先比较System.identityHashCode，哈希值相同时再比较为这两个锁分配的唯一序号，
+ * 因此任意两个MultiLock对同一组锁的获取顺序都相同，不会互相死锁。
+ * 所有获取方法都是全有或全无的：中途失败、超时或被中断时，已经获取的锁会按相反顺序释放。
+ * <p>
+ * 如果这些锁也会被其他代码以别的顺序直接获取，按顺序阻塞等待就不再安全，
+ * 这时使用tryLockWithBackoff：任何一个锁获取失败就全部释放，随机退避一段时间后重试，
+ * 退避上限按指数增长，避免多个线程同时释放、同时重试导致的活锁。
+ */
+public class MultiLock
+        implements Lock
+{
+    // 退避的初始上限和最大上限（纳秒）
+    private static final long MIN_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    // 哈希值相同的锁才会分配序号，弱引用不阻止锁被回收
+    private static final Map<Lock, Long> tieBreakers = new WeakHashMap<>();
+    private static final AtomicLong tieBreakerSequence = new AtomicLong();
+
+    private static final Comparator<Lock> ORDER = (a, b) -> {
+        int ha = System.identityHashCode(a);
+        int hb = System.identityHashCode(b);
+        if (ha != hb) {
+            return Integer.compare(ha, hb);
+        }
+        return a == b ? 0 : Long.compare(tieBreaker(a), tieBreaker(b));
+    };
+
+    private final Lock[] locks;
+
+    public MultiLock(Lock... locks)
+    {
+        for (Lock lock : locks) {
+            if (lock == null) {
+                throw new NullPointerException("锁不能为null");
+            }
+        }
+        Lock[] sorted = locks.clone();
+        Arrays.sort(sorted, ORDER);
+        // 同一个锁出现多次时只获取一次，非可重入的锁重复获取会自己锁死自己
+        int size = 0;
+        for (Lock lock : sorted) {
+            if (size == 0 || sorted[size - 1] != lock) {
+                sorted[size++] = lock;
+            }
+        }
+        this.locks = Arrays.copyOf(sorted, size);
+    }
+
+    private static Long tieBreaker(Lock lock)
+    {
+        synchronized (tieBreakers) {
+            return tieBreakers.computeIfAbsent(lock, key -> tieBreakerSequence.incrementAndGet());
+        }
+    }
+
+    /**
+     * 按全局顺序依次阻塞获取
+     */
+    @Override
+    public void lock()
+    {
+        for (int i = 0; i < locks.length; i++) {
+            try {
+                locks[i].lock();
+            }
+            catch (RuntimeException | Error e) {
+                unlockFirst(i);
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void lockInterruptibly()
+            throws InterruptedException
+    {
+        for (int i = 0; i < locks.length; i++) {
+            try {
+                locks[i].lockInterruptibly();
+            }
+            catch (InterruptedException | RuntimeException | Error e) {
+                unlockFirst(i);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 不等待，任何一个锁被占用就全部释放并返回false
+     */
+    @Override
+    public boolean tryLock()
+    {
+        for (int i = 0; i < locks.length; i++) {
+            if (!locks[i].tryLock()) {
+                unlockFirst(i);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 按全局顺序获取，所有锁共享同一个超时时间
+     */
+    @Override
+    public boolean tryLock(long time, TimeUnit unit)
+            throws InterruptedException
+    {
+        long deadline = System.nanoTime() + unit.toNanos(time);
+        for (int i = 0; i < locks.length; i++) {
+            boolean acquired;
+            try {
+                acquired = locks[i].tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+            catch (InterruptedException | RuntimeException | Error e) {
+                unlockFirst(i);
+                throw e;
+            }
+            if (!acquired) {
+                unlockFirst(i);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 反复尝试不等待地获取全部锁，失败后在 [0, 上限) 内随机退避，上限从10微秒开始每次翻倍，最多10毫秒
+     *
+     * @return 超时前获取到全部锁返回true
+     */
+    public boolean tryLockWithBackoff(long time, TimeUnit unit)
+            throws InterruptedException
+    {
+        long deadline = System.nanoTime() + unit.toNanos(time);
+        long backoffLimit = MIN_BACKOFF_NANOS;
+        while (true) {
+            if (tryLock()) {
+                return true;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(this, Math.min(remaining, ThreadLocalRandom.current().nextLong(backoffLimit)));
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            backoffLimit = Math.min(MAX_BACKOFF_NANOS, backoffLimit * 2);
+        }
+    }
+
+    /**
+     * 按获取的相反顺序释放全部锁
+     */
+    @Override
+    public void unlock()
+    {
+        unlockFirst(locks.length);
+    }
+
+    private void unlockFirst(int count)
+    {
+        for (int i = count - 1; i >= 0; i--) {
+            locks[i].unlock();
+        }
+    }
+
+    /**
+     * 一组锁没有统一的条件变量
+     */
+    @Override
+    public Condition newCondition()
+    {
+        throw new UnsupportedOperationException("MultiLock不支持条件变量");
+    }
+
+    /**
+     * 去重后的锁数量
+     */
+    public int size()
+    {
+        return locks.length;
+    }
+}
@@ -0,0 +1,137 @@
+package org.devlive.tutorial.multithreading.chapter08;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * MultiLock压力测试
+ * 多个线程每次以随机顺序获取16个锁中的2到8个，每个锁保护一个计数器，最后核对计数器总和。
+ * 第二部分另有线程绕过MultiLock、以相反顺序直接获取锁，演示退避重试如何避免死锁和活锁。
+ */
+public class MultiLockDemo
+{
+    private static final int LOCK_COUNT = 16;
+    private static final int THREAD_COUNT = 8;
+    private static final int OPERATIONS_PER_THREAD = 20_000;
+
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_COUNT];
+    // 每个计数器只在持有对应的锁时修改
+    private final long[] counters = new long[LOCK_COUNT];
+    private final AtomicLong expected = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    public MultiLockDemo()
+    {
+        for (int i = 0; i < LOCK_COUNT; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    private void operation(boolean backoff)
+            throws InterruptedException
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int count = 2 + random.nextInt(7);
+        Lock[] selected = new Lock[count];
+        int[] indexes = new int[count];
+        for (int i = 0; i < count; i++) {
+            indexes[i] = random.nextInt(LOCK_COUNT);
+            selected[i] = locks[indexes[i]];
+        }
+        MultiLock multiLock = new MultiLock(selected);
+        boolean acquired = backoff ? multiLock.tryLockWithBackoff(1, TimeUnit.SECONDS) : multiLock.tryLock(1, TimeUnit.SECONDS);
+        if (!acquired) {
+            timeouts.incrementAndGet();
+            return;
+        }
+        try {
+            for (int index : indexes) {
+                counters[index]++;
+            }
+            expected.addAndGet(count);
+        }
+        finally {
+            multiLock.unlock();
+        }
+    }
+
+    /**
+     * 绕过MultiLock，按下标从大到小直接获取两个锁
+     */
+    private void legacyOperation()
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = 1 + random.nextInt(LOCK_COUNT - 1);
+        int second = random.nextInt(first);
+        locks[first].lock();
+        try {
+            locks[second].lock();
+            try {
+                counters[first]++;
+                counters[second]++;
+                expected.addAndGet(2);
+            }
+            finally {
+                locks[second].unlock();
+            }
+        }
+        finally {
+            locks[first].unlock();
+        }
+    }
+
+    private void run(String name, boolean backoff, int legacyThreads)
+            throws InterruptedException
+    {
+        Thread[] threads = new Thread[THREAD_COUNT + legacyThreads];
+        for (int i = 0; i < threads.length; i++) {
+            boolean legacy = i >= THREAD_COUNT;
+            threads[i] = new Thread(() -> {
+                try {
+                    for (int j = 0; j < OPERATIONS_PER_THREAD; j++) {
+                        if (legacy) {
+                            legacyOperation();
+                        }
+                        else {
+                            operation(backoff);
+                        }
+                    }
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, (legacy ? "直接加锁线程-" : "MultiLock线程-") + i);
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.MINUTES.toMillis(1));
+            if (thread.isAlive()) {
+                System.out.println(thread.getName() + " 一分钟内没有结束，可能发生了死锁");
+                return;
+            }
+        }
+        long sum = 0;
+        for (long counter : counters) {
+            sum += counter;
+        }
+        System.out.printf("%s: 耗时 %d ms, 超时 %d 次, 计数器总和 %d, 期望 %d, %s\n",
+                name, (System.nanoTime() - start) / 1_000_000, timeouts.get(), sum, expected.get(),
+                sum == expected.get() ? "一致" : "不一致");
+    }
+
+    public static void main(String[] args)
+            throws InterruptedException
+    {
+        System.out.println("=== 按全局顺序获取 ===");
+        new MultiLockDemo().run("按顺序获取", false, 0);
+
+        System.out.println("\n=== 存在以其他顺序直接加锁的代码时使用退避重试 ===");
+        new MultiLockDemo().run("随机指数退避", true, 2);
+    }
+}
@@ -1,9 +1,10 @@
 package org.devlive.tutorial.multithreading.chapter08;
 
+import org.devlive.tutorial.multithreading.chapter02.MetricsRegistry;
+
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
-import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 使用ReentrantLock实现线程安全的缓存系统
@@ -15,8 +16,8 @@ public class ThreadSafeCacheWithLock<K, V>
     // 存储缓存数据的Map
     private final Map<K, V> cache = new HashMap<>();
 
-    // 使用ReentrantLock保护缓存操作
-    private final ReentrantLock lock = new ReentrantLock();
+    // 使用ReentrantLock保护缓存操作，InstrumentedLock额外记录等待和持有时间
+    private final InstrumentedLock lock = new InstrumentedLock("cache");
 
     // 缓存的最大大小
     private final int maxSize;
@@ -211,6 +212,20 @@ public class ThreadSafeCacheWithLock<K, V>
         }
     }
 
+    /**
+     * 把缓存和锁的统计信息注册为指标，抓取时只读取volatile计数，不获取缓存锁
+     *
+     * @param prefix 指标名前缀，例如 user_cache
+     */
+    public void registerMetrics(MetricsRegistry registry, String prefix)
+    {
+        registry.counter(prefix + "_hits_total", "缓存命中次数", () -> hitCount);
+        registry.counter(prefix + "_misses_total", "缓存未命中次数", () -> missCount);
+        registry.counter(prefix + "_evictions_total", "缓存淘汰次数", () -> evictionCount);
+        registry.gauge(prefix + "_max_size", "缓存的最大大小", () -> maxSize);
+        lock.registerMetrics(registry, prefix + "_lock");
+    }
+
     /**
      * 显示锁的状态信息
      */
@@ -221,6 +236,7 @@ public class ThreadSafeCacheWithLock<K, V>
         System.out.println("锁的持有次数：" + lock.getHoldCount());
         System.out.println("等待锁的线程数：" + lock.getQueueLength());
         System.out.println("是否是公平锁：" + lock.isFair());
+        lock.printStatistics();
     }
 
     /**
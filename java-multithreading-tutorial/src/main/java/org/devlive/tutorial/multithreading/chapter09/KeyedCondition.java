@@ -0,0 +1,267 @@
+package org.devlive.tutorial.multithreading.chapter09;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * 按键唤醒的条件变量
+ * 所有线程共用一个Condition再signalAll()时，每次状态变化都会唤醒全部等待者，
+ * 它们依次抢锁、检查条件，大多数又重新睡下（惊群）。
+ * 这里每个等待者拥有自己的Condition：等待某个具体值的线程按值登记在表中，
+ * 状态变化时由修改者判断谁的条件成立，只唤醒这些线程。
+ * <p>
+ * 语义说明：只要值在某一时刻满足了等待条件，等待者就会被放行，
+ * 即使它重新拿到锁时值已经再次改变，这样短暂出现的值也不会被错过。
+ */
+public class KeyedCondition<V>
+{
+    private final ReentrantLock lock = new ReentrantLock();
+    private V value;
+
+    // 等待具体值的线程，按值分组
+    private final Map<V, List<Waiter<V>>> keyedWaiters = new HashMap<>();
+    // 等待任意谓词的线程，每次变化时由修改者逐个判断
+    private final List<Waiter<V>> predicateWaiters = new ArrayList<>();
+
+    // 统计信息，受lock保护
+    private long signals = 0;
+    private long updates = 0;
+
+    public KeyedCondition(V initialValue)
+    {
+        this.value = initialValue;
+    }
+
+    public V get()
+    {
+        lock.lock();
+        try {
+            return value;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 修改值，只唤醒条件因此成立的等待者
+     */
+    public void set(V newValue)
+    {
+        lock.lock();
+        try {
+            value = newValue;
+            updates++;
+
+            List<Waiter<V>> matched = keyedWaiters.remove(newValue);
+            if (matched != null) {
+                for (Waiter<V> waiter : matched) {
+                    release(waiter);
+                }
+            }
+
+            // 谓词等待者由修改者在锁内判断，不成立的不会被唤醒
+            for (int i = predicateWaiters.size() - 1; i >= 0; i--) {
+                Waiter<V> waiter = predicateWaiters.get(i);
+                if (waiter.predicate.test(newValue)) {
+                    removeAt(predicateWaiters, i);
+                    release(waiter);
+                }
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 等待值变为expected
+     */
+    public void awaitValue(V expected)
+            throws InterruptedException
+    {
+        awaitValue(expected, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 限时等待值变为expected
+     *
+     * @return 超时前条件成立返回true
+     */
+    public boolean awaitValue(V expected, long timeout, TimeUnit unit)
+            throws InterruptedException
+    {
+        lock.lock();
+        try {
+            if (Objects.equals(value, expected)) {
+                return true;
+            }
+            Waiter<V> waiter = new Waiter<>(lock.newCondition(), expected, null);
+            keyedWaiters.computeIfAbsent(expected, k -> new ArrayList<>(2)).add(waiter);
+            return await(waiter, unit.toNanos(timeout));
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 等待值满足predicate，谓词在修改者线程中、持有锁的情况下求值，必须足够轻量
+     */
+    public void awaitUntil(Predicate<? super V> predicate)
+            throws InterruptedException
+    {
+        awaitUntil(predicate, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 限时等待值满足predicate
+     *
+     * @return 超时前条件成立返回true
+     */
+    public boolean awaitUntil(Predicate<? super V> predicate, long timeout, TimeUnit unit)
+            throws InterruptedException
+    {
+        lock.lock();
+        try {
+            if (predicate.test(value)) {
+                return true;
+            }
+            Waiter<V> waiter = new Waiter<>(lock.newCondition(), null, predicate);
+            predicateWaiters.add(waiter);
+            return await(waiter, unit.toNanos(timeout));
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 在自己的Condition上等待，直到被修改者放行；调用方必须持有锁且已登记
+     */
+    private boolean await(Waiter<V> waiter, long nanos)
+            throws InterruptedException
+    {
+        try {
+            // 循环防止虚假唤醒：只认修改者设置的satisfied标志
+            while (!waiter.satisfied) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = waiter.condition.awaitNanos(nanos);
+            }
+            return true;
+        }
+        finally {
+            // 超时或被中断时从登记表中移除自己
+            if (!waiter.satisfied) {
+                unregister(waiter);
+            }
+        }
+    }
+
+    private void release(Waiter<V> waiter)
+    {
+        waiter.satisfied = true;
+        signals++;
+        waiter.condition.signal();
+    }
+
+    private void unregister(Waiter<V> waiter)
+    {
+        if (waiter.predicate != null) {
+            predicateWaiters.remove(waiter);
+            return;
+        }
+        List<Waiter<V>> waiters = keyedWaiters.get(waiter.key);
+        if (waiters != null) {
+            waiters.remove(waiter);
+            if (waiters.isEmpty()) {
+                keyedWaiters.remove(waiter.key);
+            }
+        }
+    }
+
+    /**
+     * 交换删除，O(1)，不保证等待者顺序
+     */
+    private static <E> void removeAt(List<E> list, int index)
+    {
+        int last = list.size() - 1;
+        if (index != last) {
+            list.set(index, list.get(last));
+        }
+        list.remove(last);
+    }
+
+    /**
+     * 当前等待中的线程数
+     */
+    public int getWaiterCount()
+    {
+        lock.lock();
+        try {
+            int total = predicateWaiters.size();
+            for (List<Waiter<V>> waiters : keyedWaiters.values()) {
+                total += waiters.size();
+            }
+            return total;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 获取性能统计信息
+     */
+    public void printStatistics()
+    {
+        lock.lock();
+        try {
+            System.out.println("=== 按键唤醒统计 ===");
+            System.out.println("修改次数: " + updates);
+            System.out.println("定向唤醒次数: " + signals);
+            System.out.println("等待中的线程数: " + getWaiterCount());
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public long getSignalCount()
+    {
+        lock.lock();
+        try {
+            return signals;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 单个等待者，拥有独立的Condition
+     */
+    private static final class Waiter<V>
+    {
+        final Condition condition;
+        final V key;
+        final Predicate<? super V> predicate;
+        boolean satisfied = false; // 受lock保护
+
+        Waiter(Condition condition, V key, Predicate<? super V> predicate)
+        {
+            this.condition = condition;
+            this.key = key;
+            this.predicate = predicate;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.devlive.tutorial.multithreading.chapter09;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * signalAll()惊群 与 KeyedCondition按键唤醒 的对比
+ * 第i个等待线程等待值变为i，主线程依次把值设为0..N-1，
+ * 每次设置后等对应线程通过再设置下一个值，统计总耗时和被唤醒的次数。
+ */
+public class KeyedConditionBenchmark
+{
+    /**
+     * 对照组：所有等待者共用一个Condition，和ConditionPerformanceDemo.precisConditionWait()一样
+     */
+    static class SharedCondition
+    {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private int value = -1;
+        final AtomicLong wakeups = new AtomicLong();
+
+        void set(int newValue)
+        {
+            lock.lock();
+            try {
+                value = newValue;
+                changed.signalAll();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        void awaitValue(int expected)
+                throws InterruptedException
+        {
+            lock.lock();
+            try {
+                while (value != expected) {
+                    changed.await();
+                    wakeups.incrementAndGet();
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    interface ValueWaiter
+    {
+        void awaitValue(int expected)
+                throws InterruptedException;
+    }
+
+    interface ValueSetter
+    {
+        void set(int value);
+    }
+
+    private static long run(int waiters, ValueWaiter waiter, ValueSetter setter)
+            throws InterruptedException
+    {
+        AtomicInteger passed = new AtomicInteger();
+        AtomicInteger registered = new AtomicInteger();
+        Thread[] threads = new Thread[waiters];
+        for (int i = 0; i < waiters; i++) {
+            final int expected = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    registered.incrementAndGet();
+                    waiter.awaitValue(expected);
+                    passed.incrementAndGet();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "等待线程-" + i);
+            threads[i].start();
+        }
+
+        // 等所有线程都进入等待
+        while (registered.get() < waiters) {
+            Thread.yield();
+        }
+        Thread.sleep(200);
+
+        long start = System.nanoTime();
+        for (int v = 0; v < waiters; v++) {
+            setter.set(v);
+            while (passed.get() <= v) {
+                Thread.yield();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return elapsed;
+    }
+
+    public static void main(String[] args)
+            throws InterruptedException
+    {
+        System.out.printf("%-8s %-16s %-16s %-14s %-14s%n", "等待者", "signalAll耗时", "按键唤醒耗时", "signalAll唤醒", "按键唤醒次数");
+
+        for (int waiters : new int[] {10, 100, 1000}) {
+            SharedCondition shared = new SharedCondition();
+            long sharedNanos = run(waiters, shared::awaitValue, shared::set);
+
+            KeyedCondition<Integer> keyed = new KeyedCondition<>(-1);
+            long keyedNanos = run(waiters, keyed::awaitValue, keyed::set);
+
+            System.out.printf("%-8d %-16s %-16s %-14d %-14d%n", waiters,
+                    sharedNanos / 1_000 + "us", keyedNanos / 1_000 + "us",
+                    shared.wakeups.get(), keyed.getSignalCount());
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package org.devlive.tutorial.multithreading.chapter09;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 由ProducerConsumerWithCondition串联而成的多阶段流水线
+ * 每个阶段声明自己的并行度、批大小和缓冲容量，阶段之间通过有界缓冲区连接，
+ * 下游处理不过来时上游阻塞，最终submit()也会阻塞，背压一直传递到数据源。
+ *
+ * @param <I> 流水线输入元素类型
+ */
+public class Pipeline<I>
+{
+    private final ProducerConsumerWithCondition<I> source;
+    private final List<PipelineStage<?, ?>> stages;
+    private volatile boolean started = false;
+
+    private Pipeline(ProducerConsumerWithCondition<I> source, List<PipelineStage<?, ?>> stages)
+    {
+        this.source = source;
+        this.stages = Collections.unmodifiableList(stages);
+    }
+
+    /**
+     * 创建流水线构建器
+     */
+    public static <I> Builder<I, I> builder()
+    {
+        return new Builder<>(null, new ArrayList<>(), null);
+    }
+
+    /**
+     * 启动所有阶段的工作线程
+     */
+    public synchronized void start()
+    {
+        if (started) {
+            throw new IllegalStateException("流水线已经启动");
+        }
+        started = true;
+        for (PipelineStage<?, ?> stage : stages) {
+            stage.start();
+        }
+    }
+
+    /**
+     * 提交一个元素，第一个阶段的缓冲区满时阻塞
+     */
+    public void submit(I item)
+            throws InterruptedException
+    {
+        source.produce(item);
+    }
+
+    /**
+     * 尝试提交一个元素，缓冲区满时立即返回false
+     */
+    public boolean trySubmit(I item)
+    {
+        return source.tryProduce(item);
+    }
+
+    /**
+     * 停止接收输入，已提交的数据会继续流经所有阶段
+     */
+    public void close()
+    {
+        source.close();
+    }
+
+    /**
+     * 等待所有阶段处理完剩余数据
+     *
+     * @return 是否在超时前全部结束
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+            throws InterruptedException
+    {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (PipelineStage<?, ?> stage : stages) {
+            stage.join(deadline);
+        }
+        return isTerminated();
+    }
+
+    public boolean isTerminated()
+    {
+        return stages.get(stages.size() - 1).isTerminated();
+    }
+
+    /**
+     * 立即停止：关闭输入并中断所有工作线程，缓冲区中未处理的数据被丢弃
+     */
+    public void shutdownNow()
+    {
+        source.close();
+        for (PipelineStage<?, ?> stage : stages) {
+            stage.interrupt();
+        }
+    }
+
+    /**
+     * 所有阶段的统计快照，按流水线顺序排列
+     */
+    public List<PipelineStage.StageMetrics> metrics()
+    {
+        List<PipelineStage.StageMetrics> result = new ArrayList<>(stages.size());
+        for (PipelineStage<?, ?> stage : stages) {
+            result.add(stage.metrics());
+        }
+        return result;
+    }
+
+    /**
+     * 按流水线顺序找到的第一个失败批次，没有失败时返回null
+     */
+    public PipelineStage.BatchFailure firstFailure()
+    {
+        for (PipelineStage.StageMetrics metrics : metrics()) {
+            if (metrics.firstFailure != null) {
+                return metrics.firstFailure;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 找出利用率最高的阶段，即限制整体吞吐的瓶颈
+     */
+    public PipelineStage.StageMetrics bottleneck()
+    {
+        return Collections.max(metrics(), Comparator.comparingDouble(PipelineStage.StageMetrics::utilization));
+    }
+
+    /**
+     * 打印各阶段的统计信息
+     */
+    public void printMetrics()
+    {
+        System.out.println("=== 流水线统计 ===");
+        for (PipelineStage.StageMetrics metrics : metrics()) {
+            System.out.println(metrics);
+        }
+        System.out.println("输入阻塞总时长: " + source.getBlockedOnFullNanos() / 1_000_000 + "ms");
+        System.out.println("瓶颈阶段: " + bottleneck().name);
+        PipelineStage.BatchFailure failure = firstFailure();
+        if (failure != null) {
+            System.out.println("第一个失败的批次: " + failure);
+        }
+    }
+
+    /**
+     * 流水线构建器
+     *
+     * @param <I> 流水线输入元素类型
+     * @param <T> 当前最后一个阶段的输出类型
+     */
+    public static class Builder<I, T>
+    {
+        private final ProducerConsumerWithCondition<I> source;
+        private final List<PipelineStage<?, ?>> stages;
+        private final PipelineStage<?, T> last;
+
+        private Builder(ProducerConsumerWithCondition<I> source, List<PipelineStage<?, ?>> stages,
+                PipelineStage<?, T> last)
+        {
+            this.source = source;
+            this.stages = stages;
+            this.last = last;
+        }
+
+        /**
+         * 添加一个按批处理的阶段
+         *
+         * @param name 阶段名称
+         * @param parallelism 工作线程数
+         * @param batchSize 批大小
+         * @param capacity 阶段输入缓冲区容量
+         * @param processor 批处理函数，返回的元素逐个写入下游；可以原地修改并直接返回传入的批次列表，
+         * 但该列表在结果写入下游后会被清空复用，处理函数不能在返回后继续持有它
+         */
+        @SuppressWarnings("unchecked")
+        public <R> Builder<I, R> stage(String name, int parallelism, int batchSize, int capacity,
+                Function<List<T>, List<R>> processor)
+        {
+            ProducerConsumerWithCondition<T> input = new ProducerConsumerWithCondition<>(capacity, false);
+            PipelineStage<T, R> stage = new PipelineStage<>(name, parallelism, batchSize, input, processor);
+            ProducerConsumerWithCondition<I> head = source;
+            if (last == null) {
+                // 第一个阶段的输入类型就是流水线的输入类型
+                head = (ProducerConsumerWithCondition<I>) input;
+            }
+            else {
+                last.connect(input);
+            }
+            stages.add(stage);
+            return new Builder<>(head, stages, stage);
+        }
+
+        /**
+         * 添加一个逐个元素转换的阶段，返回null的元素会被丢弃
+         */
+        public <R> Builder<I, R> map(String name, int parallelism, int batchSize, int capacity,
+                Function<T, R> mapper)
+        {
+            return stage(name, parallelism, batchSize, capacity, batch -> {
+                List<R> results = new ArrayList<>(batch.size());
+                for (T item : batch) {
+                    R result = mapper.apply(item);
+                    if (result != null) {
+                        results.add(result);
+                    }
+                }
+                return results;
+            });
+        }
+
+        /**
+         * 添加最后的输出阶段并构建流水线
+         */
+        public Pipeline<I> sink(String name, int parallelism, int batchSize, int capacity,
+                Consumer<List<T>> consumer)
+        {
+            Builder<I, Void> builder = stage(name, parallelism, batchSize, capacity, batch -> {
+                consumer.accept(batch);
+                return Collections.emptyList();
+            });
+            return new Pipeline<>(builder.source, builder.stages);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.devlive.tutorial.multithreading.chapter09;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 多阶段流水线示例：解析 → 补全 → 写出
+ * 补全阶段故意放慢，观察统计信息如何指出瓶颈
+ */
+public class PipelineDemo
+{
+    public static void main(String[] args)
+            throws InterruptedException
+    {
+        AtomicLong written = new AtomicLong();
+
+        Pipeline<String> pipeline = Pipeline.<String>builder()
+                // 解析：把 "id,name" 格式的文本拆成数组
+                .map("解析", 1, 16, 64, line -> line.split(","))
+                // 补全：模拟查询外部服务，每条耗时约1ms
+                .map("补全", 2, 8, 32, fields -> {
+                    try {
+                        Thread.sleep(1);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return fields[0] + ":" + fields[1].toUpperCase();
+                })
+                // 写出：按批写出，减少IO次数
+                .sink("写出", 1, 50, 128, batch -> written.addAndGet(batch.size()));
+
+        pipeline.start();
+
+        // 监控线程：定期打印各阶段统计
+        Thread monitor = new Thread(() -> {
+            try {
+                while (!pipeline.isTerminated()) {
+                    TimeUnit.SECONDS.sleep(1);
+                    pipeline.printMetrics();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "监控线程");
+        monitor.setDaemon(true);
+        monitor.start();
+
+        // 数据源：补全阶段跟不上时，submit会被背压阻塞
+        for (int i = 0; i < 3000; i++) {
+            pipeline.submit(i + ",user-" + i);
+        }
+        pipeline.close();
+
+        if (!pipeline.awaitTermination(30, TimeUnit.SECONDS)) {
+            System.out.println("流水线未能在30秒内结束，强制停止");
+            pipeline.shutdownNow();
+        }
+
+        System.out.println("\n最终结果，共写出: " + written.get());
+        pipeline.printMetrics();
+    }
+}
@@ -0,0 +1,270 @@
+package org.devlive.tutorial.multithreading.chapter09;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 流水线中的一个阶段
+ * 多个工作线程从有界输入缓冲区按批次取数据，处理后写入下游缓冲区。
+ * 下游缓冲区写满时工作线程阻塞，不再从输入缓冲区取数据，背压由此逐级传递到上游。
+ * 处理函数抛出异常时该批次不产生输出，流水线继续运行；第一次失败的异常和批次内容会保留在统计快照中。
+ */
+public class PipelineStage<T, R>
+{
+    private final String name;
+    private final int parallelism;
+    private final int batchSize;
+    private final ProducerConsumerWithCondition<T> input;
+    // 批处理函数；批次列表会被复用，处理函数可以修改并返回它，但返回后不能再保留对它的引用
+    private final Function<List<T>, List<R>> processor;
+    // 下游缓冲区，最后一个阶段为null
+    private ProducerConsumerWithCondition<R> output;
+
+    private final Thread[] workers;
+    private final AtomicInteger runningWorkers = new AtomicInteger();
+
+    // 统计信息
+    private final LongAdder processedItems = new LongAdder();
+    private final LongAdder emittedItems = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+    private final AtomicReference<BatchFailure> firstFailure = new AtomicReference<>();
+    private volatile long startNanos = 0;
+    private volatile long endNanos = 0;
+
+    /**
+     * @param name 阶段名称，同时作为工作线程名前缀
+     * @param parallelism 工作线程数
+     * @param batchSize 每次最多从输入缓冲区取出的元素数
+     * @param input 输入缓冲区，其容量即该阶段的缓冲容量
+     * @param processor 批处理函数
+     */
+    public PipelineStage(String name, int parallelism, int batchSize,
+            ProducerConsumerWithCondition<T> input, Function<List<T>, List<R>> processor)
+    {
+        if (parallelism <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("parallelism和batchSize必须大于0");
+        }
+        this.name = name;
+        this.parallelism = parallelism;
+        this.batchSize = batchSize;
+        this.input = input;
+        this.processor = processor;
+        this.workers = new Thread[parallelism];
+    }
+
+    /**
+     * 连接下游缓冲区，必须在start之前调用
+     */
+    void connect(ProducerConsumerWithCondition<R> output)
+    {
+        this.output = output;
+    }
+
+    void start()
+    {
+        startNanos = System.nanoTime();
+        runningWorkers.set(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            workers[i] = new Thread(this::runWorker, name + "-" + (i + 1));
+            workers[i].start();
+        }
+    }
+
+    private void runWorker()
+    {
+        List<T> batch = new ArrayList<>(batchSize);
+        try {
+            // drainTo返回-1表示上游已关闭且数据已取完
+            while (input.drainTo(batch, batchSize) >= 0) {
+                long start = System.nanoTime();
+                // 处理函数可能原地修改批次，先记下取到的元素数
+                int size = batch.size();
+                List<R> results;
+                try {
+                    results = processor.apply(batch);
+                }
+                catch (RuntimeException e) {
+                    failedBatches.increment();
+                    // 批次列表会被复用，只为第一次失败复制一份
+                    if (firstFailure.get() == null) {
+                        firstFailure.compareAndSet(null, new BatchFailure(e, new ArrayList<>(batch)));
+                    }
+                    results = Collections.emptyList();
+                }
+                busyNanos.add(System.nanoTime() - start);
+                processedItems.add(size);
+                batches.increment();
+
+                if (output != null && results != null) {
+                    for (R result : results) {
+                        // 下游满时在这里阻塞，形成背压
+                        output.produce(result);
+                        emittedItems.increment();
+                    }
+                }
+                // 结果可能就是批次列表本身，写完下游后才能清空复用
+                batch.clear();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            // 最后一个退出的工作线程负责把流结束信号传给下游
+            if (runningWorkers.decrementAndGet() == 0) {
+                endNanos = System.nanoTime();
+                if (output != null) {
+                    output.close();
+                }
+            }
+        }
+    }
+
+    void interrupt()
+    {
+        for (Thread worker : workers) {
+            if (worker != null) {
+                worker.interrupt();
+            }
+        }
+    }
+
+    void join(long deadlineNanos)
+            throws InterruptedException
+    {
+        for (Thread worker : workers) {
+            if (worker == null) {
+                continue;
+            }
+            long remainingMillis = (deadlineNanos - System.nanoTime()) / 1_000_000;
+            if (remainingMillis <= 0) {
+                return;
+            }
+            worker.join(remainingMillis);
+        }
+    }
+
+    public boolean isTerminated()
+    {
+        return startNanos != 0 && runningWorkers.get() == 0;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * 获取当前的统计快照
+     */
+    public StageMetrics metrics()
+    {
+        long end = endNanos != 0 ? endNanos : System.nanoTime();
+        long elapsed = startNanos == 0 ? 0 : end - startNanos;
+        return new StageMetrics(name, parallelism, batchSize,
+                processedItems.sum(), emittedItems.sum(), batches.sum(), failedBatches.sum(),
+                input.size(), input.getCapacity(),
+                output == null ? 0 : output.getBlockedOnFullNanos(),
+                input.getBlockedOnEmptyNanos(),
+                busyNanos.sum(), elapsed, firstFailure.get());
+    }
+
+    /**
+     * 一次失败的批处理：处理函数抛出的异常和当时的批次内容
+     */
+    public static class BatchFailure
+    {
+        public final RuntimeException exception;
+        public final List<?> batch;
+
+        BatchFailure(RuntimeException exception, List<?> batch)
+        {
+            this.exception = exception;
+            this.batch = Collections.unmodifiableList(batch);
+        }
+
+        @Override
+        public String toString()
+        {
+            return exception + " (批次大小: " + batch.size() + ")";
+        }
+    }
+
+    /**
+     * 阶段统计快照
+     */
+    public static class StageMetrics
+    {
+        public final String name;
+        public final int parallelism;
+        public final int batchSize;
+        public final long processed;
+        public final long emitted;
+        public final long batches;
+        public final long failedBatches;
+        public final int queueDepth;
+        public final int queueCapacity;
+        // 因下游满而阻塞的时间
+        public final long blockedOnFullNanos;
+        // 因上游空而阻塞的时间
+        public final long blockedOnEmptyNanos;
+        public final long busyNanos;
+        public final long elapsedNanos;
+        // 第一次失败的批处理，没有失败时为null
+        public final BatchFailure firstFailure;
+
+        StageMetrics(String name, int parallelism, int batchSize, long processed, long emitted,
+                long batches, long failedBatches, int queueDepth, int queueCapacity,
+                long blockedOnFullNanos, long blockedOnEmptyNanos, long busyNanos, long elapsedNanos,
+                BatchFailure firstFailure)
+        {
+            this.name = name;
+            this.parallelism = parallelism;
+            this.batchSize = batchSize;
+            this.processed = processed;
+            this.emitted = emitted;
+            this.batches = batches;
+            this.failedBatches = failedBatches;
+            this.queueDepth = queueDepth;
+            this.queueCapacity = queueCapacity;
+            this.blockedOnFullNanos = blockedOnFullNanos;
+            this.blockedOnEmptyNanos = blockedOnEmptyNanos;
+            this.busyNanos = busyNanos;
+            this.elapsedNanos = elapsedNanos;
+            this.firstFailure = firstFailure;
+        }
+
+        /**
+         * 吞吐量（每秒处理的元素数）
+         */
+        public double throughput()
+        {
+            return elapsedNanos == 0 ? 0 : processed * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * 工作线程忙于处理的时间占比，最高的阶段通常就是瓶颈
+         */
+        public double utilization()
+        {
+            return elapsedNanos == 0 ? 0 : (double) busyNanos / ((double) elapsedNanos * parallelism);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%-10s 线程:%d 批:%d 处理:%d 吞吐:%.0f/s 队列:%d/%d 满阻塞:%dms 空阻塞:%dms 利用率:%.0f%% 失败批次:%d",
+                    name, parallelism, batchSize, processed, throughput(), queueDepth, queueCapacity,
+                    blockedOnFullNanos / 1_000_000, blockedOnEmptyNanos / 1_000_000,
+                    utilization() * 100, failedBatches)
+                    + (firstFailure == null ? "" : " 首次失败: " + firstFailure);
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package org.devlive.tutorial.multithreading.chapter09;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 带优先级的有界生产者-消费者缓冲区
+ * 每个优先级一个环形子队列，用位图记录哪些优先级非空，
+ * 取出最高优先级只需一次numberOfTrailingZeros，时间复杂度O(1)。
+ * 优先级0最高，最多支持64个优先级。
+ * notFull/notEmpty的语义以及tryProduce/tryConsume与ProducerConsumerWithCondition保持一致。
+ */
+public class PriorityProducerConsumerWithCondition<T>
+{
+    public static final int MAX_PRIORITIES = 64;
+
+    private final Object[][] rings;     // 每个优先级的环形子队列，按需创建
+    private final int[] putIndexes;
+    private final int[] takeIndexes;
+    private final int[] counts;
+    private final int capacity;         // 所有优先级共享的总容量
+    private final int priorities;
+    private int count = 0;              // 当前元素总数
+    private long nonEmptyMask = 0;      // 第i位为1表示优先级i非空
+
+    // 防饥饿：高优先级连续出队达到阈值后，让给一个低优先级
+    private final int starvationThreshold;
+    private int consecutiveHighTakes = 0;
+    private int starvationCursor = 0;   // 轮流照顾各个低优先级
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition(); // 缓冲区非空条件
+    private final Condition notFull = lock.newCondition();  // 缓冲区非满条件
+
+    private final boolean verbose;
+
+    // 统计信息
+    private volatile int totalProduced = 0;
+    private volatile int totalConsumed = 0;
+    private volatile int starvationRescues = 0;
+
+    public PriorityProducerConsumerWithCondition(int capacity, int priorities)
+    {
+        this(capacity, priorities, 8, true);
+    }
+
+    /**
+     * @param capacity 缓冲区总容量
+     * @param priorities 优先级数量，取值1~64
+     * @param starvationThreshold 高优先级连续出队多少次后让低优先级出队一次
+     * @param verbose 是否打印每一次生产/消费的日志
+     */
+    public PriorityProducerConsumerWithCondition(int capacity, int priorities, int starvationThreshold, boolean verbose)
+    {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("容量必须大于0");
+        }
+        if (priorities <= 0 || priorities > MAX_PRIORITIES) {
+            throw new IllegalArgumentException("优先级数量必须在1到" + MAX_PRIORITIES + "之间");
+        }
+        if (starvationThreshold <= 0) {
+            throw new IllegalArgumentException("防饥饿阈值必须大于0");
+        }
+        this.capacity = capacity;
+        this.priorities = priorities;
+        this.starvationThreshold = starvationThreshold;
+        this.verbose = verbose;
+        this.rings = new Object[priorities][];
+        this.putIndexes = new int[priorities];
+        this.takeIndexes = new int[priorities];
+        this.counts = new int[priorities];
+    }
+
+    /**
+     * 生产者方法：按优先级添加元素，缓冲区满时等待
+     */
+    public void produce(T item, int priority)
+            throws InterruptedException
+    {
+        checkPriority(priority);
+        lock.lock();
+        try {
+            // 当缓冲区满时，生产者等待
+            while (count == capacity) {
+                if (verbose) {
+                    System.out.println(Thread.currentThread().getName() + " 缓冲区已满，生产者等待...");
+                }
+                notFull.await();
+            }
+
+            enqueue(item, priority);
+
+            if (verbose) {
+                System.out.println(Thread.currentThread().getName() + " 生产了: " + item +
+                        " (优先级" + priority + ") [缓冲区: " + count + "/" + capacity + "]");
+            }
+
+            // 通知消费者：缓冲区不再为空
+            notEmpty.signal();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 消费者方法：取出优先级最高的元素，缓冲区空时等待
+     */
+    public T consume()
+            throws InterruptedException
+    {
+        lock.lock();
+        try {
+            // 当缓冲区空时，消费者等待
+            while (count == 0) {
+                if (verbose) {
+                    System.out.println(Thread.currentThread().getName() + " 缓冲区为空，消费者等待...");
+                }
+                notEmpty.await();
+            }
+
+            T item = dequeue();
+
+            if (verbose) {
+                System.out.println(Thread.currentThread().getName() + " 消费了: " + item +
+                        " [缓冲区: " + count + "/" + capacity + "]");
+            }
+
+            // 通知生产者：缓冲区不再满
+            notFull.signal();
+
+            return item;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 尝试生产（非阻塞）
+     */
+    public boolean tryProduce(T item, int priority)
+    {
+        checkPriority(priority);
+        if (lock.tryLock()) {
+            try {
+                if (count < capacity) {
+                    enqueue(item, priority);
+
+                    if (verbose) {
+                        System.out.println(Thread.currentThread().getName() + " 非阻塞生产了: " + item +
+                                " (优先级" + priority + ") [缓冲区: " + count + "/" + capacity + "]");
+                    }
+
+                    notEmpty.signal();
+                    return true;
+                }
+                else {
+                    if (verbose) {
+                        System.out.println(Thread.currentThread().getName() + " 缓冲区满，非阻塞生产失败");
+                    }
+                    return false;
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+        else {
+            if (verbose) {
+                System.out.println(Thread.currentThread().getName() + " 获取锁失败，非阻塞生产失败");
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 尝试消费（非阻塞）
+     */
+    public T tryConsume()
+    {
+        if (lock.tryLock()) {
+            try {
+                if (count > 0) {
+                    T item = dequeue();
+
+                    if (verbose) {
+                        System.out.println(Thread.currentThread().getName() + " 非阻塞消费了: " + item +
+                                " [缓冲区: " + count + "/" + capacity + "]");
+                    }
+
+                    notFull.signal();
+                    return item;
+                }
+                else {
+                    if (verbose) {
+                        System.out.println(Thread.currentThread().getName() + " 缓冲区空，非阻塞消费失败");
+                    }
+                    return null;
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+        else {
+            if (verbose) {
+                System.out.println(Thread.currentThread().getName() + " 获取锁失败，非阻塞消费失败");
+            }
+            return null;
+        }
+    }
+
+    private void checkPriority(int priority)
+    {
+        if (priority < 0 || priority >= priorities) {
+            throw new IllegalArgumentException("优先级超出范围: " + priority);
+        }
+    }
+
+    /**
+     * 入队，调用方必须持有锁且缓冲区未满
+     */
+    private void enqueue(T item, int priority)
+    {
+        Object[] ring = rings[priority];
+        if (ring == null) {
+            // 单个优先级最多可能占满整个缓冲区
+            ring = new Object[capacity];
+            rings[priority] = ring;
+        }
+        ring[putIndexes[priority]] = item;
+        putIndexes[priority] = (putIndexes[priority] + 1) % capacity;
+        counts[priority]++;
+        nonEmptyMask |= 1L << priority;
+        count++;
+        totalProduced++;
+    }
+
+    /**
+     * 出队，调用方必须持有锁且缓冲区非空
+     */
+    @SuppressWarnings("unchecked")
+    private T dequeue()
+    {
+        int highest = Long.numberOfTrailingZeros(nonEmptyMask);
+        int priority = highest;
+
+        long lowerMask = nonEmptyMask & ~(1L << highest);
+        if (lowerMask == 0) {
+            // 没有其他优先级在等待，不存在饥饿
+            consecutiveHighTakes = 0;
+        }
+        else if (++consecutiveHighTakes >= starvationThreshold) {
+            // 从游标位置开始找下一个非空的低优先级，轮流照顾
+            long fromCursor = lowerMask & (-1L << starvationCursor);
+            priority = Long.numberOfTrailingZeros(fromCursor != 0 ? fromCursor : lowerMask);
+            starvationCursor = priority + 1 == MAX_PRIORITIES ? 0 : priority + 1;
+            consecutiveHighTakes = 0;
+            starvationRescues++;
+        }
+
+        Object[] ring = rings[priority];
+        T item = (T) ring[takeIndexes[priority]];
+        ring[takeIndexes[priority]] = null; // 帮助GC
+        takeIndexes[priority] = (takeIndexes[priority] + 1) % capacity;
+        if (--counts[priority] == 0) {
+            nonEmptyMask &= ~(1L << priority);
+        }
+        count--;
+        totalConsumed++;
+        return item;
+    }
+
+    /**
+     * 当前缓冲区中的元素数量
+     */
+    public int size()
+    {
+        lock.lock();
+        try {
+            return count;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 获取当前状态
+     */
+    public void printStatus()
+    {
+        lock.lock();
+        try {
+            System.out.println("=== 优先级缓冲区状态 ===");
+            System.out.println("容量: " + capacity);
+            System.out.println("当前大小: " + count);
+            StringBuilder levels = new StringBuilder();
+            for (int i = 0; i < priorities; i++) {
+                levels.append(" P").append(i).append('=').append(counts[i]);
+            }
+            System.out.println("各优先级数量:" + levels);
+            System.out.println("总生产数量: " + totalProduced);
+            System.out.println("总消费数量: " + totalConsumed);
+            System.out.println("防饥饿让位次数: " + starvationRescues);
+            System.out.println("等待非满条件的线程数: " + lock.getWaitQueueLength(notFull));
+            System.out.println("等待非空条件的线程数: " + lock.getWaitQueueLength(notEmpty));
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 关闭生产者消费者系统，唤醒所有等待的线程
+     */
+    public void shutdown()
+    {
+        lock.lock();
+        try {
+            System.out.println("系统关闭，唤醒所有等待的线程");
+            notFull.signalAll();
+            notEmpty.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public static void main(String[] args)
+            throws InterruptedException
+    {
+        // 3个优先级：0紧急、1普通、2批量；高优先级连续出队4次后让位一次
+        PriorityProducerConsumerWithCondition<String> system =
+                new PriorityProducerConsumerWithCondition<>(10, 3, 4, false);
+
+        // 批量任务生产者：持续灌入低优先级任务
+        Thread bulkProducer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 20; i++) {
+                    system.produce("批量-" + i, 2);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "批量生产者");
+
+        // 紧急任务生产者：不断插入高优先级任务
+        Thread urgentProducer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 20; i++) {
+                    if (!system.tryProduce("紧急-" + i, 0)) {
+                        system.produce("紧急-" + i, 0);
+                    }
+                    Thread.sleep(20);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "紧急生产者");
+
+        Thread consumer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 40; i++) {
+                    String item = system.consume();
+                    System.out.println(Thread.currentThread().getName() + " 处理: " + item);
+                    Thread.sleep(15);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "消费者");
+
+        bulkProducer.start();
+        urgentProducer.start();
+        Thread.sleep(100); // 让缓冲区先积压一些批量任务
+        consumer.start();
+
+        bulkProducer.join();
+        urgentProducer.join();
+        consumer.join();
+
+        system.printStatus();
+    }
+}
@@ -1,5 +1,6 @@
 package org.devlive.tutorial.multithreading.chapter09;
 
+import java.util.Collection;
 import java.util.Random;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
@@ -17,19 +18,48 @@ public class ProducerConsumerWithCondition<T>
     private int putIndex = 0;   // 生产者索引
     private int takeIndex = 0;  // 消费者索引
 
-    private final ReentrantLock lock = new ReentrantLock();
-    private final Condition notEmpty = lock.newCondition(); // 缓冲区非空条件
-    private final Condition notFull = lock.newCondition();  // 缓冲区非满条件
+    private final ReentrantLock lock;
+    private final Condition notEmpty; // 缓冲区非空条件
+    private final Condition notFull;  // 缓冲区非满条件
 
     // 统计信息
     private volatile int totalProduced = 0;
     private volatile int totalConsumed = 0;
+    // 生产者因缓冲区满、消费者因缓冲区空而阻塞的累计时间（纳秒），受lock保护
+    private long blockedOnFullNanos = 0;
+    private long blockedOnEmptyNanos = 0;
+
+    // 是否打印每一次生产/消费的日志，流水线等高吞吐场景应关闭
+    private final boolean verbose;
+    // 关闭后不再接受生产，消费者取完剩余元素后得到流结束信号
+    private boolean closed = false;
 
-    @SuppressWarnings("unchecked")
     public ProducerConsumerWithCondition(int capacity)
+    {
+        this(capacity, true);
+    }
+
+    /**
+     * @param capacity 缓冲区容量
+     * @param verbose 是否打印每一次生产/消费的日志
+     */
+    public ProducerConsumerWithCondition(int capacity, boolean verbose)
+    {
+        this(capacity, verbose, new ReentrantLock());
+    }
+
+    /**
+     * @param lock 保护缓冲区的锁，可以传入InstrumentedLock等子类统计等待和持有时间
+     */
+    @SuppressWarnings("unchecked")
+    public ProducerConsumerWithCondition(int capacity, boolean verbose, ReentrantLock lock)
     {
         this.capacity = capacity;
         this.buffer = (T[]) new Object[capacity];
+        this.verbose = verbose;
+        this.lock = lock;
+        this.notEmpty = lock.newCondition();
+        this.notFull = lock.newCondition();
     }
 
     /**
@@ -40,10 +70,22 @@ public class ProducerConsumerWithCondition<T>
     {
         lock.lock();
         try {
+            checkNotClosed();
             // 当缓冲区满时，生产者等待
-            while (count == capacity) {
-                System.out.println(Thread.currentThread().getName() + " 缓冲区已满，生产者等待...");
-                notFull.await();
+            if (count == capacity) {
+                long start = System.nanoTime();
+                try {
+                    while (count == capacity) {
+                        if (verbose) {
+                            System.out.println(Thread.currentThread().getName() + " 缓冲区已满，生产者等待...");
+                        }
+                        notFull.await();
+                        checkNotClosed();
+                    }
+                }
+                finally {
+                    blockedOnFullNanos += System.nanoTime() - start;
+                }
             }
 
             // 添加元素到缓冲区
@@ -52,8 +94,10 @@ public class ProducerConsumerWithCondition<T>
             count++;
             totalProduced++;
 
-            System.out.println(Thread.currentThread().getName() + " 生产了: " + item +
-                    " [缓冲区: " + count + "/" + capacity + "]");
+            if (verbose) {
+                System.out.println(Thread.currentThread().getName() + " 生产了: " + item +
+                        " [缓冲区: " + count + "/" + capacity + "]");
+            }
 
             // 通知消费者：缓冲区不再为空
             notEmpty.signal();
@@ -65,6 +109,8 @@ public class ProducerConsumerWithCondition<T>
 
     /**
      * 消费者方法：从缓冲区取出元素
+     *
+     * @return 取出的元素；缓冲区已关闭且为空时返回null
      */
     public T consume()
             throws InterruptedException
@@ -72,9 +118,8 @@ public class ProducerConsumerWithCondition<T>
         lock.lock();
         try {
             // 当缓冲区空时，消费者等待
-            while (count == 0) {
-                System.out.println(Thread.currentThread().getName() + " 缓冲区为空，消费者等待...");
-                notEmpty.await();
+            if (!awaitNotEmpty()) {
+                return null;
             }
 
             // 从缓冲区取出元素
@@ -84,8 +129,10 @@ public class ProducerConsumerWithCondition<T>
             count--;
             totalConsumed++;
 
-            System.out.println(Thread.currentThread().getName() + " 消费了: " + item +
-                    " [缓冲区: " + count + "/" + capacity + "]");
+            if (verbose) {
+                System.out.println(Thread.currentThread().getName() + " 消费了: " + item +
+                        " [缓冲区: " + count + "/" + capacity + "]");
+            }
 
             // 通知生产者：缓冲区不再满
             notFull.signal();
@@ -97,6 +144,79 @@ public class ProducerConsumerWithCondition<T>
         }
     }
 
+    /**
+     * 批量消费：至少取出一个元素，最多取出maxElements个放入target
+     * 用于流水线按批次处理，一次加锁搬运多个元素
+     *
+     * @return 实际取出的数量；缓冲区已关闭且为空时返回-1
+     */
+    public int drainTo(Collection<? super T> target, int maxElements)
+            throws InterruptedException
+    {
+        lock.lock();
+        try {
+            if (!awaitNotEmpty()) {
+                return -1;
+            }
+
+            int n = Math.min(count, maxElements);
+            for (int i = 0; i < n; i++) {
+                target.add(buffer[takeIndex]);
+                buffer[takeIndex] = null;
+                takeIndex = (takeIndex + 1) % capacity;
+                // 每腾出一个位置唤醒一个生产者
+                notFull.signal();
+            }
+            count -= n;
+            totalConsumed += n;
+
+            if (verbose) {
+                System.out.println(Thread.currentThread().getName() + " 批量消费了: " + n +
+                        " 个 [缓冲区: " + count + "/" + capacity + "]");
+            }
+            return n;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 等待缓冲区非空，调用方必须持有锁
+     *
+     * @return 有元素可取时返回true；缓冲区已关闭且为空时返回false
+     */
+    private boolean awaitNotEmpty()
+            throws InterruptedException
+    {
+        if (count > 0) {
+            return true;
+        }
+        long start = System.nanoTime();
+        try {
+            while (count == 0) {
+                if (closed) {
+                    return false;
+                }
+                if (verbose) {
+                    System.out.println(Thread.currentThread().getName() + " 缓冲区为空，消费者等待...");
+                }
+                notEmpty.await();
+            }
+            return true;
+        }
+        finally {
+            blockedOnEmptyNanos += System.nanoTime() - start;
+        }
+    }
+
+    private void checkNotClosed()
+    {
+        if (closed) {
+            throw new IllegalStateException("缓冲区已关闭，不能继续生产");
+        }
+    }
+
     /**
      * 尝试生产（非阻塞）
      */
@@ -104,20 +224,25 @@ public class ProducerConsumerWithCondition<T>
     {
         if (lock.tryLock()) {
             try {
+                checkNotClosed();
                 if (count < capacity) {
                     buffer[putIndex] = item;
                     putIndex = (putIndex + 1) % capacity;
                     count++;
                     totalProduced++;
 
-                    System.out.println(Thread.currentThread().getName() + " 非阻塞生产了: " + item +
-                            " [缓冲区: " + count + "/" + capacity + "]");
+                    if (verbose) {
+                        System.out.println(Thread.currentThread().getName() + " 非阻塞生产了: " + item +
+                                " [缓冲区: " + count + "/" + capacity + "]");
+                    }
 
                     notEmpty.signal();
                     return true;
                 }
                 else {
-                    System.out.println(Thread.currentThread().getName() + " 缓冲区满，非阻塞生产失败");
+                    if (verbose) {
+                        System.out.println(Thread.currentThread().getName() + " 缓冲区满，非阻塞生产失败");
+                    }
                     return false;
                 }
             }
@@ -126,7 +251,9 @@ public class ProducerConsumerWithCondition<T>
             }
         }
         else {
-            System.out.println(Thread.currentThread().getName() + " 获取锁失败，非阻塞生产失败");
+            if (verbose) {
+                System.out.println(Thread.currentThread().getName() + " 获取锁失败，非阻塞生产失败");
+            }
             return false;
         }
     }
@@ -145,14 +272,18 @@ public class ProducerConsumerWithCondition<T>
                     count--;
                     totalConsumed++;
 
-                    System.out.println(Thread.currentThread().getName() + " 非阻塞消费了: " + item +
-                            " [缓冲区: " + count + "/" + capacity + "]");
+                    if (verbose) {
+                        System.out.println(Thread.currentThread().getName() + " 非阻塞消费了: " + item +
+                                " [缓冲区: " + count + "/" + capacity + "]");
+                    }
 
                     notFull.signal();
                     return item;
                 }
                 else {
-                    System.out.println(Thread.currentThread().getName() + " 缓冲区空，非阻塞消费失败");
+                    if (verbose) {
+                        System.out.println(Thread.currentThread().getName() + " 缓冲区空，非阻塞消费失败");
+                    }
                     return null;
                 }
             }
@@ -161,11 +292,87 @@ public class ProducerConsumerWithCondition<T>
             }
         }
         else {
-            System.out.println(Thread.currentThread().getName() + " 获取锁失败，非阻塞消费失败");
+            if (verbose) {
+                System.out.println(Thread.currentThread().getName() + " 获取锁失败，非阻塞消费失败");
+            }
             return null;
         }
     }
 
+    /**
+     * 当前缓冲区中的元素数量
+     */
+    public int size()
+    {
+        lock.lock();
+        try {
+            return count;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * 生产者因缓冲区满而阻塞的累计时间（纳秒）
+     */
+    public long getBlockedOnFullNanos()
+    {
+        lock.lock();
+        try {
+            return blockedOnFullNanos;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 消费者因缓冲区空而阻塞的累计时间（纳秒）
+     */
+    public long getBlockedOnEmptyNanos()
+    {
+        lock.lock();
+        try {
+            return blockedOnEmptyNanos;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 关闭缓冲区：拒绝新的生产，消费者取完剩余元素后收到流结束信号
+     */
+    public void close()
+    {
+        lock.lock();
+        try {
+            closed = true;
+            notFull.signalAll();
+            notEmpty.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed()
+    {
+        lock.lock();
+        try {
+            return closed;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * 获取当前状态
      */
@@ -180,6 +387,8 @@ public class ProducerConsumerWithCondition<T>
             System.out.println("总消费数量: " + totalConsumed);
             System.out.println("等待非满条件的线程数: " + lock.getWaitQueueLength(notFull));
             System.out.println("等待非空条件的线程数: " + lock.getWaitQueueLength(notEmpty));
+            System.out.println("生产者阻塞总时长: " + blockedOnFullNanos / 1_000_000 + "ms");
+            System.out.println("消费者阻塞总时长: " + blockedOnEmptyNanos / 1_000_000 + "ms");
         }
         finally {
             lock.unlock();
@@ -1,5 +1,7 @@
 package org.devlive.tutorial.stream.chapter04;
 
+import org.devlive.tutorial.multithreading.chapter02.LatencyHistogram;
+
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.IntStream;
@@ -27,6 +29,23 @@ public class NumberStreamAdvantage
         endTime = System.nanoTime();
         System.out.println("IntStream求和: " + sum2 + ", 耗时: " + (endTime - startTime) + "ns");
 
+        // 单次计时受JIT预热和噪声影响很大，多次运行后看分布更可靠
+        LatencyHistogram boxedLatency = new LatencyHistogram("普通Stream求和");
+        LatencyHistogram intStreamLatency = new LatencyHistogram("IntStream求和");
+        int checksum = 0;
+        for (int i = 0; i < 100_000; i++) {
+            long start = System.nanoTime();
+            checksum += numbers.stream().mapToInt(Integer::intValue).sum();
+            boxedLatency.recordSince(start);
+
+            start = System.nanoTime();
+            checksum += IntStream.rangeClosed(1, 10).sum();
+            intStreamLatency.recordSince(start);
+        }
+        System.out.println("\n多次运行的耗时分布（校验和: " + checksum + "）:");
+        System.out.println(boxedLatency.snapshot());
+        System.out.println(intStreamLatency.snapshot());
+
         // 展示IntStream的简洁API
         System.out.println("\nIntStream的简洁API:");
         IntStream.rangeClosed(1, 10)
@@ -1,5 +1,7 @@
 package org.devlive.tutorial.stream.chapter07;
 
+import org.devlive.tutorial.multithreading.chapter02.LatencyHistogram;
+
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -41,5 +43,33 @@ public class FlatMapPerformance {
 
         long endTime = System.nanoTime();
         System.out.println("优化后耗时: " + (endTime - startTime) + "ns");
+
+        // 多次运行，对比两种方式的耗时分布
+        LatencyHistogram arrayLatency = new LatencyHistogram("中间数组");
+        LatencyHistogram directLatency = new LatencyHistogram("直接流式处理");
+        int total = 0;
+        for (int i = 0; i < 50_000; i++) {
+            long start = System.nanoTime();
+            total += sentences.stream()
+                    .map(s -> s.split(" "))
+                    .flatMap(Arrays::stream)
+                    .filter(word -> word.length() > 4)
+                    .map(String::toUpperCase)
+                    .collect(Collectors.toList())
+                    .size();
+            arrayLatency.recordSince(start);
+
+            start = System.nanoTime();
+            total += sentences.stream()
+                    .flatMap(s -> Arrays.stream(s.split(" ")))
+                    .filter(word -> word.length() > 4)
+                    .map(String::toUpperCase)
+                    .collect(Collectors.toList())
+                    .size();
+            directLatency.recordSince(start);
+        }
+        System.out.println("\n多次运行的耗时分布（单词总数: " + total + "）:");
+        System.out.println(arrayLatency.snapshot());
+        System.out.println(directLatency.snapshot());
     }
 }